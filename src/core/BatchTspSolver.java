@@ -0,0 +1,186 @@
+package core;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.apache.log4j.Logger;
+import com.graphhopper.jsprit.core.problem.Location;
+
+/**
+ * Batch TSP Solver: solve many lines at once, geocoding every distinct stop once and calculating
+ * every distinct couple of stops once into a cost matrix wrapper shared by all lines;
+ * lines are solved in parallel and every result is passed to a listener as soon as it is ready
+ * @author Francesco Raco
+ */
+public class BatchTspSolver
+{
+	/**
+	 * Logger for configuring which message types are written
+	 */
+	public static final Logger log = Logger.getLogger("BatchTspSolver");
+	
+	/**
+	 * Geographic Map
+	 */
+	private GeographicMap map;
+	
+	/**
+	 * Number of threads used for routing and solving
+	 */
+	private int threads;
+	
+	/**
+	 * Cost Matrix Wrapper shared by all lines
+	 */
+	private CostMatrixWrapper cmw = new CostMatrixWrapper();
+	
+	/**
+	 * Create batch solver by map and number of threads
+	 * @param map Geographic Map
+	 * @param threads Number of threads used for routing and solving
+	 */
+	public BatchTspSolver(GeographicMap map, int threads)
+	{
+		this.map = map;
+		this.threads = Math.max(1, threads);
+	}
+	
+	/**
+	 * Create batch solver by map, using as many threads as available cores
+	 * @param map Geographic Map
+	 */
+	public BatchTspSolver(GeographicMap map)
+	{
+		this(map, Runtime.getRuntime().availableProcessors());
+	}
+	
+	/**
+	 * Get Cost Matrix Wrapper shared by all lines
+	 * @return Cost Matrix Wrapper shared by all lines
+	 */
+	public CostMatrixWrapper getCostMatrixWrapper()
+	{
+		return cmw;
+	}
+	
+	/**
+	 * Solve every line and pass every result to the listener as soon as it is ready
+	 * @param lines Lines to be solved: every line lists its stops from start to end point
+	 * @param listener Listener receiving the results (invoked by the calling thread)
+	 */
+	public void solve(List<List<String>> lines, TspBatchListener listener)
+	{
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try
+		{
+			//Geocode every distinct stop and calculate every distinct couple of stops once
+			precomputeCosts(lines, executor);
+			
+			//Solve every line on the executor: the cost matrix of each line is read from the shared wrapper
+			CompletionService<String> solutions = new ExecutorCompletionService<String>(executor);
+			List<Future<String>> futures = new ArrayList<Future<String>>();
+			for (List<String> line : lines)
+			{
+				futures.add(solutions.submit(() ->
+				{
+					String startPoint = line.get(0);
+					String endPoint = line.get(line.size() - 1);
+					return map.showTspSolution(cmw, startPoint, endPoint, line.subList(1, line.size() - 1));
+				}));
+			}
+			
+			//Stream every result as soon as its line has been solved
+			for (int i = 0; i < futures.size(); i++)
+			{
+				Future<String> done = solutions.take();
+				int index = futures.indexOf(done);
+				try
+				{
+					listener.lineSolved(index, done.get());
+				}
+				catch (ExecutionException e)
+				{
+					listener.lineFailed(index, e.getCause() instanceof Exception ? (Exception) e.getCause() : e);
+				}
+			}
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+	}
+	
+	/**
+	 * Geocode every distinct stop of the lines and calculate, in parallel, the costs of every distinct couple
+	 * of stops belonging to the same line
+	 * @param lines Lines to be solved
+	 * @param executor Executor calculating the costs
+	 * @throws InterruptedException Interrupted Exception
+	 */
+	private void precomputeCosts(List<List<String>> lines, ExecutorService executor) throws InterruptedException
+	{
+		//Distinct stops of all lines, geocoded once (stops which cannot be geocoded make only their lines fail)
+		Set<String> stops = new LinkedHashSet<String>();
+		Set<String> notExistingStops = new HashSet<String>();
+		for (List<String> line : lines) stops.addAll(line);
+		for (String stop : stops)
+		{
+			try
+			{
+				map.getLocation(cmw, stop);
+			}
+			catch (NotExistingCoordinatesException e)
+			{
+				notExistingStops.add(stop);
+			}
+		}
+		
+		//Distinct couples of geocoded stops belonging to the same line
+		Set<List<String>> couples = new HashSet<List<String>>();
+		for (List<String> line : lines)
+			for (String from : line)
+				for (String to : line)
+					if (!from.equals(to) && !notExistingStops.contains(from) && !notExistingStops.contains(to)) couples.add(List.of(from, to));
+		
+		log.debug("Batch: " + lines.size() + " linee, " + stops.size() + " fermate distinte, " + couples.size() + " coppie distinte");
+		
+		//Calculate the costs of every couple in parallel
+		List<Future<double[]>> futures = new ArrayList<Future<double[]>>();
+		for (List<String> couple : couples)
+		{
+			Location from = cmw.getLocation(couple.get(0));
+			Location to = cmw.getLocation(couple.get(1));
+			futures.add(executor.submit(() ->
+			{
+				//Couples still queued when the request is cancelled or its deadline passes are not routed
+				map.checkCancellation();
+				return map.getPathCosts(BestPathChoice.FASTEST, from, to, cmw);
+			}));
+		}
+		
+		//Wait for every couple (a couple without path makes only its lines fail, when they are solved)
+		for (Future<double[]> future : futures)
+		{
+			try
+			{
+				future.get();
+			}
+			catch (ExecutionException e)
+			{
+				log.debug("Batch: percorso non calcolato (" + e.getCause() + ")");
+			}
+		}
+	}
+}
@@ -0,0 +1,73 @@
+package core;
+
+import java.util.concurrent.CancellationException;
+import com.graphhopper.jsprit.core.algorithm.SearchStrategy.DiscoveredSolution;
+import com.graphhopper.jsprit.core.algorithm.termination.PrematureAlgorithmTermination;
+
+/**
+ * Cancellation Token: shared by a request and the Jsprit algorithms solving it, it stops their search
+ * (at the end of the current iteration) as soon as the request is cancelled or its deadline passes.
+ * Geocoding and cost matrix calculation are aborted instead, since they have no partial result
+ * @author Francesco Raco
+ */
+public class CancellationToken implements PrematureAlgorithmTermination
+{
+	/**
+	 * True once the request has been cancelled
+	 */
+	private volatile boolean cancelled;
+
+	/**
+	 * Deadline of the request (milliseconds since epoch, Long.MAX_VALUE if the request has no deadline)
+	 */
+	private final long deadline;
+
+	/**
+	 * Create token of a request without deadline
+	 */
+	public CancellationToken()
+	{
+		deadline = Long.MAX_VALUE;
+	}
+
+	/**
+	 * Create token of a request whose deadline is the specified time from now
+	 * @param timeout Time (milliseconds) the request may run
+	 */
+	public CancellationToken(long timeout)
+	{
+		deadline = System.currentTimeMillis() + timeout;
+	}
+
+	/**
+	 * Cancel the request
+	 */
+	public void cancel()
+	{
+		cancelled = true;
+	}
+
+	/**
+	 * Check if the request has been cancelled or its deadline passed
+	 * @return True if the request has been cancelled or its deadline passed
+	 */
+	public boolean isCancelled()
+	{
+		return cancelled || System.currentTimeMillis() >= deadline;
+	}
+
+	/**
+	 * Abort the request if it has been cancelled or its deadline passed
+	 * @throws CancellationException Cancellation Exception (request cancelled or deadline passed)
+	 */
+	public void check() throws CancellationException
+	{
+		if (isCancelled()) throw new CancellationException();
+	}
+
+	@Override
+	public boolean isPrematureBreak(DiscoveredSolution discoveredSolution)
+	{
+		return isCancelled();
+	}
+}
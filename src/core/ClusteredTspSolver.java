@@ -0,0 +1,371 @@
+package core;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.apache.log4j.Logger;
+import com.graphhopper.jsprit.core.algorithm.VehicleRoutingAlgorithm;
+import com.graphhopper.jsprit.core.problem.Location;
+import com.graphhopper.jsprit.core.util.Solutions;
+
+/**
+ * Clustered TSP Solver: solve very large TSPs by splitting the stops into spatial clusters,
+ * solving every cluster in parallel between fixed entry and exit stops, stitching the cluster tours
+ * and polishing the stops around every boundary with a local search. Only the couples of stops inside a cluster
+ * or a boundary window are routed, so memory and time grow roughly linearly with the number of stops
+ * @author Francesco Raco
+ */
+public class ClusteredTspSolver
+{
+	/**
+	 * Logger for configuring which message types are written
+	 */
+	public static final Logger log = Logger.getLogger("ClusteredTspSolver");
+	
+	/**
+	 * Default max number of stops per cluster
+	 */
+	public static final int DEFAULT_CLUSTER_SIZE = 40;
+	
+	/**
+	 * Number of stops on each side of a boundary polished by the local search
+	 */
+	public static final int BOUNDARY_WINDOW = 5;
+	
+	/**
+	 * Max iterations of the Jsprit algorithm solving a cluster
+	 */
+	public static final int CLUSTER_ITERATIONS = 500;
+	
+	/**
+	 * Geographic Map
+	 */
+	private GeographicMap map;
+	
+	/**
+	 * Max number of stops per cluster
+	 */
+	private int clusterSize;
+	
+	/**
+	 * Number of threads solving the clusters
+	 */
+	private int threads;
+	
+	/**
+	 * Create solver by map, max number of stops per cluster and number of threads
+	 * @param map Geographic Map
+	 * @param clusterSize Max number of stops per cluster
+	 * @param threads Number of threads solving the clusters
+	 */
+	public ClusteredTspSolver(GeographicMap map, int clusterSize, int threads)
+	{
+		this.map = map;
+		this.clusterSize = Math.max(2, clusterSize);
+		this.threads = Math.max(1, threads);
+	}
+	
+	/**
+	 * Create solver by map, with default cluster size and as many threads as available cores
+	 * @param map Geographic Map
+	 */
+	public ClusteredTspSolver(GeographicMap map)
+	{
+		this(map, DEFAULT_CLUSTER_SIZE, Runtime.getRuntime().availableProcessors());
+	}
+	
+	/**
+	 * Solve the TSP by decomposition
+	 * @param cmw Cost Matrix Wrapper storing costs, instructions and locations of the routed couples
+	 * @param startPoint Start Location of the vehicle
+	 * @param endPoint End Location of the vehicle
+	 * @param intermediateLocations Intermediate locations to be reached by the vehicle
+	 * @return Stitched tour, including its String representation
+	 * @throws UncorrectQueryException Uncorrect Query Exception
+	 * @throws NotExistingCoordinatesException Not Existing Coordinates Exception
+	 * @throws PathNotFoundException Path Not Found Exception
+	 * @throws NoInstructionsFoundException No Instructions Found Exception
+	 */
+	public TspTour solve(CostMatrixWrapper cmw, String startPoint, String endPoint, List<String> intermediateLocations) throws UncorrectQueryException, NotExistingCoordinatesException, PathNotFoundException, NoInstructionsFoundException
+	{
+		if (cmw == null || intermediateLocations == null || intermediateLocations.isEmpty() || startPoint == null || endPoint == null) throw new UncorrectQueryException();
+		
+		//Geocode every stop
+		Location start = map.getLocation(cmw, startPoint);
+		Location end = map.getLocation(cmw, endPoint);
+		List<Location> stops = new ArrayList<Location>();
+		for (String stop : intermediateLocations) stops.add(map.getLocation(cmw, stop));
+		
+		//Split the stops into spatial clusters and sort them from start to end point
+		List<List<Location>> clusters = new ArrayList<List<Location>>();
+		bisect(stops, clusters);
+		clusters = orderClusters(clusters, start, end);
+		log.debug("Decomposizione: " + stops.size() + " fermate in " + clusters.size() + " cluster");
+		
+		//Solve every cluster in parallel between its entry and exit stops
+		List<String> orderedStops = new ArrayList<String>();
+		orderedStops.add(startPoint);
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try
+		{
+			List<Future<List<String>>> tours = new ArrayList<Future<List<String>>>();
+			Location previous = start;
+			for (int c = 0; c < clusters.size(); c++)
+			{
+				//Entry is the stop nearest to the previous exit, exit is the stop nearest to the next cluster
+				List<Location> cluster = clusters.get(c);
+				Location next = c + 1 < clusters.size() ? centroid(clusters.get(c + 1)) : end;
+				Location entry = nearest(cluster, previous, null);
+				Location exit = nearest(cluster, next, entry);
+				tours.add(executor.submit(() -> solveCluster(cmw, cluster, entry, exit)));
+				previous = exit;
+			}
+			
+			//Stitch the cluster tours in order
+			for (Future<List<String>> tour : tours) orderedStops.addAll(tour.get());
+		}
+		catch (ExecutionException e)
+		{
+			//Failures of a cluster are failures of the whole tour: propagate them unchanged
+			Throwable cause = e.getCause();
+			if (cause instanceof NotExistingCoordinatesException) throw (NotExistingCoordinatesException) cause;
+			if (cause instanceof PathNotFoundException) throw (PathNotFoundException) cause;
+			if (cause instanceof UncorrectQueryException) throw (UncorrectQueryException) cause;
+			if (cause instanceof NoInstructionsFoundException) throw (NoInstructionsFoundException) cause;
+			if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+			if (cause instanceof Error) throw (Error) cause;
+			throw new IllegalStateException(cause);
+		}
+		catch (InterruptedException e)
+		{
+			//The request thread has been interrupted: the request is cancelled
+			Thread.currentThread().interrupt();
+			throw new CancellationException();
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+		orderedStops.add(endPoint);
+		
+		//Polish the stops around every boundary between consecutive clusters
+		int boundary = 0;
+		for (int c = 0; c < clusters.size() - 1; c++)
+		{
+			boundary += clusters.get(c).size();
+			polishBoundary(cmw, orderedStops, boundary);
+		}
+		
+		//Distance cost of the stitched tour (every leg has been routed by now)
+		double distance = 0;
+		for (int i = 0; i < orderedStops.size() - 1; i++) distance += leg(cmw, orderedStops.get(i), orderedStops.get(i + 1));
+		
+		//String representation of the stitched tour
+		StringBuilder tspBuilder = new StringBuilder();
+		tspBuilder.append("Distanza percorsa: ").append(Math.round(distance / 1000)).append("km\n\n");
+		TSPSolutionWrapper.appendTour(orderedStops, cmw, tspBuilder);
+		return new TspTour(orderedStops, distance, tspBuilder.toString());
+	}
+	
+	/**
+	 * Solve the open TSP of a cluster from its entry to its exit stop
+	 * @param cmw Cost Matrix Wrapper
+	 * @param cluster Stops of the cluster
+	 * @param entry Entry stop
+	 * @param exit Exit stop
+	 * @return Ordered stops of the cluster, from entry to exit
+	 * @throws UncorrectQueryException Uncorrect Query Exception
+	 * @throws NotExistingCoordinatesException Not Existing Coordinates Exception
+	 * @throws PathNotFoundException Path Not Found Exception
+	 * @throws NoInstructionsFoundException No Instructions Found Exception
+	 */
+	private List<String> solveCluster(CostMatrixWrapper cmw, List<Location> cluster, Location entry, Location exit) throws UncorrectQueryException, NotExistingCoordinatesException, PathNotFoundException, NoInstructionsFoundException
+	{
+		List<String> tour = new ArrayList<String>();
+		
+		//Clusters with 1 or 2 stops have only 1 possible tour
+		if (cluster.size() <= 2)
+		{
+			tour.add(entry.getId());
+			if (exit != entry) tour.add(exit.getId());
+			return tour;
+		}
+		
+		//Intermediate stops of the cluster
+		List<String> intermediateLocations = new ArrayList<String>();
+		for (Location l : cluster) if (l != entry && l != exit) intermediateLocations.add(l.getId());
+		
+		//Solve the cluster with Jsprit (only the couples inside the cluster are routed)
+		VehicleRoutingAlgorithm vra = TspAlgorithmFactory.createAlgorithm(map.createTspProblem(cmw, entry.getId(), exit.getId(), intermediateLocations));
+		vra.setMaxIterations(CLUSTER_ITERATIONS);
+		if (map.getCancellation() != null) vra.addTerminationCriterion(map.getCancellation());
+		return TspTour.fromSolution(entry.getId(), Solutions.bestOf(vra.searchSolutions()), null).getOrderedStops();
+	}
+	
+	/**
+	 * Improve the stops around a boundary: a window of stops on each side is re-ordered by local search,
+	 * keeping the first and last stop of the window fixed
+	 * @param cmw Cost Matrix Wrapper
+	 * @param orderedStops Ordered stops of the whole tour (updated in place)
+	 * @param boundary Index of the last stop of the cluster before the boundary
+	 * @throws NotExistingCoordinatesException Not Existing Coordinates Exception
+	 * @throws PathNotFoundException Path Not Found Exception
+	 */
+	private void polishBoundary(CostMatrixWrapper cmw, List<String> orderedStops, int boundary) throws NotExistingCoordinatesException, PathNotFoundException
+	{
+		//Window of stops around the boundary
+		int from = Math.max(0, boundary - BOUNDARY_WINDOW);
+		int to = Math.min(orderedStops.size() - 1, boundary + BOUNDARY_WINDOW + 1);
+		List<String> window = new ArrayList<String>(orderedStops.subList(from, to + 1));
+		final int SIZE = window.size();
+		
+		//Distance matrix of the window (the only couples routed outside the clusters)
+		double[][] distances = new double[SIZE][SIZE];
+		for (int i = 0; i < SIZE; i++)
+			for (int j = 0; j < SIZE; j++)
+				if (i != j) distances[i][j] = leg(cmw, window.get(i), window.get(j));
+		
+		//Local search on the window, then copy the improved order back into the tour
+		int[] tour = new int[SIZE];
+		for (int i = 0; i < SIZE; i++) tour[i] = i;
+		TourLocalSearch.improve(tour, distances, 10);
+		for (int i = 0; i < SIZE; i++) orderedStops.set(from + i, window.get(tour[i]));
+	}
+	
+	/**
+	 * Get the distance cost between 2 geocoded stops, routing them if needed
+	 * @param cmw Cost Matrix Wrapper
+	 * @param from Start stop
+	 * @param to End stop
+	 * @return Distance cost
+	 * @throws NotExistingCoordinatesException Not Existing Coordinates Exception
+	 * @throws PathNotFoundException Path Not Found Exception
+	 */
+	private double leg(CostMatrixWrapper cmw, String from, String to) throws NotExistingCoordinatesException, PathNotFoundException
+	{
+		return map.getPathCosts(BestPathChoice.FASTEST, map.getLocation(cmw, from), map.getLocation(cmw, to), cmw)[0];
+	}
+	
+	/**
+	 * Split the stops recursively along the longest side of their bounding box until every cluster
+	 * contains at most clusterSize stops
+	 * @param stops Stops to be split
+	 * @param clusters List collecting the clusters
+	 */
+	private void bisect(List<Location> stops, List<List<Location>> clusters)
+	{
+		if (stops.size() <= clusterSize)
+		{
+			clusters.add(stops);
+			return;
+		}
+		
+		//Bounding box of the stops (x is latitude, y is longitude)
+		double minX = Double.MAX_VALUE, maxX = -Double.MAX_VALUE, minY = Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+		for (Location l : stops)
+		{
+			minX = Math.min(minX, l.getCoordinate().getX());
+			maxX = Math.max(maxX, l.getCoordinate().getX());
+			minY = Math.min(minY, l.getCoordinate().getY());
+			maxY = Math.max(maxY, l.getCoordinate().getY());
+		}
+		
+		//Sort along the longest side (longitude degrees are scaled by the latitude) and split at the median
+		boolean byLatitude = maxX - minX >= (maxY - minY) * Math.cos(Math.toRadians((minX + maxX) / 2));
+		List<Location> sorted = new ArrayList<Location>(stops);
+		sorted.sort(Comparator.comparingDouble(l -> byLatitude ? l.getCoordinate().getX() : l.getCoordinate().getY()));
+		int half = sorted.size() / 2;
+		bisect(new ArrayList<Location>(sorted.subList(0, half)), clusters);
+		bisect(new ArrayList<Location>(sorted.subList(half, sorted.size())), clusters);
+	}
+	
+	/**
+	 * Sort the clusters from start to end point, solving the open TSP of their centroids
+	 * (air distance) with nearest neighbour followed by local search
+	 * @param clusters Clusters
+	 * @param start Start location
+	 * @param end End location
+	 * @return Sorted clusters
+	 */
+	private List<List<Location>> orderClusters(List<List<Location>> clusters, Location start, Location end)
+	{
+		//Points of the centroids tour: start, centroids, end
+		final int SIZE = clusters.size() + 2;
+		List<Location> points = new ArrayList<Location>();
+		points.add(start);
+		for (List<Location> cluster : clusters) points.add(centroid(cluster));
+		points.add(end);
+		
+		double[][] distances = new double[SIZE][SIZE];
+		for (int i = 0; i < SIZE; i++)
+			for (int j = 0; j < SIZE; j++) distances[i][j] = airDistance(points.get(i), points.get(j));
+		
+		//Nearest neighbour tour from start, ending at end
+		int[] tour = new int[SIZE];
+		boolean[] visited = new boolean[SIZE];
+		visited[0] = true;
+		for (int i = 1; i < SIZE - 1; i++)
+		{
+			int nearest = -1;
+			for (int j = 1; j < SIZE - 1; j++) if (!visited[j] && (nearest < 0 || distances[tour[i - 1]][j] < distances[tour[i - 1]][nearest])) nearest = j;
+			tour[i] = nearest;
+			visited[nearest] = true;
+		}
+		tour[SIZE - 1] = SIZE - 1;
+		TourLocalSearch.improve(tour, distances, 20);
+		
+		List<List<Location>> sorted = new ArrayList<List<Location>>();
+		for (int i = 1; i < SIZE - 1; i++) sorted.add(clusters.get(tour[i] - 1));
+		return sorted;
+	}
+	
+	/**
+	 * Get the centroid of a cluster
+	 * @param cluster Cluster
+	 * @return Centroid of the cluster
+	 */
+	private static Location centroid(List<Location> cluster)
+	{
+		double x = 0, y = 0;
+		for (Location l : cluster)
+		{
+			x += l.getCoordinate().getX();
+			y += l.getCoordinate().getY();
+		}
+		return Location.newInstance(x / cluster.size(), y / cluster.size());
+	}
+	
+	/**
+	 * Get the stop of a cluster nearest (air distance) to a location
+	 * @param cluster Cluster
+	 * @param target Target location
+	 * @param excluded Stop which cannot be chosen (null if none)
+	 * @return Nearest stop (the excluded one if it is the only stop of the cluster)
+	 */
+	private static Location nearest(List<Location> cluster, Location target, Location excluded)
+	{
+		Location nearest = null;
+		for (Location l : cluster)
+			if (l != excluded && (nearest == null || airDistance(l, target) < airDistance(nearest, target))) nearest = l;
+		return nearest != null ? nearest : excluded;
+	}
+	
+	/**
+	 * Get the air distance between 2 locations (equirectangular approximation, accurate at city scale)
+	 * @param a First location
+	 * @param b Second location
+	 * @return Air distance in meters
+	 */
+	private static double airDistance(Location a, Location b)
+	{
+		double lat = Math.toRadians((a.getCoordinate().getX() + b.getCoordinate().getX()) / 2);
+		double dx = Math.toRadians(b.getCoordinate().getY() - a.getCoordinate().getY()) * Math.cos(lat);
+		double dy = Math.toRadians(b.getCoordinate().getX() - a.getCoordinate().getX());
+		return 6371000 * Math.sqrt(dx * dx + dy * dy);
+	}
+}
@@ -1,12 +1,16 @@
 package core;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import com.graphhopper.jsprit.core.problem.Location;
 
 /**
- * Cost Matrix Wrapper containing a string representation of the best path between every couple of points
+ * Cost Matrix Wrapper containing a string representation of the best path between every couple of points,
+ * together with the distance and time costs already calculated and the geocoded locations
+ * (so that they can be reused when the same points are solved again with the same best path choice);
+ * it can be shared by several threads
  * @author Francesco Raco
  *
  */
@@ -15,7 +19,17 @@ public class CostMatrixWrapper
 	/**
 	 * Map containing a string representation of the best path (value) between every couple of points (key)
 	 */
-	private Map<List<String>, String> map = new HashMap<List<String>, String>();
+	private Map<List<String>, String> map = new ConcurrentHashMap<List<String>, String>();
+	
+	/**
+	 * Map containing distance and time costs (value) between every couple of points (key)
+	 */
+	private Map<List<String>, double[]> costs = new ConcurrentHashMap<List<String>, double[]>();
+	
+	/**
+	 * Map containing the geocoded location (value) of every point (key)
+	 */
+	private Map<String, Location> locations = new ConcurrentHashMap<String, Location>();
 	
 	/**
 	 * Create a list of points (the 2 points to be linked) by start and end points
@@ -88,4 +102,84 @@ public class CostMatrixWrapper
 		return instructions;
 		
 	}
+	
+	/**
+	 * Add to map the distance and time costs of the best path between start and end point
+	 * @param startPoint Start point
+	 * @param endPoint End point
+	 * @param distance Distance cost
+	 * @param time Time cost
+	 */
+	public void addPathCosts(String startPoint, String endPoint, double distance, long time)
+	{
+		costs.put(createListPoints(startPoint, endPoint), new double[] {distance, time});
+	}
+	
+	/**
+	 * Check if the costs of the best path between start and end point have already been calculated
+	 * @param startPoint Start point
+	 * @param endPoint End point
+	 * @return True if the costs have already been calculated
+	 */
+	public boolean containsPathCosts(String startPoint, String endPoint)
+	{
+		return costs.containsKey(createListPoints(startPoint, endPoint));
+	}
+	
+	/**
+	 * Get distance cost of the best path between start and end point
+	 * @param startPoint Start point
+	 * @param endPoint End point
+	 * @return Distance cost
+	 * @throws NoInstructionsFoundException No Instructions Found Exception (costs not calculated yet)
+	 */
+	public double getDistance(String startPoint, String endPoint) throws NoInstructionsFoundException
+	{
+		return getPathCosts(startPoint, endPoint)[0];
+	}
+	
+	/**
+	 * Get time cost of the best path between start and end point
+	 * @param startPoint Start point
+	 * @param endPoint End point
+	 * @return Time cost
+	 * @throws NoInstructionsFoundException No Instructions Found Exception (costs not calculated yet)
+	 */
+	public long getTime(String startPoint, String endPoint) throws NoInstructionsFoundException
+	{
+		return (long) getPathCosts(startPoint, endPoint)[1];
+	}
+	
+	/**
+	 * Get distance and time costs of the best path between start and end point
+	 * @param startPoint Start point
+	 * @param endPoint End point
+	 * @return Distance and time costs
+	 * @throws NoInstructionsFoundException No Instructions Found Exception (costs not calculated yet)
+	 */
+	private double[] getPathCosts(String startPoint, String endPoint) throws NoInstructionsFoundException
+	{
+		double[] pathCosts = costs.get(createListPoints(startPoint, endPoint));
+		if (pathCosts == null) throw new NoInstructionsFoundException();
+		return pathCosts;
+	}
+	
+	/**
+	 * Add a geocoded location (its id is the point name)
+	 * @param location Geocoded location
+	 */
+	public void addLocation(Location location)
+	{
+		locations.put(location.getId(), location);
+	}
+	
+	/**
+	 * Get geocoded location by point name
+	 * @param point Point name
+	 * @return Geocoded location (null if not geocoded yet)
+	 */
+	public Location getLocation(String point)
+	{
+		return locations.get(point);
+	}
 }
@@ -0,0 +1,60 @@
+package core;
+
+import com.graphhopper.jsprit.core.algorithm.SearchStrategy.DiscoveredSolution;
+import com.graphhopper.jsprit.core.algorithm.termination.PrematureAlgorithmTermination;
+
+/**
+ * Deadline Termination: Jsprit termination criterion which stops the search
+ * when an absolute deadline (shared among several algorithms) has passed
+ * @author Francesco Raco
+ */
+public class DeadlineTermination implements PrematureAlgorithmTermination
+{
+	/**
+	 * Absolute deadline (System.nanoTime() value)
+	 */
+	private final long deadline;
+	
+	/**
+	 * Create termination criterion by absolute deadline
+	 * @param deadline Absolute deadline (System.nanoTime() value)
+	 */
+	public DeadlineTermination(long deadline)
+	{
+		this.deadline = deadline;
+	}
+	
+	/**
+	 * Create termination criterion expiring after the specified time from now
+	 * @param timeLimit Time limit in milliseconds
+	 * @return Termination criterion
+	 */
+	public static DeadlineTermination fromNow(long timeLimit)
+	{
+		return new DeadlineTermination(System.nanoTime() + timeLimit * 1000000L);
+	}
+	
+	/**
+	 * Get absolute deadline
+	 * @return Absolute deadline (System.nanoTime() value)
+	 */
+	public long getDeadline()
+	{
+		return deadline;
+	}
+	
+	/**
+	 * Get the milliseconds left before the deadline
+	 * @return Milliseconds left before the deadline (0 if already passed)
+	 */
+	public long getRemainingTime()
+	{
+		return Math.max(0, (deadline - System.nanoTime()) / 1000000L);
+	}
+	
+	@Override
+	public boolean isPrematureBreak(DiscoveredSolution discoveredSolution)
+	{
+		return System.nanoTime() - deadline >= 0;
+	}
+}
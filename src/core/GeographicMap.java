@@ -1,18 +1,29 @@
 package core;
 
-import java.text.Normalizer;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.StringJoiner;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import org.apache.log4j.Logger;
 import com.graphhopper.GHRequest;
 import com.graphhopper.GHResponse;
 import com.graphhopper.GraphHopper;
 import com.graphhopper.PathWrapper;
 import com.graphhopper.jsprit.core.algorithm.VehicleRoutingAlgorithm;
-import com.graphhopper.jsprit.core.algorithm.box.Jsprit;
 import com.graphhopper.jsprit.core.problem.Location;
 import com.graphhopper.jsprit.core.problem.VehicleRoutingProblem;
 import com.graphhopper.jsprit.core.problem.VehicleRoutingProblem.FleetSize;
@@ -28,12 +39,8 @@ import com.graphhopper.jsprit.core.problem.vehicle.VehicleTypeImpl;
 import com.graphhopper.jsprit.core.util.Coordinate;
 import com.graphhopper.jsprit.core.util.Solutions;
 import com.graphhopper.jsprit.core.util.VehicleRoutingTransportCostsMatrix;
-import com.graphhopper.reader.osm.GraphHopperOSM;
 import com.graphhopper.routing.util.EncodingManager;
-import com.graphhopper.util.Instruction;
-import com.graphhopper.util.InstructionList;
-import com.graphhopper.util.Translation;
-import com.graphhopper.util.TranslationMap;
+import com.graphhopper.util.Parameters;
 
 /**
  * Geographic Map
@@ -57,6 +64,11 @@ public class GeographicMap
 	 */
     public static final String MAPSPATH = ClassLoader.getSystemResource("maps/").getPath();
     
+	/**
+	 * Name of the file listing the OpenStreetMap change files applied to a graph (stored into the graph directory)
+	 */
+    public static final String OSM_CHANGES_FILE = "osm_changes";
+    
         /**
 	 * Geocoding server
 	 */
@@ -77,19 +89,94 @@ public class GeographicMap
 	 */
 	protected String vehicle;
 	
+	/**
+	 * Vehicles whose flag encoders are stored into the shared graph (the first one is the default vehicle)
+	 */
+	protected List<AllowedVehicleTypes> vehicles;
+	
+	/**
+	 * Where GraphHopper keeps the graph data (heap or memory-mapped files)
+	 */
+	protected StorageMode storageMode;
+	
+	/**
+	 * Speed-up data prepared for best path calculation
+	 */
+	protected RoutingPreparation preparation;
+	
+	/**
+	 * Region imported from the OpenStreetMap file (null if the whole file is imported)
+	 */
+	protected GeographicRegion region;
+	
 	/**
 	 * Instance of GraphHopper: access point to OSM Map implementation and best path (among 2 points) algorithms
 	 */
-	protected GraphHopper hopper = new GraphHopperOSM().forServer();
+	protected GraphHopper hopper;
+	
+	/**
+	 * Lock of the graph: best paths are calculated under the read lock, OpenStreetMap changes are applied under the write lock
+	 */
+	protected ReadWriteLock graphLock = new ReentrantReadWriteLock();
+	
+	/**
+	 * True if OpenStreetMap changes have been applied after the preparation of contraction hierarchies and landmarks,
+	 * so they are not used until the graph is imported again with the changes (shared by all the views of this map)
+	 */
+	protected AtomicBoolean preparationStale = new AtomicBoolean();
+	
+	/**
+	 * Solver portfolio used by solveTsp (null means a single default Jsprit algorithm)
+	 */
+	protected SolverPortfolio portfolio;
+	
+	/**
+	 * Cache of TSP tours already calculated on this graph (null disables caching)
+	 */
+	protected TspSolutionCache solutionCache = new TspSolutionCache();
+	
+	/**
+	 * Cancellation token stopping the TSP searches of this view (null if they cannot be cancelled)
+	 */
+	protected CancellationToken cancellation;
+	
+	/**
+	 * Listener receiving the improved tours while the TSP searches of this view are running (null if not requested)
+	 */
+	protected TspProgressListener progressListener;
+	
+	/**
+	 * Number of intermediate stops above which showTspSolution solves by clusters decomposition (0 disables decomposition)
+	 */
+	protected int decompositionThreshold = 150;
+	
+	/**
+	 * Directory containing the files of the loaded graph
+	 */
+	protected String graphLocation;
+	
+	/**
+	 * File listing the OpenStreetMap change files applied to the graph (the same for the graphs imported again with them)
+	 */
+	protected File changesLog;
+	
+	/**
+	 * Version of the loaded graph (part of the cache keys, so that tours calculated on another graph are never reused;
+	 * shared by all the views of this map, so that applying OpenStreetMap changes bumps it for all of them)
+	 */
+	protected AtomicReference<String> graphVersion;
 	
 	/**
 	 * Direct Geocoding: map String address to Double values (Latitude, Longitude)
 	 * @param address The String related to the name of geographic point
 	 * @return Map storing Double values representing Latitude and Longitude into relative String keys "lat" and "lon" 
 	 * @throws NotExistingCoordinatesException Not Existing Coordinates Exception
+	 * @throws CancellationException Cancellation Exception (request cancelled or deadline passed)
 	 */
-	protected Map<String, Double> getDirectGeocoding(String address) throws NotExistingCoordinatesException
+	protected Map<String, Double> getDirectGeocoding(String address) throws NotExistingCoordinatesException, CancellationException
 	{
+		//Do not query the geocoding server for a request nobody waits for anymore
+		checkCancellation();
 		return OpenStreetMapUtils.getInstance(geocodingServer).getCoordinates(address);
 	}
 	
@@ -112,8 +199,9 @@ public class GeographicMap
 	 * @param cmw Cost Matrix Wrapper containing a string representation of the best path between every couple of points
 	 * @return Matrix containing costs of distance and time between every couple of locations
 	 * @throws PathNotFoundException Path Not Found Exception
+	 * @throws CancellationException Cancellation Exception (request cancelled or deadline passed)
 	 */
-	protected VehicleRoutingTransportCosts createCostMatrix(BestPathChoice btp, List<Location> locations, CostMatrixWrapper cmw) throws PathNotFoundException
+	protected VehicleRoutingTransportCosts createCostMatrix(BestPathChoice btp, List<Location> locations, CostMatrixWrapper cmw) throws PathNotFoundException, CancellationException
 	{
 		//Create builder of asymmetric transport costs matrix
 		VehicleRoutingTransportCostsMatrix.Builder costMatrixBuilder = VehicleRoutingTransportCostsMatrix.Builder.newInstance(false);
@@ -125,43 +213,101 @@ public class GeographicMap
 				//Jump to next iteration if locations are equal
 				if (locations.get(i).equals(locations.get(j))) continue;
 				
+				//Stop routing as soon as the request is cancelled or its deadline passes
+				checkCancellation();
+				
 				//Get start end end locations
 				Location from = locations.get(i);
 				Location to = locations.get(j);
 				
-				//Get coordinates (Latitude, Longitude) of start and end location
-				double latFrom = locations.get(i).getCoordinate().getX();
-				double lonFrom = locations.get(i).getCoordinate().getY();
-				double latTo = locations.get(j).getCoordinate().getX();
-				double lonTo = locations.get(j).getCoordinate().getY();
-				
-				//Get the best path by start and end locations coordinates
-				PathWrapper path = getBestPath(btp, latFrom, lonFrom, latTo, lonTo);
-		
-				//Get distance and time associated with the best path
-				double distance = path.getDistance();
-				long time = path.getTime();
-				
 				//Get id of from and to locations and assign them to their corresponding variable
 				String fromId = from.getId();
 				String toId = to.getId();
 				
+				//Get distance and time associated with the best path (calculated only if not already stored in cmw)
+				double[] pathCosts = getPathCosts(btp, from, to, cmw);
+				double distance = pathCosts[0];
+				long time = (long) pathCosts[1];
+				
 				//Add to the matrix builder the costs of distances and times
 				costMatrixBuilder.addTransportDistance(fromId, toId, distance);
 				costMatrixBuilder.addTransportTime(from.getId(), to.getId(), time);
-				
-				//If cost matrix wrapper is not null, then add to it
-				//the instructions related to the best path between from and to locations
-				if (cmw != null) cmw.addPathInstructions(fromId, toId, bestPathToString(path));
-				
-				//Log a message object with debug
-		                log.debug("[" + from.getId() + " - " + to.getId() + "] : " + Math.round(distance / 1000) + "km; " + (time / 1000) / 60 + "mm" + " and " + time % 60 + "s");
 			}
 		
 		//Build the costs matrix and return it
 		return costMatrixBuilder.build();
 	}
 	
+	/**
+	 * Get distance and time costs of the best path between 2 locations: if cost matrix wrapper already contains them
+	 * they are reused, otherwise the best path is calculated and its costs and instructions are stored into cost matrix wrapper
+	 * @param btp Enumeration representing the 2 possible criteria for best path calculation: Fastest or Shortest
+	 * @param from Start location
+	 * @param to End location
+	 * @param cmw Cost Matrix Wrapper (it can be null)
+	 * @return Array containing distance (index 0) and time (index 1) costs
+	 * @throws PathNotFoundException Path Not Found Exception
+	 */
+	protected double[] getPathCosts(BestPathChoice btp, Location from, Location to, CostMatrixWrapper cmw) throws PathNotFoundException
+	{
+		//Get id of from and to locations
+		String fromId = from.getId();
+		String toId = to.getId();
+		
+		//Reuse costs already calculated for this couple of locations
+		if (cmw != null && cmw.containsPathCosts(fromId, toId))
+		{
+			try
+			{
+				return new double[] {cmw.getDistance(fromId, toId), cmw.getTime(fromId, toId)};
+			}
+			catch (NoInstructionsFoundException e) {}
+		}
+		
+		//Get the best path by start and end locations coordinates
+		PathWrapper path = getBestPath(btp, from.getCoordinate().getX(), from.getCoordinate().getY(), to.getCoordinate().getX(), to.getCoordinate().getY());
+		
+		//Get distance and time associated with the best path
+		double distance = path.getDistance();
+		long time = path.getTime();
+		
+		//If cost matrix wrapper is not null, then add to it the costs and
+		//the instructions related to the best path between from and to locations
+		if (cmw != null)
+		{
+			cmw.addPathCosts(fromId, toId, distance, time);
+			cmw.addPathInstructions(fromId, toId, bestPathToString(path));
+		}
+		
+		//Log a message object with debug
+		log.debug("[" + fromId + " - " + toId + "] : " + Math.round(distance / 1000) + "km; " + (time / 1000) / 60 + "mm" + " and " + time % 60 + "s");
+		
+		return new double[] {distance, time};
+	}
+	
+	/**
+	 * Get the location of a point: if cost matrix wrapper already contains it, the geocoded location is reused,
+	 * otherwise the point is geocoded and stored into cost matrix wrapper
+	 * @param cmw Cost Matrix Wrapper (it can be null)
+	 * @param point Point name
+	 * @return Location of the point
+	 * @throws NotExistingCoordinatesException Not Existing Coordinates Exception
+	 */
+	protected Location getLocation(CostMatrixWrapper cmw, String point) throws NotExistingCoordinatesException
+	{
+		//Reuse location already geocoded
+		Location location = cmw != null ? cmw.getLocation(point) : null;
+		if (location != null) return location;
+		
+		//Map the address of the point into (Latitude, Longitude) coordinates
+		Map<String, Double> coords = getDirectGeocoding(point);
+		
+		//Create location by name and coordinates and store it into cost matrix wrapper
+		location = Location.Builder.newInstance().setId(point).setCoordinate(new Coordinate(coords.get("lat"), coords.get("lon"))).build();
+		if (cmw != null) cmw.addLocation(location);
+		return location;
+	}
+	
 	/**
 	 * Create matrix containing costs of distance and time between every couple of locations; it uses "Fastest" criterion as default choice
 	 * @param locations All locations to be reached by the vehicle
@@ -179,62 +325,490 @@ public class GeographicMap
 	 * @param vehicle Allowed Vehicle Type
 	 */
 	protected void parseVehicle(AllowedVehicleTypes vehicle)
+	{
+		this.vehicle = getVehicleName(vehicle);
+	}
+	
+	/**
+	 * Get String value (flag encoder name) representing an Allowed Vehicle Type
+	 * @param vehicle Allowed Vehicle Type
+	 * @return String value representing the vehicle type
+	 */
+	protected static String getVehicleName(AllowedVehicleTypes vehicle)
 	{
 		switch(vehicle)
 		{
-			case CAR: this.vehicle = "car"; break;
-			case CAR4WD: this.vehicle = "car4wd"; break;
-			case BIKE: this.vehicle = "bike"; break;
-			case BIKE2: this.vehicle = "bike2"; break;
-			case RACINGBIKE: this.vehicle = "racingbike"; break;
-			case MOUNTAINBIKE: this.vehicle = "mtb"; break;
-			case FOOT: this.vehicle = "foot"; break;
-			case HIKE: this.vehicle = "hike"; break;
-			case MOTORCYCLE: this.vehicle = "motorcycle"; break;
-			case BUS: this.vehicle = "bus"; break;
+			case CAR: return "car";
+			case CAR4WD: return "car4wd";
+			case BIKE: return "bike";
+			case BIKE2: return "bike2";
+			case RACINGBIKE: return "racingbike";
+			case MOUNTAINBIKE: return "mtb";
+			case FOOT: return "foot";
+			case HIKE: return "hike";
+			case MOTORCYCLE: return "motorcycle";
+			case BUS: return "bus";
 			
 			//case GENERIC:
-			default: this.vehicle = "generic"; break;
+			default: return "generic";
 		}
 	}
 	
 	/**
-	 * Create GeographicMap instance by OpenStreetMap file, national area and allowed vehicle type
+	 * Create GeographicMap instance by OpenStreetMap file, national area, allowed vehicle type and storage mode
 	 * @param osmFile OpenStreetMap file
 	 * @param area National area
 	 * @param vehicle Allowed vehicle type
+	 * @param storageMode Where GraphHopper keeps the graph data (heap or memory-mapped files)
 	 */
-	public GeographicMap(String osmFile, Locale area, AllowedVehicleTypes vehicle)
+	public GeographicMap(String osmFile, Locale area, AllowedVehicleTypes vehicle, StorageMode storageMode)
 	{
+		this(osmFile, area, vehicle, storageMode, null);
+	}
+	
+	/**
+	 * Create GeographicMap instance by OpenStreetMap file, national area, allowed vehicle type, storage mode
+	 * and region: only the region is imported from the OpenStreetMap file, into a regional graph
+	 * cached under its own directory of GRAPHSPATH
+	 * @param osmFile OpenStreetMap file
+	 * @param area National area
+	 * @param vehicle Allowed vehicle type
+	 * @param storageMode Where GraphHopper keeps the graph data (heap or memory-mapped files)
+	 * @param region Region to be imported (null to import the whole OpenStreetMap file)
+	 */
+	public GeographicMap(String osmFile, Locale area, AllowedVehicleTypes vehicle, StorageMode storageMode, GeographicRegion region)
+	{
+		this(osmFile, area, vehicle, storageMode, region, RoutingPreparation.CH);
+	}
+	
+	/**
+	 * Create GeographicMap instance by OpenStreetMap file, national area, allowed vehicle type, storage mode,
+	 * region and speed-up data to be prepared
+	 * @param osmFile OpenStreetMap file
+	 * @param area National area
+	 * @param vehicle Allowed vehicle type
+	 * @param storageMode Where GraphHopper keeps the graph data (heap or memory-mapped files)
+	 * @param region Region to be imported (null to import the whole OpenStreetMap file)
+	 * @param preparation Speed-up data prepared for both FASTEST and SHORTEST criteria
+	 * (changing it requires deleting the graph directory, since prepared data are stored with the graph)
+	 */
+	public GeographicMap(String osmFile, Locale area, AllowedVehicleTypes vehicle, StorageMode storageMode, GeographicRegion region, RoutingPreparation preparation)
+	{
+		this(osmFile, area, storageMode, region, preparation, vehicle);
+	}
+	
+	/**
+	 * Create GeographicMap instance by OpenStreetMap file, national area, storage mode, region, speed-up data
+	 * to be prepared and allowed vehicle types: all the vehicle types share the same graph (one flag encoder each),
+	 * the first one is the default vehicle and the others are selected by forVehicle
+	 * @param osmFile OpenStreetMap file
+	 * @param area National area
+	 * @param storageMode Where GraphHopper keeps the graph data (heap or memory-mapped files)
+	 * @param region Region to be imported (null to import the whole OpenStreetMap file)
+	 * @param preparation Speed-up data prepared for both FASTEST and SHORTEST criteria
+	 * (changing it requires deleting the graph directory, since prepared data are stored with the graph)
+	 * @param vehicles Allowed vehicle types (at least one)
+	 */
+	public GeographicMap(String osmFile, Locale area, StorageMode storageMode, GeographicRegion region, RoutingPreparation preparation, AllowedVehicleTypes... vehicles)
+	{
+		//The first vehicle type is the default one
+		if (vehicles.length == 0) throw new IllegalArgumentException("A map needs at least one vehicle type");
+		
 		//Assign arguments to corresponding fields
 		this.osmFile = MAPSPATH + osmFile;
 		this.area = area;
+		this.storageMode = storageMode;
+		this.region = region;
+		this.preparation = preparation;
+		this.vehicles = Collections.unmodifiableList(Arrays.asList(vehicles));
+		
+		//A regional graph is imported by a GraphHopper instance which skips the nodes outside the region;
+		//every import records the edges created from every way, so that OpenStreetMap changes can be applied later
+		RegionalGraphHopper regionalHopper = new RegionalGraphHopper(region);
+		hopper = regionalHopper.forServer();
 		
 		hopper.setDataReaderFile(osmFile);
 		
-		//physical path where to store GraphHopper files
-		hopper.setGraphHopperLocation(GRAPHSPATH);
+		//Memory-mapped graph files live in the OS page cache instead of the heap,
+		//so the heap size does not depend on the graph size and several JVMs share the same pages
+		switch(storageMode)
+		{
+			case MMAP: hopper.setMemoryMapped(); break;
+			case MMAP_READ_ONLY: hopper.setMemoryMapped(); hopper.setAllowWrites(false); break;
+			
+			//case RAM:
+			default: hopper.setInMemory(); break;
+		}
+		
+		//Assign correct vehicle type string (default vehicle) to this.vehicle field
+		parseVehicle(vehicles[0]);
 		
-		//Assign correct vehicle type string to this.vehicle field
-		parseVehicle(vehicle);
+		//Names of all the vehicle types separated by commas (e.g. "bus,car,foot")
+		StringJoiner vehicleNames = new StringJoiner(",");
+		for (AllowedVehicleTypes v : vehicles) vehicleNames.add(getVehicleName(v));
+		
+		//physical path where to store GraphHopper files (every region and every set of vehicle types has its own directory;
+		//the whole map with only one vehicle type keeps using GRAPHSPATH)
+		graphLocation = GRAPHSPATH;
+		if (region != null) graphLocation = new File(GRAPHSPATH, "regions" + File.separator + osmFile.replaceAll("[^A-Za-z0-9]", "_") + "-" + vehicleNames.toString().replace(',', '_') + "-" + region.getKey()).getPath();
+		else if (vehicles.length > 1) graphLocation = new File(GRAPHSPATH, "profiles" + File.separator + osmFile.replaceAll("[^A-Za-z0-9]", "_") + "-" + vehicleNames.toString().replace(',', '_')).getPath();
+		
+		//A graph older than the OpenStreetMap file was built from a previous extract: the fresh extract is imported into
+		//a directory of its own, so the graph still in use (e.g. by the map being replaced by a hot reload) is never overwritten
+		long osmLastModified = new File(this.osmFile).lastModified();
+		File properties = new File(graphLocation, "properties");
+		if (properties.exists() && properties.lastModified() < osmLastModified) graphLocation = new File(graphLocation, "extract-" + osmLastModified).getPath();
+		
+		//A graph changed by OpenStreetMap change files is imported again into a directory of its own, applying the changes
+		//before preparing contraction hierarchies and landmarks (so a reload prepares them again); a read-only graph
+		//uses the last one of these directories if any, else the changed graph without prepared data
+		changesLog = new File(graphLocation, OSM_CHANGES_FILE);
+		List<String> changesFiles = readChangesLog();
+		File changesLocation = new File(graphLocation, "changes-" + changesFiles.size());
+		boolean stale = !changesFiles.isEmpty();
+		if (stale && (storageMode != StorageMode.MMAP_READ_ONLY || changesLocation.exists()))
+		{
+			//Change files removed meanwhile cannot be applied by the import
+			List<String> existingFiles = new ArrayList<String>();
+			for (String changesFile : changesFiles)
+			{
+				if (new File(changesFile).exists()) existingFiles.add(changesFile);
+				else if (!changesLocation.exists()) log.warn("OpenStreetMap change file " + changesFile + " not found: it is not applied to the graph imported again");
+			}
+			graphLocation = changesLocation.getPath();
+			regionalHopper.setChangesFiles(existingFiles);
+			stale = false;
+		}
+		hopper.setGraphHopperLocation(graphLocation);
 		
 		//Specify which vehicle types can be read by this GraphHopper instance;
 		//BusFlagEncoderFactory is a modified version of DefaultFlagEncoderFactory,
 		//which allows to accept bus vehicle too (without restrictions related to specific lanes);
-		//the last argument 4 refers to bytes for edge flags
-		hopper.setEncodingManager(EncodingManager.create(new BusFlagEncoderFactory(), this.vehicle, 4));
+		//the last argument refers to bytes for edge flags: 4 are enough for one vehicle type, 8 are needed
+		//by several ones (nodes, geometry and names are stored once, so every further vehicle only adds its flags)
+		hopper.setEncodingManager(EncodingManager.create(new BusFlagEncoderFactory(), vehicleNames.toString(), vehicles.length > 1 ? 8 : 4));
+		
+		//Prepare contraction hierarchies and/or landmarks for both best path criteria; prepared data are
+		//stored into the graph directory, so they are calculated only by the first import
+		hopper.getCHFactoryDecorator().setEnabled(isCHPrepared()).setWeightingsAsStrings("fastest", "shortest").setDisablingAllowed(true);
+		hopper.getLMFactoryDecorator().setEnabled(isLMPrepared()).setWeightingsAsStrings(Arrays.asList("fastest", "shortest")).setDisablingAllowed(true);
 		hopper.importOrLoad();
+		
+		//Contraction hierarchies and landmarks are out of date if OpenStreetMap changes have been applied after the import
+		preparationStale.set(stale);
+		
+		//The graph version changes whenever the graph files are rebuilt or changed
+		graphVersion = new AtomicReference<String>(osmFile + (region == null ? "" : "/" + region.getKey()) + "@" + new File(graphLocation, "properties").lastModified() + (stale ? "+" + changesLog.lastModified() : ""));
+	}
+	
+	/**
+	 * Create GeographicMap instance by OpenStreetMap file, national area and allowed vehicle type.
+	 * Default choice for storage mode is RAM
+	 * @param osmFile OpenStreetMap file
+	 * @param area National area
+	 * @param vehicle Allowed vehicle type
+	 */
+	public GeographicMap(String osmFile, Locale area, AllowedVehicleTypes vehicle)
+	{
+		this(osmFile, area, vehicle, StorageMode.RAM);
+	}
+	
+	/**
+	 * Create GeographicMap instance by OpenStreetMap file, national area and storage mode.
+	 * Default choice for vehicle type is BUS
+	 * @param osmFile OpenStreetMap file
+	 * @param area National area
+	 * @param storageMode Where GraphHopper keeps the graph data (heap or memory-mapped files)
+	 */
+	public GeographicMap(String osmFile, Locale area, StorageMode storageMode)
+	{
+		this(osmFile, area, AllowedVehicleTypes.BUS, storageMode);
+	}
+	
+	/**
+	 * Create GeographicMap instance by OpenStreetMap file, national area and path + directory where to store GraphHopper files.
+	 * Default choice for vehicle type is BUS
+	 * @param osmFile OpenStreetMap file
+	 * @param area National area
+	 */
+	public GeographicMap(String osmFile, Locale area)
+	{
+		this(osmFile, area, AllowedVehicleTypes.BUS);
+	}
+	
+	/**
+	 * Copy constructor sharing the graph (and every other setting) of the specified map, with another vehicle selected
+	 * @param map Geographic Map to be shared
+	 * @param vehicle Vehicle selected
+	 */
+	protected GeographicMap(GeographicMap map, AllowedVehicleTypes vehicle)
+	{
+		this(map);
+		
+		//Select the vehicle
+		parseVehicle(vehicle);
+	}
+	
+	/**
+	 * Copy constructor sharing the graph, the selected vehicle and every other setting of the specified map
+	 * @param map Geographic Map to be shared
+	 */
+	protected GeographicMap(GeographicMap map)
+	{
+		//Share all the fields of the specified map
+		geocodingServer = map.geocodingServer;
+		osmFile = map.osmFile;
+		area = map.area;
+		vehicles = map.vehicles;
+		storageMode = map.storageMode;
+		preparation = map.preparation;
+		region = map.region;
+		hopper = map.hopper;
+		graphLock = map.graphLock;
+		preparationStale = map.preparationStale;
+		portfolio = map.portfolio;
+		solutionCache = map.solutionCache;
+		decompositionThreshold = map.decompositionThreshold;
+		graphVersion = map.graphVersion;
+		graphLocation = map.graphLocation;
+		changesLog = map.changesLog;
+		vehicle = map.vehicle;
+		cancellation = map.cancellation;
+		progressListener = map.progressListener;
+	}
+	
+	/**
+	 * Get a view of this map (same graph, caches and settings) routing the specified vehicle type
+	 * @param vehicle Vehicle type (it must be one of the vehicle types stored into the graph)
+	 * @return View of this map routing the specified vehicle type
+	 * @throws UncorrectQueryException Uncorrect Query Exception (vehicle type not stored into the graph)
+	 */
+	public GeographicMap forVehicle(AllowedVehicleTypes vehicle) throws UncorrectQueryException
+	{
+		//Check the vehicle type is stored into the graph
+		if (!vehicles.contains(vehicle)) throw new UncorrectQueryException();
+		
+		//Reuse this map if the vehicle is already selected
+		if (getVehicleName(vehicle).equals(this.vehicle)) return this;
+		
+		return new GeographicMap(this, vehicle);
+	}
+	
+	/**
+	 * Get a view of this map (same graph, caches and settings) whose requests stop as soon as the token is cancelled
+	 * or its deadline passes: geocoding and cost matrix calculation are aborted, TSP searches return the best tour so far
+	 * @param cancellation Cancellation token of the request
+	 * @return View of this map bound to the cancellation token
+	 */
+	public GeographicMap withCancellation(CancellationToken cancellation)
+	{
+		GeographicMap view = new GeographicMap(this);
+		view.cancellation = cancellation;
+		return view;
+	}
+	
+	/**
+	 * Get cancellation token of this view
+	 * @return Cancellation token (null if TSP searches cannot be cancelled)
+	 */
+	public CancellationToken getCancellation()
+	{
+		return cancellation;
+	}
+
+	/**
+	 * Get a view of this map (same graph, caches and settings) whose TSP searches report every improved tour
+	 * to the specified listener while they are running (tours solved by clusters decomposition or taken
+	 * from the cache are not reported)
+	 * @param progressListener Listener receiving the improved tours
+	 * @return View of this map bound to the progress listener
+	 */
+	public GeographicMap withProgressListener(TspProgressListener progressListener)
+	{
+		GeographicMap view = new GeographicMap(this);
+		view.progressListener = progressListener;
+		return view;
+	}
+
+	/**
+	 * Check if the request of this view has been cancelled or its deadline passed (its tours are partial, so they are never cached)
+	 * @return True if the cancellation token has been cancelled or its deadline passed
+	 */
+	public boolean isCancelled()
+	{
+		return cancellation != null && cancellation.isCancelled();
+	}
+
+	/**
+	 * Abort the request of this view if it has been cancelled or its deadline passed
+	 * @throws CancellationException Cancellation Exception (request cancelled or deadline passed)
+	 */
+	protected void checkCancellation() throws CancellationException
+	{
+		if (cancellation != null) cancellation.check();
+	}
+
+	/**
+	 * Get vehicle types stored into the graph
+	 * @return Vehicle types stored into the graph (the first one is the default vehicle)
+	 */
+	public List<AllowedVehicleTypes> getVehicles()
+	{
+		return vehicles;
+	}
+	
+	/**
+	 * Get directory containing the files of the loaded graph
+	 * @return Directory containing the files of the loaded graph
+	 */
+	public String getGraphLocation()
+	{
+		return graphLocation;
+	}
+	
+	/**
+	 * Apply an OpenStreetMap change file (.osc) to the graph: the edges of modified ways get the flags of their new tags
+	 * (for every vehicle type), those of deleted ways become impassable. Created ways and node changes alter the geometry
+	 * of the graph, so they are skipped (a new import is needed to apply them). Contraction hierarchies and landmarks
+	 * cannot be updated edge by edge, so best paths use flexible search until the graph is imported again with the
+	 * changes (the next map built by the same constructor does it, e.g. by a hot reload)
+	 * @param oscFile Path of the OpenStreetMap change file
+	 * @return Number of edges updated
+	 * @throws IOException I/O Exception (malformed file, read-only graph or graph imported without way edge index)
+	 */
+	public int applyOsmChanges(String oscFile) throws IOException
+	{
+		//Check the graph can be changed
+		if (storageMode == StorageMode.MMAP_READ_ONLY) throw new IOException("Read-only graph");
+		WayEdgeIndex index = getWayEdgeIndex();
+		if (index == null) throw new IOException("Graph imported without way edge index: import it again to apply OpenStreetMap changes");
+		
+		//Read the changes before locking the graph
+		OsmChangeSet changes = OsmChangeSet.read(oscFile);
+		int updatedEdges;
+		
+		graphLock.writeLock().lock();
+		try
+		{
+			updatedEdges = changes.applyTo(hopper.getGraphHopperStorage(), hopper.getEncodingManager(), index);
+			
+			//Store the changed graph and remember the applied change file, so that the next import applies it again
+			hopper.getGraphHopperStorage().flush();
+			try (FileWriter appliedChanges = new FileWriter(changesLog, true))
+			{
+				appliedChanges.write(new File(oscFile).getAbsolutePath() + "\n");
+			}
+			preparationStale.set(true);
+			
+			//Tours calculated on the previous graph must not be reused (by any view of this map)
+			graphVersion.updateAndGet(version -> version + "+" + System.currentTimeMillis());
+			if (solutionCache != null) solutionCache.clear();
+		}
+		finally
+		{
+			graphLock.writeLock().unlock();
+		}
+		
+		log.info("OpenStreetMap changes applied from " + oscFile + ": " + updatedEdges + " edges updated, " + changes.getMissingWays() + " ways not in the graph, " + changes.getChangedNodes() + " node changes skipped");
+		return updatedEdges;
+	}
+	
+	/**
+	 * Read the list of the OpenStreetMap change files applied to the graph
+	 * @return Paths of the change files, in the order they have been applied (empty if no change has been applied)
+	 */
+	protected List<String> readChangesLog()
+	{
+		List<String> changesFiles = new ArrayList<String>();
+		if (!changesLog.exists()) return changesFiles;
+		try
+		{
+			for (String line : Files.readAllLines(changesLog.toPath()))
+			{
+				if (line.trim().isEmpty()) continue;
+				
+				//Graphs changed by older versions list file names of the maps directory
+				File changesFile = new File(line.trim());
+				changesFiles.add((changesFile.isAbsolute() ? changesFile : new File(MAPSPATH, line.trim())).getPath());
+			}
+		}
+		catch (IOException e)
+		{
+			log.warn("List of the applied OpenStreetMap changes not readable: " + changesLog, e);
+		}
+		return changesFiles;
+	}
+	
+	/**
+	 * Get edges created from every way of the graph
+	 * @return Edges created from every way (null if the graph has been imported without way edge index)
+	 */
+	protected WayEdgeIndex getWayEdgeIndex()
+	{
+		return ((RegionalGraphHopper) hopper).getWayEdgeIndex();
+	}
+	
+	/**
+	 * Check if contraction hierarchies and landmarks are out of date (OpenStreetMap changes applied after the import)
+	 * @return True if contraction hierarchies and landmarks are not used anymore
+	 */
+	public boolean isPreparationStale()
+	{
+		return preparationStale.get();
+	}
+	
+	/**
+	 * Release the graph (heap or memory-mapped files): the map, and every view created by forVehicle, must not be used anymore
+	 */
+	public void close()
+	{
+		hopper.close();
+		if (solutionCache != null) solutionCache.clear();
+	}
+	
+	/**
+	 * Get region imported from the OpenStreetMap file
+	 * @return Region imported from the OpenStreetMap file (null if the whole file is imported)
+	 */
+	public GeographicRegion getRegion()
+	{
+		return region;
+	}
+	
+	/**
+	 * Get speed-up data prepared for best path calculation
+	 * @return Speed-up data prepared for best path calculation
+	 */
+	public RoutingPreparation getPreparation()
+	{
+		return preparation;
+	}
+	
+	/**
+	 * Check if contraction hierarchies are prepared
+	 * @return True if contraction hierarchies are prepared
+	 */
+	public boolean isCHPrepared()
+	{
+		return preparation == RoutingPreparation.CH || preparation == RoutingPreparation.CH_AND_LM;
+	}
+	
+	/**
+	 * Check if landmarks are prepared
+	 * @return True if landmarks are prepared
+	 */
+	public boolean isLMPrepared()
+	{
+		return preparation == RoutingPreparation.LM || preparation == RoutingPreparation.CH_AND_LM;
 	}
 	
 	/**
-	 * Create GeographicMap instance by OpenStreetMap file, national area and path + directory where to store GraphHopper files.
-	 * Default choice for vehicle type is BUS
-	 * @param osmFile OpenStreetMap file
-	 * @param area National area
+	 * Get where GraphHopper keeps the graph data
+	 * @return Storage mode of the graph
 	 */
-	public GeographicMap(String osmFile, Locale area)
+	public StorageMode getStorageMode()
 	{
-		this(osmFile, area, AllowedVehicleTypes.BUS);
+		return storageMode;
 	}
 	
 	/**
@@ -273,6 +847,115 @@ public class GeographicMap
 		this.geocodingServer = geocodingServer;
 	}
 	
+	/**
+	 * Get version of the loaded graph (speed overlay included)
+	 * @return Version of the loaded graph
+	 */
+	public String getGraphVersion()
+	{
+		SpeedOverlay overlay = getSpeedOverlay();
+		return overlay == null ? graphVersion.get() : graphVersion.get() + "+overlay:" + overlay.getName();
+	}
+	
+	/**
+	 * Get speed overlay correcting best path calculation
+	 * @return Speed overlay (null for no correction)
+	 */
+	public SpeedOverlay getSpeedOverlay()
+	{
+		return hopper instanceof RegionalGraphHopper ? ((RegionalGraphHopper) hopper).getSpeedOverlay() : null;
+	}
+	
+	/**
+	 * Swap a speed overlay in: best paths calculated afterwards use it (running ones keep the previous overlay)
+	 * @param overlay Speed overlay (null for no correction)
+	 */
+	public void setSpeedOverlay(SpeedOverlay overlay)
+	{
+		((RegionalGraphHopper) hopper).setSpeedOverlay(overlay);
+		log.info(overlay == null ? "Speed overlay removed" : "Speed overlay " + overlay.getName() + " applied to " + overlay.size() + " edges");
+	}
+	
+	/**
+	 * Read a speed overlay file and swap it in
+	 * @param overlayFile Path of the speed overlay file (see SpeedOverlay for its format)
+	 * @return Speed overlay
+	 * @throws IOException I/O Exception (malformed file, or way ids in a graph imported without way edge index)
+	 */
+	public SpeedOverlay loadSpeedOverlay(String overlayFile) throws IOException
+	{
+		SpeedOverlay overlay = SpeedOverlay.read(overlayFile, getWayEdgeIndex());
+		setSpeedOverlay(overlay);
+		return overlay;
+	}
+	
+	/**
+	 * Get cache of TSP tours
+	 * @return Cache of TSP tours (null if caching is disabled)
+	 */
+	public TspSolutionCache getSolutionCache()
+	{
+		return solutionCache;
+	}
+	
+	/**
+	 * Set cache of TSP tours (it can be shared among several maps, since keys include the graph version)
+	 * @param solutionCache Cache of TSP tours (null disables caching)
+	 */
+	public void setSolutionCache(TspSolutionCache solutionCache)
+	{
+		this.solutionCache = solutionCache;
+	}
+	
+	/**
+	 * Get the cached tour of the specified TSP, if any
+	 * @param startPoint Start Location of the vehicle
+	 * @param endPoint End Location of the vehicle
+	 * @param intermediateLocations Intermediate locations to be reached by the vehicle
+	 * @return Cached tour (null if not cached or caching is disabled)
+	 */
+	public TspTour getCachedTour(String startPoint, String endPoint, List<String> intermediateLocations)
+	{
+		if (solutionCache == null || intermediateLocations == null || startPoint == null || endPoint == null) return null;
+		return solutionCache.get(TspSolutionCache.createKey(startPoint, endPoint, intermediateLocations, BestPathChoice.FASTEST, vehicle, getGraphVersion()));
+	}
+	
+	/**
+	 * Get number of intermediate stops above which showTspSolution solves by clusters decomposition
+	 * @return Decomposition threshold (0 if decomposition is disabled)
+	 */
+	public int getDecompositionThreshold()
+	{
+		return decompositionThreshold;
+	}
+	
+	/**
+	 * Set number of intermediate stops above which showTspSolution solves by clusters decomposition
+	 * @param decompositionThreshold Decomposition threshold (0 disables decomposition)
+	 */
+	public void setDecompositionThreshold(int decompositionThreshold)
+	{
+		this.decompositionThreshold = decompositionThreshold;
+	}
+	
+	/**
+	 * Get solver portfolio
+	 * @return Solver portfolio (null if solveTsp uses a single default Jsprit algorithm)
+	 */
+	public SolverPortfolio getSolverPortfolio()
+	{
+		return portfolio;
+	}
+	
+	/**
+	 * Set solver portfolio used by solveTsp
+	 * @param portfolio Solver portfolio (null to use a single default Jsprit algorithm)
+	 */
+	public void setSolverPortfolio(SolverPortfolio portfolio)
+	{
+		this.portfolio = portfolio;
+	}
+	
 	/**
 	 * Calculate best path between 2 locations; 2 possible criteria for best path calculation: Fastest or Shortest
 	 * @param btp Enumeration representing the 2 possible criteria for best path calculation: Fastest or Shortest
@@ -317,9 +1000,37 @@ public class GeographicMap
 		//Set vehicle and national area in GraphHopper request
 		req.setVehicle(vehicle);
 		req.setLocale(area);
+		
+		//Use the fastest prepared algorithm: contraction hierarchies, else landmarks, else flexible search
+		//(flexible search only, if OpenStreetMap changes made the prepared data out of date, until the graph imported again
+		//with the changes is swapped in); contraction hierarchies cannot be customized by GraphHopper 0.12 and
+		//ignore the speed overlay, landmarks are customized by scaling their bounds down by its max factor
+		boolean stale = preparationStale.get();
+		SpeedOverlay overlay = getSpeedOverlay();
+		boolean useCH = !stale && overlay == null && isCHPrepared();
+		boolean useLM = !stale && !useCH && isLMPrepared();
+		req.getHints().put(Parameters.CH.DISABLE, !useCH);
+		req.getHints().put(Parameters.Landmark.DISABLE, !useLM);
+		
+		//Landmark distances are calculated without the overlay: an edge sped up by a factor weighs at least
+		//its prepared weight divided by the max factor, so the scaled bounds never overestimate and A* stays exact
+		if (useLM && overlay != null && overlay.getMaxFactor() > 1)
+		{
+			req.getHints().put(Parameters.Algorithms.AStar.EPSILON, 1 / overlay.getMaxFactor());
+			req.getHints().put(Parameters.Algorithms.AStarBi.EPSILON, 1 / overlay.getMaxFactor());
+		}
 				
 		//Get paths returned by GraphHopper and throw exception if no path is returned
-		GHResponse rsp = hopper.route(req);
+		GHResponse rsp;
+		graphLock.readLock().lock();
+		try
+		{
+			rsp = hopper.route(req);
+		}
+		finally
+		{
+			graphLock.readLock().unlock();
+		}
 		if(rsp.hasErrors()) throw new PathNotFoundException();
 				
 		//Return best path among those returned by GraphHopper
@@ -355,6 +1066,43 @@ public class GeographicMap
 		return bestPathToString(path);
 	}
 	
+	/**
+	 * Calculate best path between 2 specified locations in the specified response format
+	 * @param btp Best Path Choice
+	 * @param from Start point
+	 * @param to End point
+	 * @param format Response format
+	 * @return Representation of the best path between the 2 specified locations
+	 * @throws PathNotFoundException Path Not Found Exception
+	 * @throws NotExistingCoordinatesException Not Existing Coordinates Exception 
+	 */
+	public String showBestPath(BestPathChoice btp, String from, String to, ResponseFormat format) throws NotExistingCoordinatesException, PathNotFoundException
+	{
+		return showBestPath(btp, from, to, format, GeometryDetail.FULL);
+	}
+	
+	/**
+	 * Calculate best path between 2 specified locations in the specified response format and geometry detail level
+	 * @param btp Best Path Choice
+	 * @param from Start point
+	 * @param to End point
+	 * @param format Response format
+	 * @param detail Detail level of the geometry (ignored by text format)
+	 * @return Representation of the best path between the 2 specified locations
+	 * @throws PathNotFoundException Path Not Found Exception
+	 * @throws NotExistingCoordinatesException Not Existing Coordinates Exception 
+	 */
+	public String showBestPath(BestPathChoice btp, String from, String to, ResponseFormat format, GeometryDetail detail) throws NotExistingCoordinatesException, PathNotFoundException
+	{
+		if (format == ResponseFormat.TEXT) return showBestPath(btp, from, to);
+		
+		//Geocode start and end points (their coordinates are part of the response)
+		Location fromLocation = getLocation(null, from);
+		Location toLocation = getLocation(null, to);
+		PathWrapper path = getBestPath(btp, fromLocation.getCoordinate().getX(), fromLocation.getCoordinate().getY(), toLocation.getCoordinate().getX(), toLocation.getCoordinate().getY());
+		return StructuredResponse.bestPath(format, fromLocation, toLocation, path, area, detail);
+	}
+	
 	/**
 	 * Get a String representation of the best path between 2 locations
 	 * @param path Path of which a String representation is needed
@@ -363,69 +1111,33 @@ public class GeographicMap
 	 */
 	public String bestPathToString(PathWrapper path) throws PathNotFoundException
 	{
-		
-		//Get all instructions related to the best path
-		InstructionList il = path.getInstructions();
-        
-		//Manage the translations in-memory and load the translation files from classpath
-		TranslationMap tm = new TranslationMap().doImport();
-        
-		//Return the Translation object for the specified locale and fall back to english if the locale was not found
-		Translation tr = tm.getWithFallBack(area);
-        
-        //Initialize StringBuilder representation of the best path
-	StringBuilder infoBuilder = new StringBuilder().append("Tempo stimato: ");
-	infoBuilder.append((path.getTime() / 1000) / 60).append("min").append(" e ").append(path.getTime() % 60).append("s \n");
-	infoBuilder.append("Distanza stimata: ").append(Math.round(path.getDistance() / 1000)).append("km").append(" e ").append(Math.round(path.getDistance() % 1000)).append("m \n\n");
-        
-        //If there is at least 1 instruction, iterate over the list of instructions related to the best path
-        if (path.getInstructions() != null)
-        {
-            for(Instruction instruction : il)
-            	{
-            		//Append to StringBuilder infoBuilder the description of specific instruction
-            		//+ time in seconds and distance in meters until no new instruction
-            		infoBuilder.append(instruction.getTurnDescription(tr)).append(" per ").append(Math.round(instruction.getTime() / 1000)).append("s");
-            		infoBuilder.append(" e ").append(Math.round(instruction.getDistance())).append("m\n");
-            	}
-        }
-        
-        //Return normalized String related to StringBuilder infoBuilder,
-        //containing a representation of the best path (removing eventual spaces at start and end)
-        return Normalizer.normalize(infoBuilder.toString().trim(), Normalizer.Form.NFD).replaceAll("[^\\p{ASCII}]", "'");
+		//Render instructions with the cached translation of the area (ASCII only)
+		return InstructionRenderer.render(path, area);
 	}
 	
 	/**
-	 * Solve Travelling Salesman Problem
+	 * Create the Vehicle Routing Problem related to the Travelling Salesman Problem (geocoding of every point and cost matrix)
 	 * @param cmw Cost Matrix Wrapper containing a string representation of the best path between every couple of points
 	 * @param startPoint Start Location of the vehicle
 	 * @param endPoint End Location of the vehicle
 	 * @param intermediateLocations Intermediate locations to be reached by the vehicle
-	 * @return Solution path with lowest estimated cost (default is distance related to fastest path)
+	 * @return Vehicle Routing Problem ready to be solved by a Jsprit algorithm
 	 * @throws UncorrectQueryException Uncorrect Query Exception 
 	 * @throws NotExistingCoordinatesException Not Existing Coordinates Exception
 	 * @throws PathNotFoundException Path Not Found Exception
 	 */
-	public VehicleRoutingProblemSolution solveTsp(CostMatrixWrapper cmw, String startPoint, String endPoint, List<String> intermediateLocations) throws UncorrectQueryException, NotExistingCoordinatesException, PathNotFoundException
+	public VehicleRoutingProblem createTspProblem(CostMatrixWrapper cmw, String startPoint, String endPoint, List<String> intermediateLocations) throws UncorrectQueryException, NotExistingCoordinatesException, PathNotFoundException
 	{
-		if (intermediateLocations.isEmpty() || intermediateLocations == null || startPoint == null || endPoint == null) throw new UncorrectQueryException();
+		if (intermediateLocations == null || intermediateLocations.isEmpty() || startPoint == null || endPoint == null) throw new UncorrectQueryException();
 		
 		//Define type and capacity of the vehicle
 		VehicleTypeImpl.Builder vehicleTypeBuilder = VehicleTypeImpl.Builder.newInstance("vehicleType").addCapacityDimension(0,Integer.MAX_VALUE);
 		VehicleType vehicleType = vehicleTypeBuilder.build();
 		Builder vehicleBuilder = VehicleImpl.Builder.newInstance("vehicle");
 		
-		//Map the address of startPoint into (Latitude, Longitude) coordinates
-		Map<String, Double> startCoords = getDirectGeocoding(startPoint);
-		
-		//Create start location by name and coordinates
-		Location startLocation = Location.Builder.newInstance().setId(startPoint).setCoordinate(new Coordinate(startCoords.get("lat"), startCoords.get("lon"))).build();
-		
-		//Map the address of endPoint into (Latitude, Longitude) coordinates
-		Map<String, Double> endCoords = getDirectGeocoding(endPoint);
-				
-		//Create end location by name and coordinates
-		Location endLocation = Location.Builder.newInstance().setId(endPoint).setCoordinate(new Coordinate(endCoords.get("lat"), endCoords.get("lon"))).build();
+		//Create start and end locations by name and (Latitude, Longitude) coordinates
+		Location startLocation = getLocation(cmw, startPoint);
+		Location endLocation = getLocation(cmw, endPoint);
 		
 		//Assign (Latitude, Longitude) coordinates of startPoint to the vehicle as its start location
 		vehicleBuilder.setStartLocation(startLocation);
@@ -441,23 +1153,16 @@ public class GeographicMap
 		List<Service> jobs = new ArrayList<Service>();
 		List<Location> locations = new ArrayList<Location>();
 		
-		//Add the end location to the jobs list as a new Service
-		jobs.add(Service.Builder.newInstance(endPoint).setLocation(endLocation).build());
-		
-		//Add start and end locations to the locations list
+		//Add start and end locations to the locations list (the end location is the vehicle end location,
+		//so it does not need a job of its own)
 		locations.add(startLocation);
 		locations.add(endLocation);
 		
 		//Assign 1 job per intermediateLocations to the vehicle
 		for (String id : intermediateLocations)
 		{
-			//Get the coordinates of the locations and assign them to corresponding double variable
-			Map<String, Double> coords = getDirectGeocoding(id);
-			double lat = coords.get("lat");
-			double lon = coords.get("lon");
-			
 			//Create location l by id and (Latitude, Longitude) coordinates and add it to locations list
-			Location l = Location.Builder.newInstance().setId(id).setCoordinate(new Coordinate(lat, lon)).build();
+			Location l = getLocation(cmw, id);
 			locations.add(l);
 			
 			//Add location l to the jobs list as a new Service
@@ -474,17 +1179,73 @@ public class GeographicMap
 		//Assign every given jobs to the VRP builder
 		for (Service job : jobs) vrpBuilder.addJob(job);
 		
-		//Build VRP and create Jsprit algorithm to solve the given VRP
-		VehicleRoutingProblem vrp = vrpBuilder.build();
-		VehicleRoutingAlgorithm vra = Jsprit.createAlgorithm(vrp);
-		
-		//Set max iterations of the Jsprit algorithm
-		vra.setMaxIterations(2000);
+		//Build VRP and return it
+		return vrpBuilder.build();
+	}
+	
+	/**
+	 * Solve Travelling Salesman Problem
+	 * @param cmw Cost Matrix Wrapper containing a string representation of the best path between every couple of points
+	 * @param startPoint Start Location of the vehicle
+	 * @param endPoint End Location of the vehicle
+	 * @param intermediateLocations Intermediate locations to be reached by the vehicle
+	 * @return Solution path with lowest estimated cost (default is distance related to fastest path)
+	 * @throws UncorrectQueryException Uncorrect Query Exception 
+	 * @throws NotExistingCoordinatesException Not Existing Coordinates Exception
+	 * @throws PathNotFoundException Path Not Found Exception
+	 */
+	public VehicleRoutingProblemSolution solveTsp(CostMatrixWrapper cmw, String startPoint, String endPoint, List<String> intermediateLocations) throws UncorrectQueryException, NotExistingCoordinatesException, PathNotFoundException
+	{
+		//Build VRP (geocoding and cost matrix)
+		VehicleRoutingProblem vrp = createTspProblem(cmw, startPoint, endPoint, intermediateLocations);
 		
-		//Calculate and return the path with lowest distance cost (related to the fastest path)
-		//among the solutions returned by Jsprit algorithm
-		Collection<VehicleRoutingProblemSolution> solutions = vra.searchSolutions();
-		return Solutions.bestOf(solutions);
+		//Improved tours are reported while searching, until the search ends
+		TspProgressReporter progress = progressListener == null ? null : new TspProgressReporter(startPoint, progressListener);
+		try
+		{
+			//If a solver portfolio has been set, then let it race its configurations on the VRP
+			if (portfolio != null)
+			{
+				VehicleRoutingProblemSolution best = portfolio.solve(vrp, cancellation, progress).getSolution();
+				if (best != null) return best;
+				
+				//Every run of the portfolio failed: fall back to the default algorithm
+				log.warn("Nessuna configurazione del portfolio ha trovato una soluzione: uso l'algoritmo di default");
+			}
+			
+			//Create Jsprit algorithm tuned for a single vehicle open path (2000 max iterations),
+			//stopped as soon as the request is cancelled
+			VehicleRoutingAlgorithm vra = TspAlgorithmFactory.createAlgorithm(vrp);
+			if (cancellation != null) vra.addTerminationCriterion(cancellation);
+			if (progress != null) vra.addListener(progress);
+			
+			//Calculate and return the path with lowest distance cost (related to the fastest path)
+			//among the solutions returned by Jsprit algorithm
+			Collection<VehicleRoutingProblemSolution> solutions = vra.searchSolutions();
+			return Solutions.bestOf(solutions);
+		}
+		finally
+		{
+			if (progress != null) progress.close();
+		}
+	}
+	
+	/**
+	 * Solve Travelling Salesman Problem running every configuration of the specified solver portfolio
+	 * on the same cost matrix
+	 * @param portfolio Solver portfolio
+	 * @param cmw Cost Matrix Wrapper containing a string representation of the best path between every couple of points
+	 * @param startPoint Start Location of the vehicle
+	 * @param endPoint End Location of the vehicle
+	 * @param intermediateLocations Intermediate locations to be reached by the vehicle
+	 * @return Best solution among those found by the portfolio, with the configuration which found it
+	 * @throws UncorrectQueryException Uncorrect Query Exception 
+	 * @throws NotExistingCoordinatesException Not Existing Coordinates Exception
+	 * @throws PathNotFoundException Path Not Found Exception
+	 */
+	public PortfolioSolution solveTsp(SolverPortfolio portfolio, CostMatrixWrapper cmw, String startPoint, String endPoint, List<String> intermediateLocations) throws UncorrectQueryException, NotExistingCoordinatesException, PathNotFoundException
+	{
+		return portfolio.solve(createTspProblem(cmw, startPoint, endPoint, intermediateLocations), cancellation);
 	}
 	
 	/**
@@ -502,6 +1263,84 @@ public class GeographicMap
 		return solveTsp(null, startPoint, endPoint, intermediateLocations);
 	}
 	
+	/**
+	 * Re-optimize a TSP tour after some intermediate stops have been added or removed: only the costs between
+	 * new stops and the stops of the tour are calculated (the others are read from the cost matrix wrapper of the
+	 * previous solution), new stops are inserted where they cost least and the tour is improved by a short local search
+	 * @param previous Previous tour
+	 * @param cmw Cost Matrix Wrapper used to calculate the previous tour (it is updated with the new costs)
+	 * @param addedStops Intermediate stops to be added
+	 * @param removedStops Intermediate stops to be removed
+	 * @return Re-optimized tour, including its String representation
+	 * @throws UncorrectQueryException Uncorrect Query Exception (start or end point removed, or too few stops left)
+	 * @throws NotExistingCoordinatesException Not Existing Coordinates Exception
+	 * @throws PathNotFoundException Path Not Found Exception
+	 * @throws NoInstructionsFoundException No Instructions Found Exception
+	 */
+	public TspTour reoptimizeTsp(TspTour previous, CostMatrixWrapper cmw, List<String> addedStops, List<String> removedStops) throws UncorrectQueryException, NotExistingCoordinatesException, PathNotFoundException, NoInstructionsFoundException
+	{
+		if (previous == null || cmw == null || addedStops == null || removedStops == null) throw new UncorrectQueryException();
+		
+		//Previous stops, without the removed ones (start and end point cannot be removed)
+		List<String> stops = new ArrayList<String>(previous.getOrderedStops());
+		String startPoint = stops.get(0);
+		String endPoint = stops.get(stops.size() - 1);
+		if (removedStops.contains(startPoint) || removedStops.contains(endPoint)) throw new UncorrectQueryException();
+		stops.removeAll(removedStops);
+		
+		//Insert every new stop where it costs least, calculating only its costs towards the stops of the tour
+		for (String stop : addedStops)
+		{
+			if (stops.contains(stop)) continue;
+			Location added = getLocation(cmw, stop);
+			
+			int bestPosition = 1;
+			double bestIncrease = Double.MAX_VALUE;
+			for (int i = 1; i < stops.size(); i++)
+			{
+				Location prev = getLocation(cmw, stops.get(i - 1));
+				Location next = getLocation(cmw, stops.get(i));
+				double increase = getPathCosts(BestPathChoice.FASTEST, prev, added, cmw)[0] + getPathCosts(BestPathChoice.FASTEST, added, next, cmw)[0] - getPathCosts(BestPathChoice.FASTEST, prev, next, cmw)[0];
+				if (increase < bestIncrease)
+				{
+					bestIncrease = increase;
+					bestPosition = i;
+				}
+			}
+			stops.add(bestPosition, stop);
+		}
+		
+		//At least 1 intermediate stop is needed
+		final int SIZE = stops.size();
+		if (SIZE < 3) throw new UncorrectQueryException();
+		
+		//Distance matrix among the stops of the tour (new stops costs towards every stop are calculated here)
+		double[][] distances = new double[SIZE][SIZE];
+		for (int i = 0; i < SIZE; i++)
+			for (int j = 0; j < SIZE; j++)
+				if (i != j) distances[i][j] = getPathCosts(BestPathChoice.FASTEST, getLocation(cmw, stops.get(i)), getLocation(cmw, stops.get(j)), cmw)[0];
+		
+		//Short local search starting from the repaired tour
+		int[] tour = new int[SIZE];
+		for (int i = 0; i < SIZE; i++) tour[i] = i;
+		double distance = TourLocalSearch.improve(tour, distances, 10);
+		
+		//Ordered stops of the re-optimized tour
+		List<String> orderedStops = new ArrayList<String>();
+		for (int i : tour) orderedStops.add(stops.get(i));
+		
+		//String representation of the re-optimized tour
+		StringBuilder tspBuilder = new StringBuilder();
+		tspBuilder.append("Distanza percorsa: ").append(Math.round(distance / 1000)).append("km\n\n");
+		TSPSolutionWrapper.appendTour(orderedStops, cmw, tspBuilder);
+		TspTour reoptimized = new TspTour(orderedStops, distance, tspBuilder.toString());
+		
+		//Cache the re-optimized tour
+		if (solutionCache != null && !isCancelled()) solutionCache.put(TspSolutionCache.createKey(startPoint, endPoint, orderedStops.subList(1, SIZE - 1), BestPathChoice.FASTEST, vehicle, getGraphVersion()), reoptimized);
+		
+		return reoptimized;
+	}
+	
 	/**
 	 * Get the list of Tour Activities associated to the Jsprit solution of the specified TSP
 	 * @param startPoint Start point
@@ -529,7 +1368,170 @@ public class GeographicMap
 	public String showTspSolution(String startPoint, String endPoint, List<String> intermediateLocations) throws UncorrectQueryException, NotExistingCoordinatesException, PathNotFoundException, NoInstructionsFoundException
 	{
 		//Cost Matrix Wrapper containing a string representation of the best path between every couple of points
-		CostMatrixWrapper cmw = new CostMatrixWrapper();
+		return showTspSolution(new CostMatrixWrapper(), startPoint, endPoint, intermediateLocations);
+	}
+	
+	/**
+	 * Solve Travelling Salesman Problem, reusing costs and locations already stored into the specified
+	 * cost matrix wrapper, and store the solution into a String object
+	 * @param cmw Cost Matrix Wrapper containing a string representation of the best path between every couple of points
+	 * @param startPoint Start Location of the vehicle
+	 * @param endPoint End Location of the vehicle
+	 * @param intermediateLocations Intermediate locations to be reached by the vehicle
+	 * @return String representation of the best TSP solution with lowest estimated cost
+	 * @throws PathNotFoundException Path Not Found Exception 
+	 * @throws NotExistingCoordinatesException Not Existing Coordinates Exception
+	 * @throws UncorrectQueryException Uncorrect Query Exception
+	 * @throws NoInstructionsFoundException No Instructions Found Exception
+	 */
+	public String showTspSolution(CostMatrixWrapper cmw, String startPoint, String endPoint, List<String> intermediateLocations) throws UncorrectQueryException, NotExistingCoordinatesException, PathNotFoundException, NoInstructionsFoundException
+	{
+		return solveTspTour(cmw, startPoint, endPoint, intermediateLocations).getInstructions();
+	}
+	
+	/**
+	 * Solve Travelling Salesman Problem in the specified response format
+	 * @param cmw Cost Matrix Wrapper containing a string representation of the best path between every couple of points
+	 * @param startPoint Start Location of the vehicle
+	 * @param endPoint End Location of the vehicle
+	 * @param intermediateLocations Intermediate locations to be reached by the vehicle
+	 * @param format Response format
+	 * @return Representation of the best TSP solution with lowest estimated cost
+	 * @throws PathNotFoundException Path Not Found Exception 
+	 * @throws NotExistingCoordinatesException Not Existing Coordinates Exception
+	 * @throws UncorrectQueryException Uncorrect Query Exception
+	 * @throws NoInstructionsFoundException No Instructions Found Exception
+	 */
+	public String showTspSolution(CostMatrixWrapper cmw, String startPoint, String endPoint, List<String> intermediateLocations, ResponseFormat format) throws UncorrectQueryException, NotExistingCoordinatesException, PathNotFoundException, NoInstructionsFoundException
+	{
+		return showTspSolution(cmw, startPoint, endPoint, intermediateLocations, format, GeometryDetail.FULL);
+	}
+	
+	/**
+	 * Solve Travelling Salesman Problem in the specified response format and geometry detail level
+	 * @param cmw Cost Matrix Wrapper containing a string representation of the best path between every couple of points
+	 * @param startPoint Start Location of the vehicle
+	 * @param endPoint End Location of the vehicle
+	 * @param intermediateLocations Intermediate locations to be reached by the vehicle
+	 * @param format Response format
+	 * @param detail Detail level of the geometry (ignored by text format)
+	 * @return Representation of the best TSP solution with lowest estimated cost
+	 * @throws PathNotFoundException Path Not Found Exception 
+	 * @throws NotExistingCoordinatesException Not Existing Coordinates Exception
+	 * @throws UncorrectQueryException Uncorrect Query Exception
+	 * @throws NoInstructionsFoundException No Instructions Found Exception
+	 */
+	public String showTspSolution(CostMatrixWrapper cmw, String startPoint, String endPoint, List<String> intermediateLocations, ResponseFormat format, GeometryDetail detail) throws UncorrectQueryException, NotExistingCoordinatesException, PathNotFoundException, NoInstructionsFoundException
+	{
+		TspTour tour = solveTspTour(cmw, startPoint, endPoint, intermediateLocations);
+		if (format == ResponseFormat.TEXT) return tour.getInstructions();
+		
+		//Locations of the ordered stops (already geocoded, unless the tour comes from the solution cache)
+		List<Location> stops = new ArrayList<Location>();
+		for (String stop : tour.getOrderedStops()) stops.add(getLocation(cmw, stop));
+		
+		//The cost matrix keeps no geometry: calculate again the best path of every leg of the tour
+		List<PathWrapper> legs = new ArrayList<PathWrapper>();
+		for (int i = 0; i < stops.size() - 1; i++)
+		{
+			Coordinate from = stops.get(i).getCoordinate();
+			Coordinate to = stops.get(i + 1).getCoordinate();
+			legs.add(getBestPath(BestPathChoice.FASTEST, from.getX(), from.getY(), to.getX(), to.getY()));
+		}
+		return StructuredResponse.tour(format, tour, stops, legs, area, detail);
+	}
+	
+	/**
+	 * Solve Travelling Salesman Problem and write the solution leg by leg (the same String representation
+	 * as showTspSolution): the total distance is sent as soon as the tour is solved, then every leg is sent
+	 * as soon as it is written, without holding the whole representation in memory
+	 * @param cmw Cost Matrix Wrapper containing a string representation of the best path between every couple of points
+	 * @param startPoint Start Location of the vehicle
+	 * @param endPoint End Location of the vehicle
+	 * @param intermediateLocations Intermediate locations to be reached by the vehicle
+	 * @param out Writer of the solution
+	 * @throws PathNotFoundException Path Not Found Exception 
+	 * @throws NotExistingCoordinatesException Not Existing Coordinates Exception
+	 * @throws UncorrectQueryException Uncorrect Query Exception
+	 * @throws NoInstructionsFoundException No Instructions Found Exception
+	 */
+	public void writeTspSolution(CostMatrixWrapper cmw, String startPoint, String endPoint, List<String> intermediateLocations, PrintWriter out) throws UncorrectQueryException, NotExistingCoordinatesException, PathNotFoundException, NoInstructionsFoundException
+	{
+		if (cmw == null || intermediateLocations == null || intermediateLocations.isEmpty() || startPoint == null || endPoint == null) throw new UncorrectQueryException();
+		
+		//Tour already solved on this graph, else solve it (clusters decomposition renders its tour while solving)
+		TspTour tour = getCachedTour(startPoint, endPoint, intermediateLocations);
+		if (tour == null && decompositionThreshold > 0 && intermediateLocations.size() > decompositionThreshold) tour = solveTspTour(cmw, startPoint, endPoint, intermediateLocations);
+		if (tour != null && tour.getInstructions() != null)
+		{
+			out.print(tour.getInstructions());
+			out.flush();
+			return;
+		}
+		
+		//Solve Travelling Salesman Problem and cache the ordered tour only (its String representation is never held)
+		if (tour == null)
+		{
+			VehicleRoutingProblemSolution solution = solveTsp(cmw, startPoint, endPoint, intermediateLocations);
+			tour = TspTour.fromSolution(startPoint, solution, null);
+			if (solutionCache != null && !isCancelled()) solutionCache.put(TspSolutionCache.createKey(startPoint, endPoint, intermediateLocations, BestPathChoice.FASTEST, vehicle, getGraphVersion()), tour);
+		}
+		
+		//Send the total distance, then every leg
+		out.print("Distanza percorsa: " + Math.round(tour.getDistance() / 1000) + "km\n\n");
+		out.flush();
+		calculateTourLegs(cmw, tour.getOrderedStops());
+		TSPSolutionWrapper.writeTour(tour.getOrderedStops(), cmw, out);
+	}
+	
+	/**
+	 * Calculate the best path of every leg of a tour, unless cost matrix wrapper already contains it
+	 * @param cmw Cost Matrix Wrapper
+	 * @param orderedStops Ordered stops, from start to end point
+	 * @throws NotExistingCoordinatesException Not Existing Coordinates Exception
+	 * @throws PathNotFoundException Path Not Found Exception
+	 */
+	protected void calculateTourLegs(CostMatrixWrapper cmw, List<String> orderedStops) throws NotExistingCoordinatesException, PathNotFoundException
+	{
+		for (int i = 0; i < orderedStops.size() - 1; i++) getPathCosts(BestPathChoice.FASTEST, getLocation(cmw, orderedStops.get(i)), getLocation(cmw, orderedStops.get(i + 1)), cmw);
+	}
+	
+	/**
+	 * Solve Travelling Salesman Problem (or reuse the cached tour), reusing costs and locations already
+	 * stored into the specified cost matrix wrapper
+	 * @param cmw Cost Matrix Wrapper containing a string representation of the best path between every couple of points
+	 * @param startPoint Start Location of the vehicle
+	 * @param endPoint End Location of the vehicle
+	 * @param intermediateLocations Intermediate locations to be reached by the vehicle
+	 * @return Best TSP tour with lowest estimated cost, together with its String representation
+	 * @throws PathNotFoundException Path Not Found Exception 
+	 * @throws NotExistingCoordinatesException Not Existing Coordinates Exception
+	 * @throws UncorrectQueryException Uncorrect Query Exception
+	 * @throws NoInstructionsFoundException No Instructions Found Exception
+	 */
+	protected TspTour solveTspTour(CostMatrixWrapper cmw, String startPoint, String endPoint, List<String> intermediateLocations) throws UncorrectQueryException, NotExistingCoordinatesException, PathNotFoundException, NoInstructionsFoundException
+	{
+		//Return the cached tour if the same line has already been solved on this graph
+		TspTour cached = getCachedTour(startPoint, endPoint, intermediateLocations);
+		if (cached != null && cached.getInstructions() != null) return cached;
+		
+		//A tour cached by a streamed response has no String representation: render it from its legs
+		if (cached != null)
+		{
+			calculateTourLegs(cmw, cached.getOrderedStops());
+			StringBuilder tspBuilder = new StringBuilder();
+			tspBuilder.append("Distanza percorsa: ").append(Math.round(cached.getDistance() / 1000)).append("km\n\n");
+			TSPSolutionWrapper.appendTour(cached.getOrderedStops(), cmw, tspBuilder);
+			return new TspTour(cached.getOrderedStops(), cached.getDistance(), tspBuilder.toString());
+		}
+		
+		//Very large stop sets are solved by clusters decomposition
+		if (decompositionThreshold > 0 && intermediateLocations.size() > decompositionThreshold)
+		{
+			TspTour tour = new ClusteredTspSolver(this).solve(cmw, startPoint, endPoint, intermediateLocations);
+			if (solutionCache != null && !isCancelled()) solutionCache.put(TspSolutionCache.createKey(startPoint, endPoint, intermediateLocations, BestPathChoice.FASTEST, vehicle, getGraphVersion()), tour);
+			return tour;
+		}
 		
 		//Solve Travelling Salesman Problem and store the best solution with lowest distance estimated cost
 		//(related to the fastest path) 
@@ -541,9 +1543,13 @@ public class GeographicMap
 		tspBuilder.append("Distanza percorsa: ").append(Math.round(solution.getCost() / 1000)).append("km\n\n");
 		
 		tspBuilder = new TSPSolutionWrapper(solution, startPoint, cmw, tspBuilder).getSBSolution();
+		String tspSolution = tspBuilder.toString();
+		
+		//Cache the ordered tour together with its String representation
+		TspTour tour = TspTour.fromSolution(startPoint, solution, tspSolution);
+		if (solutionCache != null && !isCancelled()) solutionCache.put(TspSolutionCache.createKey(startPoint, endPoint, intermediateLocations, BestPathChoice.FASTEST, vehicle, getGraphVersion()), tour);
 		  
-		//Return String related to tspBuilder StringBuilder,
-		//containing a representation of the best path returned by the Jsprit algorithm
-		return tspBuilder.toString();
+		//Return the tour, containing a representation of the best path returned by the Jsprit algorithm
+		return tour;
 	}
 }
@@ -0,0 +1,143 @@
+package core;
+
+import java.util.Arrays;
+
+/**
+ * Geographic Region: bounding box or polygon delimiting the part of a larger OpenStreetMap extract
+ * which is imported into a regional graph
+ * @author Francesco Raco
+ */
+public class GeographicRegion
+{
+	/**
+	 * Name of the region
+	 */
+	protected String name;
+
+	/**
+	 * Latitudes of the polygon vertices
+	 */
+	protected double[] lats;
+
+	/**
+	 * Longitudes of the polygon vertices
+	 */
+	protected double[] lons;
+
+	/**
+	 * True if the region is exactly its bounding box (no polygon test needed)
+	 */
+	protected boolean box;
+
+	/**
+	 * Bounding box of the region
+	 */
+	protected double minLat, minLon, maxLat, maxLon;
+
+	/**
+	 * Create region by name and polygon vertices
+	 * @param name Name of the region
+	 * @param lats Latitudes of the polygon vertices
+	 * @param lons Longitudes of the polygon vertices
+	 * @param box True if the polygon is the bounding box itself
+	 */
+	protected GeographicRegion(String name, double[] lats, double[] lons, boolean box)
+	{
+		//Check arguments
+		if (lats.length != lons.length || lats.length < 3) throw new IllegalArgumentException("A region needs at least 3 vertices");
+
+		//Assign arguments to corresponding fields
+		this.name = name;
+		this.lats = lats;
+		this.lons = lons;
+		this.box = box;
+
+		//Calculate the bounding box
+		minLat = Arrays.stream(lats).min().getAsDouble();
+		maxLat = Arrays.stream(lats).max().getAsDouble();
+		minLon = Arrays.stream(lons).min().getAsDouble();
+		maxLon = Arrays.stream(lons).max().getAsDouble();
+	}
+
+	/**
+	 * Create rectangular region
+	 * @param name Name of the region
+	 * @param minLat Min latitude
+	 * @param minLon Min longitude
+	 * @param maxLat Max latitude
+	 * @param maxLon Max longitude
+	 * @return Rectangular region
+	 */
+	public static GeographicRegion boundingBox(String name, double minLat, double minLon, double maxLat, double maxLon)
+	{
+		return new GeographicRegion(name, new double[] {minLat, minLat, maxLat, maxLat}, new double[] {minLon, maxLon, maxLon, minLon}, true);
+	}
+
+	/**
+	 * Create polygonal region
+	 * @param name Name of the region
+	 * @param vertices Vertices of the polygon, every one as {latitude, longitude}
+	 * @return Polygonal region
+	 */
+	public static GeographicRegion polygon(String name, double[]... vertices)
+	{
+		//Split vertices into latitudes and longitudes
+		double[] lats = new double[vertices.length];
+		double[] lons = new double[vertices.length];
+		for (int i = 0; i < vertices.length; i++)
+		{
+			lats[i] = vertices[i][0];
+			lons[i] = vertices[i][1];
+		}
+
+		return new GeographicRegion(name, lats, lons, false);
+	}
+
+	/**
+	 * Check if a point is inside the region
+	 * @param lat Latitude
+	 * @param lon Longitude
+	 * @return True if the point is inside the region
+	 */
+	public boolean contains(double lat, double lon)
+	{
+		//Most of the points of a large extract are rejected by the bounding box
+		if (lat < minLat || lat > maxLat || lon < minLon || lon > maxLon) return false;
+		if (box) return true;
+
+		//Ray casting on the polygon edges
+		boolean inside = false;
+		for (int i = 0, j = lats.length - 1; i < lats.length; j = i++)
+			if ((lats[i] > lat) != (lats[j] > lat) && lon < (lons[j] - lons[i]) * (lat - lats[i]) / (lats[j] - lats[i]) + lons[i]) inside = !inside;
+
+		return inside;
+	}
+
+	/**
+	 * Get name of the region
+	 * @return Name of the region
+	 */
+	public String getName()
+	{
+		return name;
+	}
+
+	/**
+	 * Get key of the region: it changes whenever the shape changes, so a regional graph
+	 * is never loaded for a different shape
+	 * @return Key of the region (usable as directory name)
+	 */
+	public String getKey()
+	{
+		return name.replaceAll("[^A-Za-z0-9]", "_") + "-" + Integer.toHexString(31 * Arrays.hashCode(lats) + Arrays.hashCode(lons));
+	}
+
+	/**
+	 * Get String representation of the region
+	 */
+	@Override
+	public String toString()
+	{
+		return name + " [" + minLat + "," + minLon + " - " + maxLat + "," + maxLon + "]";
+	}
+}
@@ -0,0 +1,213 @@
+package core;
+
+/**
+ * Geometry Detail: how path geometries are simplified before being sent to the client. Points closer than
+ * the tolerance to the simplified line are dropped (Douglas-Peucker) and coordinates are rounded to the
+ * specified number of decimals
+ * @author Francesco Raco
+ */
+public class GeometryDetail
+{
+	/**
+	 * Full geometry: every point, 5 decimals (about 1 meter)
+	 */
+	public static final GeometryDetail FULL = new GeometryDetail(0, 5);
+
+	/**
+	 * Medium detail: 5 meters tolerance, 5 decimals
+	 */
+	public static final GeometryDetail MEDIUM = new GeometryDetail(5, 5);
+
+	/**
+	 * Low detail: 20 meters tolerance, 4 decimals (about 10 meters)
+	 */
+	public static final GeometryDetail LOW = new GeometryDetail(20, 4);
+
+	/**
+	 * Max distance (meters) of a dropped point from the simplified line (0 keeps every point)
+	 */
+	private double tolerance;
+
+	/**
+	 * Number of decimals of the coordinates
+	 */
+	private int decimals;
+
+	/**
+	 * Create detail level by tolerance and precision
+	 * @param tolerance Max distance (meters) of a dropped point from the simplified line (0 keeps every point)
+	 * @param decimals Number of decimals of the coordinates (from 1 to 7)
+	 */
+	public GeometryDetail(double tolerance, int decimals)
+	{
+		this.tolerance = tolerance;
+		this.decimals = decimals;
+	}
+
+	/**
+	 * Parse detail level requested by the client: "full", "medium", "low" or tolerance in meters
+	 * optionally followed by the number of decimals (e.g. "10 5")
+	 * @param detail Detail level
+	 * @return Detail level
+	 * @throws UncorrectQueryException Uncorrect Query Exception (unknown detail level)
+	 */
+	public static GeometryDetail parse(String detail) throws UncorrectQueryException
+	{
+		switch(detail.trim().toLowerCase())
+		{
+			case "full": return FULL;
+			case "medium": return MEDIUM;
+			case "low": return LOW;
+			default: break;
+		}
+
+		try
+		{
+			String[] fields = detail.trim().split("\\s+");
+			if (fields.length > 2) throw new UncorrectQueryException();
+			double tolerance = Double.parseDouble(fields[0]);
+			int decimals = fields.length > 1 ? Integer.parseInt(fields[1]) : FULL.decimals;
+			if (!(tolerance >= 0) || Double.isInfinite(tolerance) || decimals < 1 || decimals > 7) throw new UncorrectQueryException();
+			return new GeometryDetail(tolerance, decimals);
+		}
+		catch (NumberFormatException e)
+		{
+			throw new UncorrectQueryException();
+		}
+	}
+
+	/**
+	 * Get tolerance
+	 * @return Max distance (meters) of a dropped point from the simplified line (0 keeps every point)
+	 */
+	public double getTolerance()
+	{
+		return tolerance;
+	}
+
+	/**
+	 * Get number of decimals of the coordinates
+	 * @return Number of decimals
+	 */
+	public int getDecimals()
+	{
+		return decimals;
+	}
+
+	/**
+	 * Get multiplier of the coordinates (10 raised to the number of decimals)
+	 * @return Multiplier of the coordinates
+	 */
+	public double getMultiplier()
+	{
+		return Math.pow(10, decimals);
+	}
+
+	/**
+	 * Round a coordinate to the number of decimals
+	 * @param coordinate Coordinate
+	 * @return Rounded coordinate
+	 */
+	public double round(double coordinate)
+	{
+		double multiplier = getMultiplier();
+		return Math.round(coordinate * multiplier) / multiplier;
+	}
+
+	/**
+	 * Get indexes of the points kept by the simplification (Douglas-Peucker): first and last point are
+	 * always kept, then the farthest point from the line between 2 kept points is kept while farther than the tolerance
+	 * @param lats Latitudes of the points
+	 * @param lons Longitudes of the points
+	 * @param size Number of points
+	 * @return Indexes of the kept points, ascending
+	 */
+	public int[] simplify(double[] lats, double[] lons, int size)
+	{
+		//Nothing to simplify
+		if (tolerance <= 0 || size < 3)
+		{
+			int[] all = new int[size];
+			for (int i = 0; i < size; i++) all[i] = i;
+			return all;
+		}
+
+		//Project the points onto a plane in meters (equirectangular: accurate at the scale of a path)
+		double metersPerDegree = 6371000 * Math.PI / 180;
+		double lonScale = Math.cos(Math.toRadians(lats[0])) * metersPerDegree;
+		double[] x = new double[size];
+		double[] y = new double[size];
+		for (int i = 0; i < size; i++)
+		{
+			x[i] = lons[i] * lonScale;
+			y[i] = lats[i] * metersPerDegree;
+		}
+
+		//Stack of the ranges still to be simplified (no recursion: paths can have thousands of points)
+		boolean[] kept = new boolean[size];
+		kept[0] = kept[size - 1] = true;
+		int[] stack = new int[2 * size];
+		int top = 0;
+		stack[top++] = 0;
+		stack[top++] = size - 1;
+		double squaredTolerance = tolerance * tolerance;
+		while (top > 0)
+		{
+			int last = stack[--top];
+			int first = stack[--top];
+
+			//Farthest point from the segment between first and last point
+			int farthest = -1;
+			double maxDistance = squaredTolerance;
+			for (int i = first + 1; i < last; i++)
+			{
+				double distance = getSquaredSegmentDistance(x[i], y[i], x[first], y[first], x[last], y[last]);
+				if (distance > maxDistance)
+				{
+					maxDistance = distance;
+					farthest = i;
+				}
+			}
+
+			//Keep it and simplify both halves
+			if (farthest >= 0)
+			{
+				kept[farthest] = true;
+				stack[top++] = first;
+				stack[top++] = farthest;
+				stack[top++] = farthest;
+				stack[top++] = last;
+			}
+		}
+
+		//Indexes of the kept points
+		int count = 0;
+		for (boolean k : kept) if (k) count++;
+		int[] indexes = new int[count];
+		for (int i = 0, j = 0; i < size; i++) if (kept[i]) indexes[j++] = i;
+		return indexes;
+	}
+
+	/**
+	 * Get squared distance of a point from a segment
+	 * @param px Point x
+	 * @param py Point y
+	 * @param ax Segment start x
+	 * @param ay Segment start y
+	 * @param bx Segment end x
+	 * @param by Segment end y
+	 * @return Squared distance
+	 */
+	protected static double getSquaredSegmentDistance(double px, double py, double ax, double ay, double bx, double by)
+	{
+		double dx = bx - ax;
+		double dy = by - ay;
+		double squaredLength = dx * dx + dy * dy;
+
+		//Projection of the point onto the segment (clamped to its ends)
+		double t = squaredLength == 0 ? 0 : Math.max(0, Math.min(1, ((px - ax) * dx + (py - ay) * dy) / squaredLength));
+		double ex = ax + t * dx - px;
+		double ey = ay + t * dy - py;
+		return ex * ex + ey * ey;
+	}
+}
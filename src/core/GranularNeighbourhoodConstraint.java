@@ -0,0 +1,101 @@
+package core;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import com.graphhopper.jsprit.core.problem.Location;
+import com.graphhopper.jsprit.core.problem.VehicleRoutingProblem;
+import com.graphhopper.jsprit.core.problem.constraint.HardActivityConstraint;
+import com.graphhopper.jsprit.core.problem.cost.VehicleRoutingTransportCosts;
+import com.graphhopper.jsprit.core.problem.job.Job;
+import com.graphhopper.jsprit.core.problem.job.Service;
+import com.graphhopper.jsprit.core.problem.misc.JobInsertionContext;
+import com.graphhopper.jsprit.core.problem.solution.route.activity.End;
+import com.graphhopper.jsprit.core.problem.solution.route.activity.Start;
+import com.graphhopper.jsprit.core.problem.solution.route.activity.TourActivity;
+import com.graphhopper.jsprit.core.problem.vehicle.Vehicle;
+
+/**
+ * Granular Neighbourhood Constraint: a stop can be inserted only next to one of its k nearest locations
+ * (candidate lists precomputed from the cost matrix) or next to the start/end of the route,
+ * so that insertion does not evaluate positions which are far from every good solution
+ * @author Francesco Raco
+ */
+public class GranularNeighbourhoodConstraint implements HardActivityConstraint
+{
+	/**
+	 * Candidate list (ids of the k nearest locations) of every location id
+	 */
+	private Map<String, Set<String>> candidates = new HashMap<String, Set<String>>();
+	
+	/**
+	 * Create constraint by VRP and size of the candidate lists
+	 * @param vrp Vehicle Routing Problem
+	 * @param k Size of the candidate lists
+	 */
+	public GranularNeighbourhoodConstraint(VehicleRoutingProblem vrp, int k)
+	{
+		//Every location of the problem: vehicles start and end locations and job locations
+		Map<String, Location> locations = new HashMap<String, Location>();
+		for (Vehicle v : vrp.getVehicles())
+		{
+			locations.put(v.getStartLocation().getId(), v.getStartLocation());
+			locations.put(v.getEndLocation().getId(), v.getEndLocation());
+		}
+		for (Job job : vrp.getJobs().values())
+		{
+			if (job instanceof Service) locations.put(((Service) job).getLocation().getId(), ((Service) job).getLocation());
+		}
+		
+		//Candidate list of every location: the k locations with lowest cost in either direction
+		VehicleRoutingTransportCosts costs = vrp.getTransportCosts();
+		for (Location from : locations.values())
+		{
+			List<Location> others = new ArrayList<Location>(locations.values());
+			others.remove(from);
+			others.sort((a, b) -> Double.compare(cost(costs, from, a), cost(costs, from, b)));
+			
+			Set<String> nearest = new HashSet<String>();
+			for (int i = 0; i < Math.min(k, others.size()); i++) nearest.add(others.get(i).getId());
+			candidates.put(from.getId(), nearest);
+		}
+	}
+	
+	/**
+	 * Get the lower of the 2 directed costs between 2 locations
+	 * @param costs Transport costs
+	 * @param a First location
+	 * @param b Second location
+	 * @return Lower directed cost
+	 */
+	private static double cost(VehicleRoutingTransportCosts costs, Location a, Location b)
+	{
+		return Math.min(costs.getTransportCost(a, b, 0, null, null), costs.getTransportCost(b, a, 0, null, null));
+	}
+	
+	/**
+	 * Get candidate list of a location
+	 * @param locationId Location id
+	 * @return Ids of the k nearest locations (empty if the location is unknown)
+	 */
+	public Set<String> getCandidates(String locationId)
+	{
+		Set<String> nearest = candidates.get(locationId);
+		return nearest != null ? nearest : new HashSet<String>();
+	}
+	
+	@Override
+	public ConstraintsStatus fulfilled(JobInsertionContext iFacts, TourActivity prevAct, TourActivity newAct, TourActivity nextAct, double prevActDepTime)
+	{
+		//Positions next to the route start and end are always allowed, so every stop can be inserted somewhere
+		if (prevAct instanceof Start || nextAct instanceof End) return ConstraintsStatus.FULFILLED;
+		
+		//Otherwise the new stop must be near to at least 1 of its neighbours
+		Set<String> nearest = getCandidates(newAct.getLocation().getId());
+		if (nearest.contains(prevAct.getLocation().getId()) || nearest.contains(nextAct.getLocation().getId())) return ConstraintsStatus.FULFILLED;
+		return ConstraintsStatus.NOT_FULFILLED;
+	}
+}
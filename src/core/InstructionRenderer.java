@@ -0,0 +1,172 @@
+package core;
+
+import java.text.Normalizer;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import com.graphhopper.PathWrapper;
+import com.graphhopper.util.Instruction;
+import com.graphhopper.util.InstructionList;
+import com.graphhopper.util.Translation;
+import com.graphhopper.util.TranslationMap;
+
+/**
+ * Instruction Renderer: String representation of a best path (estimated time and distance + instructions),
+ * folded to ASCII. Translations are loaded once and cached per locale, every thread reuses its own buffer
+ * and characters are folded through a table instead of a regex
+ * @author Francesco Raco
+ */
+public class InstructionRenderer
+{
+	/**
+	 * Translations loaded once from the classpath (lazy holder: loaded by the first rendering)
+	 */
+	private static class Translations
+	{
+		static final TranslationMap MAP = new TranslationMap().doImport();
+	}
+
+	/**
+	 * Translation for every locale used (with fallback to english)
+	 */
+	private static final Map<Locale, Translation> TRANSLATIONS = new ConcurrentHashMap<Locale, Translation>();
+
+	/**
+	 * ASCII folding of the non ASCII characters already met (null if not met yet), by character
+	 */
+	private static final String[] FOLDED_CHARS = new String[Character.MAX_VALUE + 1];
+
+	/**
+	 * Buffer reused by every rendering of the same thread
+	 */
+	private static final ThreadLocal<StringBuilder> BUFFER = ThreadLocal.withInitial(() -> new StringBuilder(1024));
+
+	/**
+	 * Get the Translation object for the specified locale (english if the locale was not found)
+	 * @param locale Locale
+	 * @return Translation object
+	 */
+	public static Translation getTranslation(Locale locale)
+	{
+		return TRANSLATIONS.computeIfAbsent(locale, l -> Translations.MAP.getWithFallBack(l));
+	}
+
+	/**
+	 * Get String representation of the best path
+	 * @param path Best path
+	 * @param locale Locale of the instructions
+	 * @return String representation of the best path (ASCII only: non ASCII characters are decomposed and their accents replaced by ')
+	 */
+	public static String render(PathWrapper path, Locale locale)
+	{
+		//Reuse the buffer of this thread
+		StringBuilder infoBuilder = BUFFER.get();
+		infoBuilder.setLength(0);
+
+		//Estimated time and distance
+		infoBuilder.append("Tempo stimato: ");
+		infoBuilder.append((path.getTime() / 1000) / 60).append("min").append(" e ").append(path.getTime() % 60).append("s \n");
+		infoBuilder.append("Distanza stimata: ").append(Math.round(path.getDistance() / 1000)).append("km").append(" e ").append(Math.round(path.getDistance() % 1000)).append("m \n\n");
+
+		//If there is at least 1 instruction, append the description of every instruction
+		//+ time in seconds and distance in meters
+		InstructionList il = path.getInstructions();
+		if (il != null)
+		{
+			Translation tr = getTranslation(locale);
+			for (Instruction instruction : il)
+			{
+				appendFolded(infoBuilder, instruction.getTurnDescription(tr));
+				infoBuilder.append(" per ").append(Math.round(instruction.getTime() / 1000)).append("s");
+				infoBuilder.append(" e ").append(Math.round(instruction.getDistance())).append("m\n");
+			}
+		}
+
+		//Remove spaces at start and end
+		int start = 0;
+		int end = infoBuilder.length();
+		while (start < end && infoBuilder.charAt(start) <= ' ') start++;
+		while (end > start && infoBuilder.charAt(end - 1) <= ' ') end--;
+		return infoBuilder.substring(start, end);
+	}
+
+	/**
+	 * Get the description of a single instruction
+	 * @param instruction Instruction
+	 * @param locale Locale of the instruction
+	 * @return Description of the instruction (ASCII only)
+	 */
+	public static String getTurnDescription(Instruction instruction, Locale locale)
+	{
+		return foldToAscii(instruction.getTurnDescription(getTranslation(locale)));
+	}
+
+	/**
+	 * Fold a text to ASCII: the same result as normalizing it (NFD) and replacing every non ASCII character with '
+	 * @param text Text
+	 * @return ASCII text
+	 */
+	public static String foldToAscii(CharSequence text)
+	{
+		return appendFolded(new StringBuilder(text.length() + 16), text).toString();
+	}
+
+	/**
+	 * Append a text folded to ASCII
+	 * @param sb String Builder
+	 * @param text Text
+	 * @return The String Builder
+	 */
+	protected static StringBuilder appendFolded(StringBuilder sb, CharSequence text)
+	{
+		for (int i = 0; i < text.length(); i++)
+		{
+			char c = text.charAt(i);
+
+			//ASCII characters are kept
+			if (c < 128) sb.append(c);
+
+			//Characters outside the BMP (surrogate pairs) are rare: decomposed every time
+			else if (Character.isHighSurrogate(c) && i + 1 < text.length() && Character.isLowSurrogate(text.charAt(i + 1)))
+			{
+				appendDecomposed(sb, text.subSequence(i, i + 2));
+				i++;
+			}
+			else sb.append(fold(c));
+		}
+		return sb;
+	}
+
+	/**
+	 * Fold a non ASCII character (calculated by the first occurrence, then read from the table)
+	 * @param c Character
+	 * @return ASCII folding of the character
+	 */
+	protected static String fold(char c)
+	{
+		String folded = FOLDED_CHARS[c];
+		if (folded == null)
+		{
+			folded = appendDecomposed(new StringBuilder(4), String.valueOf(c)).toString();
+			FOLDED_CHARS[c] = folded;
+		}
+		return folded;
+	}
+
+	/**
+	 * Decompose a character (NFD), then append its ASCII parts and ' for every non ASCII part
+	 * @param sb String Builder
+	 * @param character Character (1 char or a surrogate pair)
+	 * @return The String Builder
+	 */
+	protected static StringBuilder appendDecomposed(StringBuilder sb, CharSequence character)
+	{
+		String decomposed = Normalizer.normalize(character, Normalizer.Form.NFD);
+		for (int i = 0; i < decomposed.length(); i += Character.charCount(decomposed.codePointAt(i)))
+		{
+			char c = decomposed.charAt(i);
+			sb.append(c < 128 ? c : '\'');
+		}
+		return sb;
+	}
+}
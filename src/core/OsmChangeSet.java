@@ -0,0 +1,196 @@
+package core;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import com.graphhopper.reader.ReaderWay;
+import com.graphhopper.routing.util.EncodingManager;
+import com.graphhopper.storage.GraphHopperStorage;
+import com.graphhopper.storage.IntsRef;
+
+/**
+ * OpenStreetMap Change Set: content of an OpenStreetMap change file (.osc), read by a streaming parser.
+ * Only way tags can be applied to an existing graph: created ways and node changes alter its
+ * geometry, so they are only counted
+ * @author Francesco Raco
+ */
+public class OsmChangeSet
+{
+	/**
+	 * Tags of created or modified ways, by way id
+	 */
+	protected Map<Long, Map<String, String>> modifiedWays = new LinkedHashMap<Long, Map<String, String>>();
+
+	/**
+	 * Ids of deleted ways
+	 */
+	protected List<Long> deletedWays = new ArrayList<Long>();
+
+	/**
+	 * Number of created, modified or deleted nodes
+	 */
+	protected int changedNodes;
+
+	/**
+	 * Number of modified ways not in the graph the changes have been applied to
+	 */
+	protected int missingWays;
+
+	/**
+	 * Read an OpenStreetMap change file
+	 * @param oscFile Path of the OpenStreetMap change file
+	 * @return Change set
+	 * @throws IOException I/O Exception (also thrown for a malformed file)
+	 */
+	public static OsmChangeSet read(String oscFile) throws IOException
+	{
+		try (InputStream in = new FileInputStream(oscFile))
+		{
+			return read(in);
+		}
+	}
+
+	/**
+	 * Read an OpenStreetMap change stream
+	 * @param in Input stream of the OpenStreetMap changes
+	 * @return Change set
+	 * @throws IOException I/O Exception (also thrown for a malformed stream)
+	 */
+	public static OsmChangeSet read(InputStream in) throws IOException
+	{
+		OsmChangeSet changes = new OsmChangeSet();
+		try
+		{
+			XMLStreamReader reader = XMLInputFactory.newInstance().createXMLStreamReader(in);
+
+			//Current action (create, modify or delete) and tags of the current way (null outside ways)
+			String action = null;
+			long wayId = 0;
+			Map<String, String> tags = null;
+
+			while (reader.hasNext())
+			{
+				int event = reader.next();
+				if (event == XMLStreamConstants.START_ELEMENT)
+				{
+					switch(reader.getLocalName())
+					{
+						case "create": case "modify": case "delete": action = reader.getLocalName(); break;
+						case "node": changes.changedNodes++; break;
+						case "way":
+							wayId = Long.parseLong(reader.getAttributeValue(null, "id"));
+							tags = new HashMap<String, String>();
+							break;
+						case "tag":
+							if (tags != null) tags.put(reader.getAttributeValue(null, "k"), reader.getAttributeValue(null, "v"));
+							break;
+						default: break;
+					}
+				}
+				else if (event == XMLStreamConstants.END_ELEMENT && reader.getLocalName().equals("way"))
+				{
+					//A deleted way has no tags: its edges become impassable
+					if ("delete".equals(action)) changes.deletedWays.add(wayId);
+					else changes.modifiedWays.put(wayId, tags);
+					tags = null;
+				}
+			}
+			reader.close();
+		}
+		catch (XMLStreamException | NumberFormatException e)
+		{
+			throw new IOException("Malformed OpenStreetMap change file", e);
+		}
+		return changes;
+	}
+
+	/**
+	 * Apply the changes to a graph: the edges of modified ways get the flags calculated by the flag encoders
+	 * from their new tags (relations are not considered), those of deleted ways become impassable
+	 * for every vehicle type. The caller must prevent best path calculation on the graph meanwhile
+	 * @param graph Graph
+	 * @param encodingManager Encoding manager of the graph
+	 * @param index Edges created from every way of the graph
+	 * @return Number of edges updated
+	 */
+	public int applyTo(GraphHopperStorage graph, EncodingManager encodingManager, WayEdgeIndex index)
+	{
+		int updatedEdges = 0;
+		missingWays = 0;
+
+		//Modified ways
+		for (Map.Entry<Long, Map<String, String>> modifiedWay : modifiedWays.entrySet())
+		{
+			int[] edges = index.getEdges(modifiedWay.getKey());
+			if (edges.length == 0)
+			{
+				missingWays++;
+				continue;
+			}
+
+			ReaderWay way = new ReaderWay(modifiedWay.getKey());
+			for (Map.Entry<String, String> tag : modifiedWay.getValue().entrySet()) way.setTag(tag.getKey(), tag.getValue());
+			EncodingManager.AcceptWay acceptWay = new EncodingManager.AcceptWay();
+			IntsRef flags = encodingManager.acceptWay(way, acceptWay) ? encodingManager.handleWayTags(way, acceptWay, 0) : encodingManager.createEdgeFlags();
+
+			//Edges are stored in way direction, so flags are set on their stored direction
+			for (int edge : edges) graph.getEdgeIteratorState(edge, Integer.MIN_VALUE).setFlags(flags);
+			updatedEdges += edges.length;
+		}
+
+		//Deleted ways: no access for any vehicle type
+		IntsRef noAccess = encodingManager.createEdgeFlags();
+		for (long deletedWay : deletedWays)
+		{
+			int[] edges = index.getEdges(deletedWay);
+			for (int edge : edges) graph.getEdgeIteratorState(edge, Integer.MIN_VALUE).setFlags(noAccess);
+			updatedEdges += edges.length;
+		}
+		return updatedEdges;
+	}
+
+	/**
+	 * Get tags of created or modified ways
+	 * @return Tags of created or modified ways, by way id
+	 */
+	public Map<Long, Map<String, String>> getModifiedWays()
+	{
+		return modifiedWays;
+	}
+
+	/**
+	 * Get ids of deleted ways
+	 * @return Ids of deleted ways
+	 */
+	public List<Long> getDeletedWays()
+	{
+		return deletedWays;
+	}
+
+	/**
+	 * Get number of created, modified or deleted nodes
+	 * @return Number of changed nodes
+	 */
+	public int getChangedNodes()
+	{
+		return changedNodes;
+	}
+
+	/**
+	 * Get number of modified ways not in the graph the changes have been applied to (they need a new import)
+	 * @return Number of modified ways not in the graph
+	 */
+	public int getMissingWays()
+	{
+		return missingWays;
+	}
+}
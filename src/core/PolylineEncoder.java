@@ -0,0 +1,86 @@
+package core;
+
+import com.graphhopper.util.PointList;
+
+/**
+ * Polyline Encoder: encode the points of a path with the encoded polyline algorithm format
+ * (latitude and longitude deltas, rounded to the requested decimals and written as printable ASCII characters)
+ * @author Francesco Raco
+ */
+public class PolylineEncoder
+{
+	/**
+	 * Encode the points of a path
+	 * @param points Points of the path
+	 * @return Encoded polyline (empty if there are no points)
+	 */
+	public static String encode(PointList points)
+	{
+		return encode(points, GeometryDetail.FULL);
+	}
+
+	/**
+	 * Encode the points of a path simplified by the specified detail level
+	 * @param points Points of the path
+	 * @param detail Detail level (tolerance of the simplification and number of decimals)
+	 * @return Encoded polyline (empty if there are no points)
+	 */
+	public static String encode(PointList points, GeometryDetail detail)
+	{
+		if (points == null) return "";
+		
+		//Copy the coordinates, then keep only the points of the simplified line
+		int size = points.getSize();
+		double[] lats = new double[size];
+		double[] lons = new double[size];
+		for (int i = 0; i < size; i++)
+		{
+			lats[i] = points.getLat(i);
+			lons[i] = points.getLon(i);
+		}
+		return encode(lats, lons, detail.simplify(lats, lons, size), detail.getMultiplier());
+	}
+
+	/**
+	 * Encode some points of a path
+	 * @param lats Latitudes of the points
+	 * @param lons Longitudes of the points
+	 * @param indexes Indexes of the points to be encoded, ascending
+	 * @param multiplier Multiplier of the coordinates (1e5 for 5 decimals)
+	 * @return Encoded polyline (empty if there are no points)
+	 */
+	public static String encode(double[] lats, double[] lons, int[] indexes, double multiplier)
+	{
+		StringBuilder sb = new StringBuilder(indexes.length * 8);
+		
+		//Every point is written as the delta from the previous one
+		long prevLat = 0;
+		long prevLon = 0;
+		for (int i : indexes)
+		{
+			long lat = Math.round(lats[i] * multiplier);
+			long lon = Math.round(lons[i] * multiplier);
+			encodeValue(sb, lat - prevLat);
+			encodeValue(sb, lon - prevLon);
+			prevLat = lat;
+			prevLon = lon;
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Append a signed value: zig-zag encoded, then split into chunks of 5 bits (lowest first) offset by 63
+	 * @param sb String Builder
+	 * @param value Value
+	 */
+	protected static void encodeValue(StringBuilder sb, long value)
+	{
+		long v = value < 0 ? ~(value << 1) : value << 1;
+		while (v >= 0x20)
+		{
+			sb.append((char) ((0x20 | (v & 0x1f)) + 63));
+			v >>= 5;
+		}
+		sb.append((char) (v + 63));
+	}
+}
@@ -0,0 +1,82 @@
+package core;
+
+import com.graphhopper.jsprit.core.problem.solution.VehicleRoutingProblemSolution;
+
+/**
+ * Portfolio Solution: best solution found by a solver portfolio
+ * together with the configuration which found it
+ * @author Francesco Raco
+ */
+public class PortfolioSolution
+{
+	/**
+	 * Best solution found by the portfolio
+	 */
+	private VehicleRoutingProblemSolution solution;
+	
+	/**
+	 * Configuration which found the best solution
+	 */
+	private SolverConfiguration winner;
+	
+	/**
+	 * Number of configurations which returned a solution
+	 */
+	private int completedRuns;
+	
+	/**
+	 * Elapsed time in milliseconds
+	 */
+	private long elapsedTime;
+	
+	/**
+	 * Create object by solution, winning configuration, completed runs and elapsed time
+	 * @param solution Best solution found by the portfolio
+	 * @param winner Configuration which found the best solution
+	 * @param completedRuns Number of configurations which returned a solution
+	 * @param elapsedTime Elapsed time in milliseconds
+	 */
+	public PortfolioSolution(VehicleRoutingProblemSolution solution, SolverConfiguration winner, int completedRuns, long elapsedTime)
+	{
+		this.solution = solution;
+		this.winner = winner;
+		this.completedRuns = completedRuns;
+		this.elapsedTime = elapsedTime;
+	}
+	
+	/**
+	 * Get best solution found by the portfolio
+	 * @return Best solution found by the portfolio
+	 */
+	public VehicleRoutingProblemSolution getSolution()
+	{
+		return solution;
+	}
+	
+	/**
+	 * Get configuration which found the best solution
+	 * @return Configuration which found the best solution
+	 */
+	public SolverConfiguration getWinner()
+	{
+		return winner;
+	}
+	
+	/**
+	 * Get number of configurations which returned a solution
+	 * @return Number of configurations which returned a solution
+	 */
+	public int getCompletedRuns()
+	{
+		return completedRuns;
+	}
+	
+	/**
+	 * Get elapsed time in milliseconds
+	 * @return Elapsed time in milliseconds
+	 */
+	public long getElapsedTime()
+	{
+		return elapsedTime;
+	}
+}
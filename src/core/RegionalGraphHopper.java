@@ -0,0 +1,228 @@
+package core;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.xml.stream.XMLStreamException;
+import com.graphhopper.reader.DataReader;
+import com.graphhopper.reader.ReaderElement;
+import com.graphhopper.reader.ReaderNode;
+import com.graphhopper.reader.osm.GraphHopperOSM;
+import com.graphhopper.reader.osm.OSMInput;
+import com.graphhopper.reader.osm.OSMReader;
+import com.graphhopper.routing.util.FlagEncoder;
+import com.graphhopper.routing.util.HintsMap;
+import com.graphhopper.routing.weighting.Weighting;
+import com.graphhopper.storage.Graph;
+import com.graphhopper.storage.GraphHopperStorage;
+
+/**
+ * Regional GraphHopper: GraphHopper instance importing only the nodes of a larger
+ * OpenStreetMap extract which are inside a geographic region (or the whole extract),
+ * recording which graph edges are created from every way
+ * @author Francesco Raco
+ */
+public class RegionalGraphHopper extends GraphHopperOSM
+{
+	/**
+	 * Region to be imported (null for the whole extract)
+	 */
+	protected GeographicRegion region;
+
+	/**
+	 * Edges created from every way, stored into the graph directory (null until the graph is imported or loaded)
+	 */
+	protected WayEdgeIndex wayEdgeIndex;
+
+	/**
+	 * OpenStreetMap change files applied by an import before preparing contraction hierarchies and landmarks
+	 */
+	protected List<String> changesFiles = Collections.emptyList();
+
+	/**
+	 * Speed overlay correcting the weights of best path calculation (null for no correction)
+	 */
+	protected AtomicReference<SpeedOverlay> speedOverlay = new AtomicReference<SpeedOverlay>();
+
+	/**
+	 * Create GraphHopper instance by region to be imported
+	 * @param region Region to be imported (null for the whole extract)
+	 */
+	public RegionalGraphHopper(GeographicRegion region)
+	{
+		this.region = region;
+	}
+
+	/**
+	 * Create OpenStreetMap reader skipping nodes outside the region (ways lose their nodes outside it)
+	 * and recording the way of every edge
+	 */
+	@Override
+	protected DataReader createReader(GraphHopperStorage ghStorage)
+	{
+		wayEdgeIndex = WayEdgeIndex.create(ghStorage.getDirectory());
+		return initDataReader(new OSMReader(ghStorage)
+		{
+			@Override
+			protected OSMInput openOsmInputFile(File osmFile) throws XMLStreamException, IOException
+			{
+				OSMInput input = super.openOsmInputFile(osmFile);
+				return region == null ? input : new RegionalInput(input);
+			}
+
+			@Override
+			protected void storeOsmWayID(int edgeId, long osmWayId)
+			{
+				super.storeOsmWayID(edgeId, osmWayId);
+				wayEdgeIndex.add(edgeId, osmWayId);
+			}
+		});
+	}
+
+	/**
+	 * Import the graph, store the edges created from every way and apply the OpenStreetMap change files
+	 * (the graph is cleaned up and prepared afterwards, so prepared data include the changes)
+	 */
+	@Override
+	protected DataReader importData() throws IOException
+	{
+		DataReader reader = super.importData();
+		wayEdgeIndex.flush();
+		for (String changesFile : changesFiles) OsmChangeSet.read(changesFile).applyTo(getGraphHopperStorage(), getEncodingManager(), wayEdgeIndex);
+		return reader;
+	}
+
+	/**
+	 * Release the graph and the edges created from every way
+	 */
+	@Override
+	public synchronized void close()
+	{
+		if (wayEdgeIndex != null) wayEdgeIndex.close();
+		super.close();
+	}
+
+	/**
+	 * OpenStreetMap input dropping the nodes outside the region before they reach the reader:
+	 * the reader skips the nodes of a way it never read, as it does for nodes out of its bounds
+	 */
+	protected class RegionalInput implements OSMInput
+	{
+		/**
+		 * Input of the whole extract
+		 */
+		protected OSMInput input;
+
+		/**
+		 * Create regional input by input of the whole extract
+		 * @param input Input of the whole extract
+		 */
+		protected RegionalInput(OSMInput input)
+		{
+			this.input = input;
+		}
+
+		/**
+		 * Get next element of the extract, skipping nodes outside the region
+		 */
+		@Override
+		public ReaderElement getNext() throws XMLStreamException
+		{
+			ReaderElement element = input.getNext();
+			while (element != null && element.isType(ReaderElement.NODE) && !region.contains(((ReaderNode) element).getLat(), ((ReaderNode) element).getLon()))
+			{
+				element = input.getNext();
+			}
+			return element;
+		}
+
+		/**
+		 * Get number of elements read from the extract and not yet processed
+		 */
+		@Override
+		public int getUnprocessedElements()
+		{
+			return input.getUnprocessedElements();
+		}
+
+		/**
+		 * Close the input of the whole extract
+		 */
+		@Override
+		public void close() throws IOException
+		{
+			try
+			{
+				input.close();
+			}
+			catch (IOException | RuntimeException e)
+			{
+				throw e;
+			}
+			catch (Exception e)
+			{
+				throw new IOException(e);
+			}
+		}
+	}
+
+	/**
+	 * Create weighting of a request, corrected by the speed overlay (if any)
+	 */
+	@Override
+	public Weighting createWeighting(HintsMap hintsMap, FlagEncoder encoder, Graph graph)
+	{
+		Weighting weighting = super.createWeighting(hintsMap, encoder, graph);
+		SpeedOverlay overlay = speedOverlay.get();
+		return overlay == null ? weighting : new SpeedOverlayWeighting(weighting, overlay);
+	}
+
+	/**
+	 * Get speed overlay
+	 * @return Speed overlay (null for no correction)
+	 */
+	public SpeedOverlay getSpeedOverlay()
+	{
+		return speedOverlay.get();
+	}
+
+	/**
+	 * Swap the speed overlay in: requests created afterwards use it
+	 * @param overlay Speed overlay (null for no correction)
+	 */
+	public void setSpeedOverlay(SpeedOverlay overlay)
+	{
+		speedOverlay.set(overlay);
+	}
+
+	/**
+	 * Get region imported by this instance
+	 * @return Region imported by this instance (null for the whole extract)
+	 */
+	public GeographicRegion getRegion()
+	{
+		return region;
+	}
+
+	/**
+	 * Set OpenStreetMap change files applied by an import before preparing contraction hierarchies and landmarks
+	 * (a loaded graph already includes them)
+	 * @param changesFiles Paths of the OpenStreetMap change files, in the order they must be applied
+	 */
+	public void setChangesFiles(List<String> changesFiles)
+	{
+		this.changesFiles = changesFiles;
+	}
+
+	/**
+	 * Get edges created from every way (loaded from the graph directory the first time, if the graph has not been imported)
+	 * @return Edges created from every way (null if the graph is not loaded or has been imported without index)
+	 */
+	public synchronized WayEdgeIndex getWayEdgeIndex()
+	{
+		if (wayEdgeIndex == null && getGraphHopperStorage() != null) wayEdgeIndex = WayEdgeIndex.load(getGraphHopperStorage().getDirectory());
+		return wayEdgeIndex;
+	}
+}
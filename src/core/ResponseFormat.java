@@ -0,0 +1,23 @@
+package core;
+
+/**
+ * Choose how best paths and TSP solutions are sent to the client
+ * @author Francesco Raco
+ */
+public enum ResponseFormat
+{
+	/**
+	 * Free-form text (estimated time and distance followed by the instructions)
+	 */
+	TEXT,
+	
+	/**
+	 * JSON object: ordered stops, distance and time of every leg, compact instructions and encoded polylines
+	 */
+	JSON,
+	
+	/**
+	 * GeoJSON feature collection: a Point feature for every stop and a LineString feature for every leg
+	 */
+	GEOJSON;
+}
@@ -0,0 +1,30 @@
+package core;
+
+/**
+ * Choose which speed-up data GraphHopper prepares (for both FASTEST and SHORTEST criteria)
+ * and stores together with the graph
+ * @author Francesco Raco
+ */
+public enum RoutingPreparation
+{
+	/**
+	 * No preparation: every best path is a flexible bidirectional search on the whole graph
+	 */
+	NONE,
+	
+	/**
+	 * Contraction hierarchies: fastest queries, longest preparation
+	 */
+	CH,
+	
+	/**
+	 * Landmarks (A* with landmarks): faster than flexible search, shorter preparation than CH
+	 */
+	LM,
+	
+	/**
+	 * Contraction hierarchies used by default, landmarks used when CH is not available
+	 * (e.g. while a speed overlay slowing edges down is applied)
+	 */
+	CH_AND_LM;
+}
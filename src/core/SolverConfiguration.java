@@ -0,0 +1,141 @@
+package core;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import com.graphhopper.jsprit.core.algorithm.VehicleRoutingAlgorithm;
+import com.graphhopper.jsprit.core.algorithm.box.Jsprit;
+import com.graphhopper.jsprit.core.problem.VehicleRoutingProblem;
+
+/**
+ * Solver Configuration: named recipe for building a Jsprit algorithm
+ * (default or TSP tuned strategies, random seed, strategy weights and max iterations)
+ * @author Francesco Raco
+ */
+public class SolverConfiguration
+{
+	/**
+	 * Name of the configuration
+	 */
+	protected String name;
+	
+	/**
+	 * Seed of the random number generator used by the algorithm
+	 */
+	protected long seed;
+	
+	/**
+	 * Max iterations of the Jsprit algorithm
+	 */
+	protected int maxIterations;
+	
+	/**
+	 * True if the algorithm starts from the TSP tuned strategies of TspAlgorithmFactory
+	 */
+	protected boolean tuned;
+	
+	/**
+	 * Weights of the Jsprit search strategies (strategies not specified keep the Jsprit default weight)
+	 */
+	protected Map<Jsprit.Strategy, String> strategyWeights = new TreeMap<Jsprit.Strategy, String>();
+	
+	/**
+	 * Create configuration by name, random seed and max iterations
+	 * @param name Name of the configuration
+	 * @param seed Seed of the random number generator used by the algorithm
+	 * @param maxIterations Max iterations of the Jsprit algorithm
+	 */
+	public SolverConfiguration(String name, long seed, int maxIterations)
+	{
+		this(name, seed, maxIterations, false);
+	}
+	
+	/**
+	 * Create configuration by name, random seed, max iterations and strategies set
+	 * @param name Name of the configuration
+	 * @param seed Seed of the random number generator used by the algorithm
+	 * @param maxIterations Max iterations of the Jsprit algorithm
+	 * @param tuned True to start from the TSP tuned strategies of TspAlgorithmFactory, false for Jsprit defaults
+	 */
+	public SolverConfiguration(String name, long seed, int maxIterations, boolean tuned)
+	{
+		this.name = name;
+		this.seed = seed;
+		this.maxIterations = maxIterations;
+		this.tuned = tuned;
+	}
+	
+	/**
+	 * Get name of the configuration
+	 * @return Name of the configuration
+	 */
+	public String getName()
+	{
+		return name;
+	}
+	
+	/**
+	 * Get seed of the random number generator
+	 * @return Seed of the random number generator
+	 */
+	public long getSeed()
+	{
+		return seed;
+	}
+	
+	/**
+	 * Get max iterations of the Jsprit algorithm
+	 * @return Max iterations of the Jsprit algorithm
+	 */
+	public int getMaxIterations()
+	{
+		return maxIterations;
+	}
+	
+	/**
+	 * Check if the algorithm starts from the TSP tuned strategies
+	 * @return True if the algorithm starts from the TSP tuned strategies
+	 */
+	public boolean isTuned()
+	{
+		return tuned;
+	}
+	
+	/**
+	 * Set the weight of a Jsprit search strategy
+	 * @param strategy Jsprit search strategy
+	 * @param weight Weight of the strategy (0 disables it)
+	 * @return This configuration
+	 */
+	public SolverConfiguration setStrategyWeight(Jsprit.Strategy strategy, double weight)
+	{
+		strategyWeights.put(strategy, String.valueOf(weight));
+		return this;
+	}
+	
+	/**
+	 * Create the Jsprit algorithm described by this configuration
+	 * @param vrp Vehicle Routing Problem to be solved
+	 * @return Jsprit algorithm
+	 */
+	public VehicleRoutingAlgorithm createAlgorithm(VehicleRoutingProblem vrp)
+	{
+		//Every configuration owns its random number generator, so that concurrent runs do not share it
+		Jsprit.Builder builder = tuned ? TspAlgorithmFactory.createBuilder(vrp) : Jsprit.Builder.newInstance(vrp);
+		builder.setRandom(new Random(seed));
+		
+		//Override the weights of the chosen search strategies
+		for (Map.Entry<Jsprit.Strategy, String> weight : strategyWeights.entrySet()) builder.setProperty(weight.getKey(), weight.getValue());
+		
+		//Build the algorithm and set its max iterations
+		VehicleRoutingAlgorithm vra = builder.buildAlgorithm();
+		vra.setMaxIterations(maxIterations);
+		return vra;
+	}
+	
+	@Override
+	public String toString()
+	{
+		return name;
+	}
+}
@@ -0,0 +1,225 @@
+package core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.apache.log4j.Logger;
+import com.graphhopper.jsprit.core.algorithm.VehicleRoutingAlgorithm;
+import com.graphhopper.jsprit.core.problem.VehicleRoutingProblem;
+import com.graphhopper.jsprit.core.problem.solution.VehicleRoutingProblemSolution;
+import com.graphhopper.jsprit.core.util.Solutions;
+
+/**
+ * Solver Portfolio: run several Jsprit configurations concurrently on the same
+ * Vehicle Routing Problem, stop all of them at a shared deadline and keep the best solution
+ * @author Francesco Raco
+ */
+public class SolverPortfolio
+{
+	/**
+	 * Logger for configuring which message types are written
+	 */
+	public static final Logger log = Logger.getLogger("SolverPortfolio");
+	
+	/**
+	 * Extra time (milliseconds) granted after the deadline for the current iterations to end
+	 */
+	public static final long GRACE_TIME = 200;
+	
+	/**
+	 * Configurations raced by the portfolio
+	 */
+	private List<SolverConfiguration> configurations = new ArrayList<SolverConfiguration>();
+	
+	/**
+	 * Time limit of every run in milliseconds
+	 */
+	private long timeLimit;
+	
+	/**
+	 * Executor running the configurations
+	 */
+	private ExecutorService executor;
+	
+	/**
+	 * Create portfolio by configurations, time limit and number of threads
+	 * @param configurations Configurations raced by the portfolio
+	 * @param timeLimit Time limit of every run in milliseconds
+	 * @param threads Number of threads running the configurations
+	 */
+	public SolverPortfolio(List<SolverConfiguration> configurations, long timeLimit, int threads)
+	{
+		this.configurations.addAll(configurations);
+		this.timeLimit = timeLimit;
+		
+		//Daemon threads do not prevent the server from shutting down
+		executor = Executors.newFixedThreadPool(Math.max(1, threads), r ->
+		{
+			Thread t = new Thread(r, "solver-portfolio");
+			t.setDaemon(true);
+			return t;
+		});
+	}
+	
+	/**
+	 * Create portfolio by configurations and time limit, using as many threads as available cores
+	 * (but no more than the configurations)
+	 * @param configurations Configurations raced by the portfolio
+	 * @param timeLimit Time limit of every run in milliseconds
+	 */
+	public SolverPortfolio(List<SolverConfiguration> configurations, long timeLimit)
+	{
+		this(configurations, timeLimit, Math.min(configurations.size(), Runtime.getRuntime().availableProcessors()));
+	}
+	
+	/**
+	 * Create default portfolio: TSP tuned strategies with different seeds, alternated with
+	 * default Jsprit strategies (a different search, useful when the tuned one gets stuck)
+	 * @param size Number of configurations
+	 * @param timeLimit Time limit of every run in milliseconds
+	 * @return Default portfolio
+	 */
+	public static SolverPortfolio createDefault(int size, long timeLimit)
+	{
+		List<SolverConfiguration> configurations = new ArrayList<SolverConfiguration>();
+		for (int i = 0; i < size; i++)
+		{
+			if (i % 2 == 0) configurations.add(new SolverConfiguration("tsp-tuned-" + i, i, TspAlgorithmFactory.ITERATIONS, true));
+			else configurations.add(new SolverConfiguration("default-" + i, i, 2000));
+		}
+		return new SolverPortfolio(configurations, timeLimit);
+	}
+	
+	/**
+	 * Get configurations raced by the portfolio
+	 * @return Configurations raced by the portfolio
+	 */
+	public List<SolverConfiguration> getConfigurations()
+	{
+		return configurations;
+	}
+	
+	/**
+	 * Get time limit of every run in milliseconds
+	 * @return Time limit of every run in milliseconds
+	 */
+	public long getTimeLimit()
+	{
+		return timeLimit;
+	}
+	
+	/**
+	 * Run every configuration on the specified problem until max iterations or the shared deadline
+	 * and return the best solution found
+	 * @param vrp Vehicle Routing Problem to be solved
+	 * @return Best solution found, with the configuration which found it
+	 */
+	public PortfolioSolution solve(VehicleRoutingProblem vrp)
+	{
+		return solve(vrp, null);
+	}
+	
+	/**
+	 * Run every configuration on the specified problem until max iterations, the shared deadline
+	 * or the cancellation of the request, and return the best solution found
+	 * @param vrp Vehicle Routing Problem to be solved
+	 * @param cancellation Cancellation token of the request (null if the runs cannot be cancelled)
+	 * @return Best solution found, with the configuration which found it
+	 */
+	public PortfolioSolution solve(VehicleRoutingProblem vrp, CancellationToken cancellation)
+	{
+		return solve(vrp, cancellation, null);
+	}
+	
+	/**
+	 * Run every configuration on the specified problem until max iterations, the shared deadline
+	 * or the cancellation of the request, reporting the improved tours of all the runs while searching,
+	 * and return the best solution found
+	 * @param vrp Vehicle Routing Problem to be solved
+	 * @param cancellation Cancellation token of the request (null if the runs cannot be cancelled)
+	 * @param progress Reporter shared by every run (null if improved tours are not requested)
+	 * @return Best solution found, with the configuration which found it
+	 */
+	public PortfolioSolution solve(VehicleRoutingProblem vrp, CancellationToken cancellation, TspProgressReporter progress)
+	{
+		//Start time and deadline shared by every run
+		long start = System.currentTimeMillis();
+		DeadlineTermination deadline = DeadlineTermination.fromNow(timeLimit);
+		
+		//Submit one run per configuration, remembering which future belongs to which configuration
+		CompletionService<VehicleRoutingProblemSolution> runs = new ExecutorCompletionService<VehicleRoutingProblemSolution>(executor);
+		List<Future<VehicleRoutingProblemSolution>> futures = new ArrayList<Future<VehicleRoutingProblemSolution>>();
+		for (SolverConfiguration configuration : configurations)
+		{
+			futures.add(runs.submit(() ->
+			{
+				VehicleRoutingAlgorithm vra = configuration.createAlgorithm(vrp);
+				vra.addTerminationCriterion(deadline);
+				if (cancellation != null) vra.addTerminationCriterion(cancellation);
+				if (progress != null) vra.addListener(progress);
+				return Solutions.bestOf(vra.searchSolutions());
+			}));
+		}
+		
+		//Best solution so far and configuration which found it
+		VehicleRoutingProblemSolution best = null;
+		SolverConfiguration winner = null;
+		int completedRuns = 0;
+		
+		try
+		{
+			//Collect runs as they end; after deadline + grace time stop waiting,
+			//unless no run has returned a solution yet
+			for (int i = 0; i < futures.size(); i++)
+			{
+				long wait = deadline.getRemainingTime() + GRACE_TIME;
+				Future<VehicleRoutingProblemSolution> done = best == null ? runs.take() : runs.poll(wait, TimeUnit.MILLISECONDS);
+				if (done == null) break;
+				
+				try
+				{
+					VehicleRoutingProblemSolution solution = done.get();
+					completedRuns++;
+					if (solution != null && (best == null || solution.getCost() < best.getCost()))
+					{
+						best = solution;
+						winner = configurations.get(futures.indexOf(done));
+					}
+				}
+				catch (ExecutionException e)
+				{
+					log.warn("Configurazione del portfolio fallita", e.getCause());
+				}
+			}
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		finally
+		{
+			//Late runs are useless now: stop them
+			for (Future<VehicleRoutingProblemSolution> future : futures) future.cancel(true);
+		}
+		
+		//Log which configuration won
+		long elapsedTime = System.currentTimeMillis() - start;
+		log.debug("Portfolio: vince " + winner + " con costo " + (best == null ? "-" : Math.round(best.getCost())) + " (" + completedRuns + "/" + configurations.size() + " esecuzioni, " + elapsedTime + "ms)");
+		
+		return new PortfolioSolution(best, winner, completedRuns, elapsedTime);
+	}
+	
+	/**
+	 * Stop the threads of the portfolio
+	 */
+	public void shutdown()
+	{
+		executor.shutdownNow();
+	}
+}
@@ -0,0 +1,147 @@
+package core;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Speed Overlay: speed factors of single graph edges (e.g. congested corridors), read from a file
+ * with one correction per line, "edge;id;factor" or "way;OpenStreetMap way id;factor" ('#' starts a comment).
+ * A factor below 1 slows the edge down, above 1 speeds it up. Immutable, so it is swapped in atomically
+ * @author Francesco Raco
+ */
+public class SpeedOverlay
+{
+	/**
+	 * Sorted ids of the corrected edges
+	 */
+	protected int[] edges;
+
+	/**
+	 * Speed factors of the corrected edges (same order as edges)
+	 */
+	protected double[] factors;
+
+	/**
+	 * Max speed factor (used to keep the A* heuristics admissible)
+	 */
+	protected double maxFactor = 1;
+
+	/**
+	 * Name of the overlay (part of the graph version, so tours calculated with another overlay are never reused)
+	 */
+	protected String name;
+
+	/**
+	 * Create overlay by name and speed factors
+	 * @param name Name of the overlay
+	 * @param edgeFactors Speed factors by edge id
+	 */
+	public SpeedOverlay(String name, TreeMap<Integer, Double> edgeFactors)
+	{
+		this.name = name;
+		edges = new int[edgeFactors.size()];
+		factors = new double[edgeFactors.size()];
+		int i = 0;
+		for (Map.Entry<Integer, Double> edgeFactor : edgeFactors.entrySet())
+		{
+			edges[i] = edgeFactor.getKey();
+			factors[i++] = edgeFactor.getValue();
+			maxFactor = Math.max(maxFactor, edgeFactor.getValue());
+		}
+	}
+
+	/**
+	 * Read overlay file
+	 * @param overlayFile Path of the overlay file
+	 * @param index Edges of every OpenStreetMap way (null if the file contains edge ids only)
+	 * @return Speed overlay
+	 * @throws IOException I/O Exception (also thrown for a malformed line or an unknown way)
+	 */
+	public static SpeedOverlay read(String overlayFile, WayEdgeIndex index) throws IOException
+	{
+		TreeMap<Integer, Double> edgeFactors = new TreeMap<Integer, Double>();
+		try (BufferedReader br = new BufferedReader(new FileReader(overlayFile)))
+		{
+			String line;
+			int lineNumber = 0;
+			while ((line = br.readLine()) != null)
+			{
+				lineNumber++;
+
+				//Skip comments and empty lines
+				int comment = line.indexOf('#');
+				if (comment >= 0) line = line.substring(0, comment);
+				line = line.trim();
+				if (line.isEmpty()) continue;
+
+				//Parse "edge;id;factor" or "way;id;factor"
+				String[] fields = line.split(";");
+				try
+				{
+					if (fields.length != 3) throw new NumberFormatException();
+					double factor = Double.parseDouble(fields[2].trim());
+					if (!(factor > 0) || Double.isInfinite(factor)) throw new NumberFormatException();
+
+					switch(fields[0].trim())
+					{
+						case "edge": edgeFactors.put(Integer.parseInt(fields[1].trim()), factor); break;
+						case "way":
+							if (index == null) throw new IOException("Line " + lineNumber + ": graph imported without way edge index");
+							for (int edge : index.getEdges(Long.parseLong(fields[1].trim()))) edgeFactors.put(edge, factor);
+							break;
+						default: throw new NumberFormatException();
+					}
+				}
+				catch (NumberFormatException e)
+				{
+					throw new IOException("Line " + lineNumber + ": malformed speed correction \"" + line + "\"");
+				}
+			}
+		}
+		File file = new File(overlayFile);
+		return new SpeedOverlay(file.getName() + "@" + file.lastModified(), edgeFactors);
+	}
+
+	/**
+	 * Get speed factor of an edge
+	 * @param edge Edge id
+	 * @return Speed factor (1 if the edge is not corrected)
+	 */
+	public double getFactor(int edge)
+	{
+		int i = Arrays.binarySearch(edges, edge);
+		return i < 0 ? 1 : factors[i];
+	}
+
+	/**
+	 * Get max speed factor
+	 * @return Max speed factor (1 if no edge is sped up)
+	 */
+	public double getMaxFactor()
+	{
+		return maxFactor;
+	}
+
+	/**
+	 * Get number of corrected edges
+	 * @return Number of corrected edges
+	 */
+	public int size()
+	{
+		return edges.length;
+	}
+
+	/**
+	 * Get name of the overlay
+	 * @return Name of the overlay
+	 */
+	public String getName()
+	{
+		return name;
+	}
+}
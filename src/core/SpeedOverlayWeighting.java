@@ -0,0 +1,86 @@
+package core;
+
+import com.graphhopper.routing.VirtualEdgeIteratorState;
+import com.graphhopper.routing.weighting.AbstractAdjustedWeighting;
+import com.graphhopper.routing.weighting.Weighting;
+import com.graphhopper.util.EdgeIteratorState;
+import com.graphhopper.util.GHUtility;
+
+/**
+ * Speed Overlay Weighting: weighting correcting travel times (and fastest weights) of the edges of a speed overlay
+ * @author Francesco Raco
+ */
+public class SpeedOverlayWeighting extends AbstractAdjustedWeighting
+{
+	/**
+	 * Speed overlay
+	 */
+	protected SpeedOverlay overlay;
+
+	/**
+	 * True if weights depend on travel time (fastest), false if they are distances (shortest)
+	 */
+	protected boolean timeDependent;
+
+	/**
+	 * Create weighting by corrected weighting and speed overlay
+	 * @param superWeighting Weighting to be corrected
+	 * @param overlay Speed overlay
+	 */
+	public SpeedOverlayWeighting(Weighting superWeighting, SpeedOverlay overlay)
+	{
+		super(superWeighting);
+		this.overlay = overlay;
+		timeDependent = !superWeighting.getName().equals("shortest");
+	}
+
+	/**
+	 * Get speed factor of an edge (virtual edges created at start and end points take the factor of their original edge)
+	 * @param edgeState Edge
+	 * @return Speed factor
+	 */
+	protected double getFactor(EdgeIteratorState edgeState)
+	{
+		int edge = edgeState instanceof VirtualEdgeIteratorState ? GHUtility.getEdgeFromEdgeKey(((VirtualEdgeIteratorState) edgeState).getOriginalEdgeKey()) : edgeState.getEdge();
+		return overlay.getFactor(edge);
+	}
+
+	/**
+	 * Calculate weight of an edge (fastest weights are divided by the speed factor)
+	 */
+	@Override
+	public double calcWeight(EdgeIteratorState edgeState, boolean reverse, int prevOrNextEdgeId)
+	{
+		double weight = superWeighting.calcWeight(edgeState, reverse, prevOrNextEdgeId);
+		return timeDependent ? weight / getFactor(edgeState) : weight;
+	}
+
+	/**
+	 * Calculate travel time of an edge divided by the speed factor
+	 */
+	@Override
+	public long calcMillis(EdgeIteratorState edgeState, boolean reverse, int prevOrNextEdgeId)
+	{
+		return Math.round(superWeighting.calcMillis(edgeState, reverse, prevOrNextEdgeId) / getFactor(edgeState));
+	}
+
+	/**
+	 * Get min weight of a distance, lowered by the max speed factor
+	 */
+	@Override
+	public double getMinWeight(double distance)
+	{
+		//Sped up edges lower the min weight, otherwise the A* heuristic would overestimate
+		double minWeight = superWeighting.getMinWeight(distance);
+		return timeDependent ? minWeight / overlay.getMaxFactor() : minWeight;
+	}
+
+	/**
+	 * Get name of the corrected weighting (prepared landmarks are chosen by it)
+	 */
+	@Override
+	public String getName()
+	{
+		return superWeighting.getName();
+	}
+}
@@ -0,0 +1,23 @@
+package core;
+
+/**
+ * Choose where GraphHopper keeps the graph data
+ * @author Francesco Raco
+ */
+public enum StorageMode
+{
+	/**
+	 * Graph loaded onto the heap (the heap size has to grow with the graph)
+	 */
+	RAM,
+	
+	/**
+	 * Graph files memory-mapped: data stays in the OS page cache, shared by all the JVMs reading the same files
+	 */
+	MMAP,
+	
+	/**
+	 * Graph files memory-mapped read-only: the graph must already be imported; safe for several JVMs serving the same files
+	 */
+	MMAP_READ_ONLY;
+}
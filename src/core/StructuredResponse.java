@@ -0,0 +1,227 @@
+package core;
+
+import java.util.List;
+import java.util.Locale;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import com.graphhopper.PathWrapper;
+import com.graphhopper.jsprit.core.problem.Location;
+import com.graphhopper.util.Instruction;
+import com.graphhopper.util.InstructionList;
+import com.graphhopper.util.PointList;
+
+/**
+ * Structured Response: JSON or GeoJSON representation of a best path or of a TSP tour, parsed by the clients
+ * without regexes. Distances are in meters, times in milliseconds, coordinates in degrees
+ * @author Francesco Raco
+ */
+@SuppressWarnings("unchecked")
+public class StructuredResponse
+{
+	/**
+	 * Get the representation of a best path between 2 locations
+	 * @param format Response format (JSON or GEOJSON)
+	 * @param from Start location
+	 * @param to End location
+	 * @param path Best path
+	 * @param locale Locale of the instructions
+	 * @param detail Detail level of the geometry
+	 * @return JSON text
+	 */
+	public static String bestPath(ResponseFormat format, Location from, Location to, PathWrapper path, Locale locale, GeometryDetail detail)
+	{
+		JSONObject leg = createLeg(format, from, to, path, locale, detail);
+		if (format == ResponseFormat.GEOJSON) return createFeatureCollection(List.of(from, to), List.of(leg), detail).toJSONString();
+		return leg.toJSONString();
+	}
+
+	/**
+	 * Get the representation of a TSP tour
+	 * @param format Response format (JSON or GEOJSON)
+	 * @param tour TSP tour
+	 * @param stops Locations of the ordered stops, from start to end point
+	 * @param legs Best path between every stop and the next one
+	 * @param locale Locale of the instructions
+	 * @param detail Detail level of the geometry
+	 * @return JSON text
+	 */
+	public static String tour(ResponseFormat format, TspTour tour, List<Location> stops, List<PathWrapper> legs, Locale locale, GeometryDetail detail)
+	{
+		//Every leg links a stop to the next one
+		JSONArray legArray = new JSONArray();
+		long time = 0;
+		for (int i = 0; i < legs.size(); i++)
+		{
+			legArray.add(createLeg(format, stops.get(i), stops.get(i + 1), legs.get(i), locale, detail));
+			time += legs.get(i).getTime();
+		}
+		if (format == ResponseFormat.GEOJSON) return createFeatureCollection(stops, legArray, detail).toJSONString();
+
+		//Ordered stops followed by the legs
+		JSONArray stopArray = new JSONArray();
+		for (Location stop : stops) stopArray.add(createStop(stop, detail));
+		JSONObject json = new JSONObject();
+		json.put("distance", Math.round(tour.getDistance()));
+		json.put("time", time);
+		json.put("stops", stopArray);
+		json.put("legs", legArray);
+		return json.toJSONString();
+	}
+
+	/**
+	 * Get the representation of a tour improved while the TSP search is still running
+	 * @param iteration Iteration of the search which found the tour
+	 * @param tour Improved tour
+	 * @return JSON text (iteration, distance cost and ordered stop names)
+	 */
+	public static String progress(int iteration, TspTour tour)
+	{
+		JSONArray stopArray = new JSONArray();
+		stopArray.addAll(tour.getOrderedStops());
+		JSONObject json = new JSONObject();
+		json.put("iteration", iteration);
+		json.put("distance", Math.round(tour.getDistance()));
+		json.put("stops", stopArray);
+		return json.toJSONString();
+	}
+
+	/**
+	 * Create the representation of a leg: JSON object for JSON format, LineString feature for GEOJSON format
+	 * @param format Response format
+	 * @param from Start location
+	 * @param to End location
+	 * @param path Best path
+	 * @param locale Locale of the instructions
+	 * @param detail Detail level of the geometry
+	 * @return Leg
+	 */
+	protected static JSONObject createLeg(ResponseFormat format, Location from, Location to, PathWrapper path, Locale locale, GeometryDetail detail)
+	{
+		JSONObject properties = new JSONObject();
+		properties.put("from", from.getId());
+		properties.put("to", to.getId());
+		properties.put("distance", Math.round(path.getDistance()));
+		properties.put("time", path.getTime());
+		properties.put("instructions", createInstructions(path.getInstructions(), locale));
+		if (format != ResponseFormat.GEOJSON)
+		{
+			properties.put("points", PolylineEncoder.encode(path.getPoints(), detail));
+			return properties;
+		}
+
+		//GeoJSON geometries list their coordinates as [longitude, latitude]: only the points of the simplified line
+		JSONArray coordinates = new JSONArray();
+		PointList points = path.getPoints();
+		if (points != null)
+		{
+			int size = points.getSize();
+			double[] lats = new double[size];
+			double[] lons = new double[size];
+			for (int i = 0; i < size; i++)
+			{
+				lats[i] = points.getLat(i);
+				lons[i] = points.getLon(i);
+			}
+			for (int i : detail.simplify(lats, lons, size)) coordinates.add(createPosition(lats[i], lons[i], detail));
+		}
+		return createFeature("LineString", coordinates, properties);
+	}
+
+	/**
+	 * Create the compact representation of the instructions: sign (turn type), description, distance and time
+	 * @param il Instructions (null if not calculated)
+	 * @param locale Locale of the instructions
+	 * @return Array of the instructions
+	 */
+	protected static JSONArray createInstructions(InstructionList il, Locale locale)
+	{
+		JSONArray instructions = new JSONArray();
+		if (il == null) return instructions;
+		for (Instruction instruction : il)
+		{
+			JSONObject json = new JSONObject();
+			json.put("sign", instruction.getSign());
+			json.put("text", InstructionRenderer.getTurnDescription(instruction, locale));
+			json.put("distance", Math.round(instruction.getDistance()));
+			json.put("time", instruction.getTime());
+			instructions.add(json);
+		}
+		return instructions;
+	}
+
+	/**
+	 * Create the representation of a stop
+	 * @param stop Location of the stop
+	 * @param detail Detail level (number of decimals of the coordinates)
+	 * @return Stop (name and coordinates)
+	 */
+	protected static JSONObject createStop(Location stop, GeometryDetail detail)
+	{
+		JSONObject json = new JSONObject();
+		json.put("name", stop.getId());
+		json.put("lat", detail.round(stop.getCoordinate().getX()));
+		json.put("lon", detail.round(stop.getCoordinate().getY()));
+		return json;
+	}
+
+	/**
+	 * Create a GeoJSON feature collection: a Point feature for every stop followed by the legs
+	 * @param stops Locations of the ordered stops
+	 * @param legs LineString features of the legs
+	 * @param detail Detail level (number of decimals of the coordinates)
+	 * @return Feature collection
+	 */
+	protected static JSONObject createFeatureCollection(List<Location> stops, List<JSONObject> legs, GeometryDetail detail)
+	{
+		JSONArray features = new JSONArray();
+		for (int i = 0; i < stops.size(); i++)
+		{
+			Location stop = stops.get(i);
+			JSONObject properties = new JSONObject();
+			properties.put("name", stop.getId());
+			properties.put("index", i);
+			features.add(createFeature("Point", createPosition(stop.getCoordinate().getX(), stop.getCoordinate().getY(), detail), properties));
+		}
+		features.addAll(legs);
+
+		JSONObject collection = new JSONObject();
+		collection.put("type", "FeatureCollection");
+		collection.put("features", features);
+		return collection;
+	}
+
+	/**
+	 * Create a GeoJSON feature
+	 * @param type Geometry type
+	 * @param coordinates Coordinates of the geometry
+	 * @param properties Properties of the feature
+	 * @return Feature
+	 */
+	protected static JSONObject createFeature(String type, JSONArray coordinates, JSONObject properties)
+	{
+		JSONObject geometry = new JSONObject();
+		geometry.put("type", type);
+		geometry.put("coordinates", coordinates);
+
+		JSONObject feature = new JSONObject();
+		feature.put("type", "Feature");
+		feature.put("geometry", geometry);
+		feature.put("properties", properties);
+		return feature;
+	}
+
+	/**
+	 * Create a GeoJSON position
+	 * @param lat Latitude
+	 * @param lon Longitude
+	 * @param detail Detail level (number of decimals of the coordinates)
+	 * @return Position [longitude, latitude]
+	 */
+	protected static JSONArray createPosition(double lat, double lon, GeometryDetail detail)
+	{
+		JSONArray position = new JSONArray();
+		position.add(detail.round(lon));
+		position.add(detail.round(lat));
+		return position;
+	}
+}
@@ -1,5 +1,6 @@
 package core;
 
+import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.List;
 import com.graphhopper.jsprit.core.problem.solution.VehicleRoutingProblemSolution;
@@ -43,6 +44,11 @@ public class TSPSolutionWrapper
 			//Add all Tour Activity to solutionActivities list			
 			solutionActivities.addAll(v.getActivities());
 			
+			//The end point is the vehicle end location (not a job): add the route end too,
+			//unless the last activity is already at the end point
+			String endId = v.getEnd().getLocation().getId();
+			if (solutionActivities.isEmpty() || !solutionActivities.get(solutionActivities.size() - 1).getLocation().getId().equals(endId)) solutionActivities.add(v.getEnd());
+			
 			//If (sbSolution --> null) then jump to next VehicleRoute
 			if (sbSolution == null) continue;
 			
@@ -53,25 +59,9 @@ public class TSPSolutionWrapper
 			//Add all other locations id to the locations list
 			for (TourActivity ta : solutionActivities) locations.add(ta.getLocation().getId());
 			
-			//Number of locations
-			final int SIZE = locations.size();
-			
 			//Add every location id to the String Builder containing a String representation
 			//of the TSP solution
-			for (int i = 0; i < SIZE; i++)
-			{
-				String thisPoint = locations.get(i);
-				sbSolution.append(thisPoint);
-					
-				//Until second last location, append to sbSolution the String representation
-				//of the best path between it and the next location
-				if (i < SIZE - 1)
-				{
-					sbSolution.append(":\n\n");
-					String endPoint = locations.get(i + 1);
-					sbSolution.append(cmw.getPathInstructions(thisPoint, endPoint)).append("\n\n");
-				}
-			}
+			appendTour(locations, cmw, sbSolution);
 		}
 		//Assign sbSolution to the private corresponding field
 		this.sbSolution = sbSolution;
@@ -88,6 +78,69 @@ public class TSPSolutionWrapper
 		this(solution, startPoint, null, null);
 	}
 	
+	/**
+	 * Append to a String Builder the String representation of an ordered tour: every location id followed
+	 * by the instructions of the best path towards the next location
+	 * @param locations Ordered locations id, from start to end point
+	 * @param cmw Cost Matrix Wrapper containing the instructions of the best path between every couple of locations
+	 * @param sbSolution String Builder storing a String representation of the tour
+	 * @throws NoInstructionsFoundException No Instructions Found Exception
+	 */
+	public static void appendTour(List<String> locations, CostMatrixWrapper cmw, StringBuilder sbSolution) throws NoInstructionsFoundException
+	{
+		//Number of locations
+		final int SIZE = locations.size();
+		
+		for (int i = 0; i < SIZE; i++)
+		{
+			String thisPoint = locations.get(i);
+			sbSolution.append(thisPoint);
+				
+			//Until second last location, append to sbSolution the String representation
+			//of the best path between it and the next location
+			if (i < SIZE - 1)
+			{
+				sbSolution.append(":\n\n");
+				String endPoint = locations.get(i + 1);
+				sbSolution.append(cmw.getPathInstructions(thisPoint, endPoint)).append("\n\n");
+			}
+		}
+	}
+	
+	/**
+	 * Write an ordered tour (the same String representation as appendTour) leg by leg: every leg is flushed
+	 * as soon as it is written, so the client receives it without waiting for the whole tour
+	 * @param locations Ordered locations id, from start to end point
+	 * @param cmw Cost Matrix Wrapper containing the instructions of the best path between every couple of locations
+	 * @param out Writer of the tour
+	 * @return False if writing stopped because the writer failed (e.g. the client closed the connection)
+	 * @throws NoInstructionsFoundException No Instructions Found Exception
+	 */
+	public static boolean writeTour(List<String> locations, CostMatrixWrapper cmw, PrintWriter out) throws NoInstructionsFoundException
+	{
+		//Number of locations
+		final int SIZE = locations.size();
+		for (int i = 0; i < SIZE; i++)
+		{
+			String thisPoint = locations.get(i);
+			out.print(thisPoint);
+			
+			//Until second last location, write the String representation
+			//of the best path between it and the next location
+			if (i < SIZE - 1)
+			{
+				out.print(":\n\n");
+				out.print(cmw.getPathInstructions(thisPoint, locations.get(i + 1)));
+				out.print("\n\n");
+			}
+			
+			//Send the leg and stop if nobody is reading anymore
+			out.flush();
+			if (out.checkError()) return false;
+		}
+		return true;
+	}
+	
 	/**
 	 * Get the list of Tour Activity related to the TSP solution
 	 * @return List of Tour Activity related to the TSP solution
@@ -0,0 +1,179 @@
+package core;
+
+/**
+ * Tour Local Search: 2-opt and or-opt improvement of an open tour whose first and last
+ * stops are fixed (start and end point of the vehicle); costs may be asymmetric
+ * @author Francesco Raco
+ */
+public class TourLocalSearch
+{
+	/**
+	 * Max length of the segments moved by or-opt
+	 */
+	public static final int MAX_SEGMENT_LENGTH = 3;
+	
+	/**
+	 * Minimum improvement for a move to be applied (avoids endless loops caused by rounding)
+	 */
+	private static final double EPSILON = 1e-6;
+	
+	/**
+	 * Calculate the cost of an open tour
+	 * @param tour Tour (indexes of the cost matrix)
+	 * @param costs Cost matrix
+	 * @return Cost of the tour
+	 */
+	public static double cost(int[] tour, double[][] costs)
+	{
+		double cost = 0;
+		for (int i = 0; i < tour.length - 1; i++) cost += costs[tour[i]][tour[i + 1]];
+		return cost;
+	}
+	
+	/**
+	 * Improve the tour in place with 2-opt and or-opt moves until no move improves it
+	 * or the max number of rounds is reached
+	 * @param tour Tour (indexes of the cost matrix): first and last position are never moved
+	 * @param costs Cost matrix
+	 * @param maxRounds Max number of rounds (every round tries every move once)
+	 * @return Cost of the improved tour
+	 */
+	public static double improve(int[] tour, double[][] costs, int maxRounds)
+	{
+		for (int round = 0; round < maxRounds; round++)
+		{
+			//Stop as soon as a whole round does not find any improving move
+			boolean improved = twoOpt(tour, costs);
+			improved |= orOpt(tour, costs);
+			if (!improved) break;
+		}
+		return cost(tour, costs);
+	}
+	
+	/**
+	 * Apply every improving 2-opt move (reversal of tour[i..j]) found scanning the tour once
+	 * @param tour Tour (indexes of the cost matrix)
+	 * @param costs Cost matrix
+	 * @return True if at least 1 move has been applied
+	 */
+	static boolean twoOpt(int[] tour, double[][] costs)
+	{
+		boolean improved = false;
+		final int n = tour.length;
+		
+		for (int i = 1; i < n - 2; i++)
+		{
+			//Cost of the segment tour[i..j] walked forward and backward (asymmetric costs)
+			double forward = 0;
+			double backward = 0;
+			
+			for (int j = i + 1; j < n - 1; j++)
+			{
+				forward += costs[tour[j - 1]][tour[j]];
+				backward += costs[tour[j]][tour[j - 1]];
+				
+				double delta = costs[tour[i - 1]][tour[j]] + costs[tour[i]][tour[j + 1]] + backward
+						- costs[tour[i - 1]][tour[i]] - costs[tour[j]][tour[j + 1]] - forward;
+				
+				if (delta < -EPSILON)
+				{
+					reverse(tour, i, j);
+					improved = true;
+					
+					//Segment costs must be recalculated after the reversal
+					forward = 0;
+					backward = 0;
+					for (int k = i + 1; k <= j; k++)
+					{
+						forward += costs[tour[k - 1]][tour[k]];
+						backward += costs[tour[k]][tour[k - 1]];
+					}
+				}
+			}
+		}
+		return improved;
+	}
+	
+	/**
+	 * Apply every improving or-opt move (relocation of a segment of 1 to MAX_SEGMENT_LENGTH stops,
+	 * keeping its orientation) found scanning the tour once
+	 * @param tour Tour (indexes of the cost matrix)
+	 * @param costs Cost matrix
+	 * @return True if at least 1 move has been applied
+	 */
+	static boolean orOpt(int[] tour, double[][] costs)
+	{
+		boolean improved = false;
+		final int n = tour.length;
+		
+		for (int length = 1; length <= MAX_SEGMENT_LENGTH; length++)
+			for (int i = 1; i + length < n; i++)
+			{
+				//Segment tour[i..e] and its neighbours
+				int e = i + length - 1;
+				int prev = tour[i - 1];
+				int next = tour[e + 1];
+				
+				//Saving obtained removing the segment
+				double removal = costs[prev][tour[i]] + costs[tour[e]][next] - costs[prev][next];
+				
+				//Try to insert the segment between tour[k] and tour[k + 1], outside of the segment itself
+				for (int k = 0; k < n - 1; k++)
+				{
+					if (k >= i - 1 && k <= e) continue;
+					
+					double insertion = costs[tour[k]][tour[i]] + costs[tour[e]][tour[k + 1]] - costs[tour[k]][tour[k + 1]];
+					if (insertion - removal < -EPSILON)
+					{
+						move(tour, i, e, k);
+						improved = true;
+						break;
+					}
+				}
+			}
+		return improved;
+	}
+	
+	/**
+	 * Reverse tour[i..j]
+	 * @param tour Tour
+	 * @param i First index
+	 * @param j Last index
+	 */
+	private static void reverse(int[] tour, int i, int j)
+	{
+		for (; i < j; i++, j--)
+		{
+			int stop = tour[i];
+			tour[i] = tour[j];
+			tour[j] = stop;
+		}
+	}
+	
+	/**
+	 * Move segment tour[i..e] between tour[k] and tour[k + 1]
+	 * @param tour Tour
+	 * @param i First index of the segment
+	 * @param e Last index of the segment
+	 * @param k Index of the stop after which the segment is inserted
+	 */
+	private static void move(int[] tour, int i, int e, int k)
+	{
+		int[] segment = new int[e - i + 1];
+		System.arraycopy(tour, i, segment, 0, segment.length);
+		
+		//Segment moved forward: shift left the stops between the segment and tour[k]
+		if (k > e)
+		{
+			System.arraycopy(tour, e + 1, tour, i, k - e);
+			System.arraycopy(segment, 0, tour, k - segment.length + 1, segment.length);
+		}
+		
+		//Segment moved backward: shift right the stops between tour[k + 1] and the segment
+		else
+		{
+			System.arraycopy(tour, k + 1, tour, k + 1 + segment.length, i - k - 1);
+			System.arraycopy(segment, 0, tour, k + 1, segment.length);
+		}
+	}
+}
@@ -0,0 +1,83 @@
+package core;
+
+import com.graphhopper.jsprit.core.algorithm.VehicleRoutingAlgorithm;
+import com.graphhopper.jsprit.core.algorithm.box.Jsprit;
+import com.graphhopper.jsprit.core.algorithm.state.StateManager;
+import com.graphhopper.jsprit.core.problem.VehicleRoutingProblem;
+import com.graphhopper.jsprit.core.problem.constraint.ConstraintManager;
+
+/**
+ * TSP Algorithm Factory: Jsprit algorithm tuned for a single vehicle travelling an open path
+ * between fixed start and end locations. Regret insertion, cluster and worst ruins (useful when jobs
+ * have to be distributed among many vehicles) are disabled in favour of radial, string and random ruins
+ * sized on the number of stops, and insertion is restricted by granular neighbourhoods
+ * @author Francesco Raco
+ */
+public class TspAlgorithmFactory
+{
+	/**
+	 * Size of the candidate lists of the granular neighbourhoods
+	 */
+	public static final int NEIGHBOURS = 10;
+	
+	/**
+	 * Default max iterations
+	 */
+	public static final int ITERATIONS = 2000;
+	
+	/**
+	 * Create a Jsprit builder tuned for the specified single vehicle TSP
+	 * @param vrp Vehicle Routing Problem (1 vehicle, 1 service per intermediate stop)
+	 * @return Tuned Jsprit builder (random generator, strategies and parameters can still be overridden)
+	 */
+	public static Jsprit.Builder createBuilder(VehicleRoutingProblem vrp)
+	{
+		//Number of stops to be ordered
+		final int SIZE = vrp.getJobs().size();
+		
+		//Granular neighbourhoods: insertion only next to 1 of the k nearest stops (or the route start/end)
+		StateManager stateManager = new StateManager(vrp);
+		ConstraintManager constraintManager = new ConstraintManager(vrp, stateManager);
+		constraintManager.addConstraint(new GranularNeighbourhoodConstraint(vrp, NEIGHBOURS), ConstraintManager.Priority.HIGH);
+		
+		return Jsprit.Builder.newInstance(vrp)
+				.setStateAndConstraintManager(stateManager, constraintManager)
+				.addCoreStateAndConstraintStuff(true)
+				
+				//Only 1 route: best insertion is as good as regret insertion and much cheaper
+				.setProperty(Jsprit.Parameter.CONSTRUCTION, Jsprit.Construction.BEST_INSERTION.toString())
+				.setProperty(Jsprit.Parameter.VEHICLE_SWITCH, "false")
+				.setProperty(Jsprit.Strategy.RADIAL_BEST, "0.4")
+				.setProperty(Jsprit.Strategy.STRING_BEST, "0.4")
+				.setProperty(Jsprit.Strategy.RANDOM_BEST, "0.2")
+				.setProperty(Jsprit.Strategy.RADIAL_REGRET, "0.0")
+				.setProperty(Jsprit.Strategy.RANDOM_REGRET, "0.0")
+				.setProperty(Jsprit.Strategy.STRING_REGRET, "0.0")
+				.setProperty(Jsprit.Strategy.WORST_BEST, "0.0")
+				.setProperty(Jsprit.Strategy.WORST_REGRET, "0.0")
+				.setProperty(Jsprit.Strategy.CLUSTER_BEST, "0.0")
+				.setProperty(Jsprit.Strategy.CLUSTER_REGRET, "0.0")
+				
+				//Ruin sizes related to a single tour: 10% to 30% of the stops, strings taken from the only route
+				.setProperty(Jsprit.Parameter.RADIAL_MIN_SHARE, String.valueOf(Math.max(1, SIZE / 10)))
+				.setProperty(Jsprit.Parameter.RADIAL_MAX_SHARE, String.valueOf(Math.max(2, SIZE * 3 / 10)))
+				.setProperty(Jsprit.Parameter.RANDOM_BEST_MIN_SHARE, String.valueOf(Math.max(1, SIZE / 10)))
+				.setProperty(Jsprit.Parameter.RANDOM_BEST_MAX_SHARE, String.valueOf(Math.max(2, SIZE * 3 / 10)))
+				.setProperty(Jsprit.Parameter.STRING_K_MIN, "1")
+				.setProperty(Jsprit.Parameter.STRING_K_MAX, "1")
+				.setProperty(Jsprit.Parameter.STRING_L_MIN, "2")
+				.setProperty(Jsprit.Parameter.STRING_L_MAX, String.valueOf(Math.max(3, SIZE / 4)));
+	}
+	
+	/**
+	 * Create a Jsprit algorithm tuned for the specified single vehicle TSP
+	 * @param vrp Vehicle Routing Problem (1 vehicle, 1 service per intermediate stop)
+	 * @return Tuned Jsprit algorithm
+	 */
+	public static VehicleRoutingAlgorithm createAlgorithm(VehicleRoutingProblem vrp)
+	{
+		VehicleRoutingAlgorithm vra = createBuilder(vrp).buildAlgorithm();
+		vra.setMaxIterations(ITERATIONS);
+		return vra;
+	}
+}
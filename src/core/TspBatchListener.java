@@ -0,0 +1,22 @@
+package core;
+
+/**
+ * TSP Batch Listener: receives the result of every line of a batch as soon as it is ready
+ * @author Francesco Raco
+ */
+public interface TspBatchListener
+{
+	/**
+	 * A line has been solved
+	 * @param index Index of the line in the batch
+	 * @param solution String representation of the TSP solution of the line
+	 */
+	void lineSolved(int index, String solution);
+	
+	/**
+	 * A line could not be solved
+	 * @param index Index of the line in the batch
+	 * @param e Exception thrown while solving the line
+	 */
+	void lineFailed(int index, Exception e);
+}
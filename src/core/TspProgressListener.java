@@ -0,0 +1,15 @@
+package core;
+
+/**
+ * TSP Progress Listener: receives every improved tour while Jsprit is still searching
+ * @author Francesco Raco
+ */
+public interface TspProgressListener
+{
+	/**
+	 * A tour better than all the previous ones has been found
+	 * @param iteration Iteration of the search which found the tour
+	 * @param tour Improved tour (ordered stops and distance cost, without String representation)
+	 */
+	void tourImproved(int iteration, TspTour tour);
+}
@@ -0,0 +1,72 @@
+package core;
+
+import java.util.Collection;
+import com.graphhopper.jsprit.core.algorithm.listener.IterationEndsListener;
+import com.graphhopper.jsprit.core.problem.VehicleRoutingProblem;
+import com.graphhopper.jsprit.core.problem.solution.VehicleRoutingProblemSolution;
+import com.graphhopper.jsprit.core.util.Solutions;
+
+/**
+ * TSP Progress Reporter: Jsprit listener passing to a TSP progress listener the best solution of every iteration
+ * which improves on all the previous ones. It can be shared by several algorithms solving the same problem
+ * (e.g. the runs of a solver portfolio): only improvements over all of them are reported
+ * @author Francesco Raco
+ */
+public class TspProgressReporter implements IterationEndsListener
+{
+	/**
+	 * Start point of the tours
+	 */
+	protected String startPoint;
+
+	/**
+	 * Listener receiving the improved tours
+	 */
+	protected TspProgressListener listener;
+
+	/**
+	 * Cost of the best tour reported so far
+	 */
+	protected double bestCost = Double.MAX_VALUE;
+
+	/**
+	 * True once the search ended: late iterations are not reported anymore
+	 */
+	protected boolean closed;
+
+	/**
+	 * Create reporter by start point of the tours and listener
+	 * @param startPoint Start point of the tours
+	 * @param listener Listener receiving the improved tours
+	 */
+	public TspProgressReporter(String startPoint, TspProgressListener listener)
+	{
+		this.startPoint = startPoint;
+		this.listener = listener;
+	}
+
+	@Override
+	public synchronized void informIterationEnds(int i, VehicleRoutingProblem problem, Collection<VehicleRoutingProblemSolution> solutions)
+	{
+		if (closed) return;
+		VehicleRoutingProblemSolution best = Solutions.bestOf(solutions);
+		if (best == null || best.getCost() >= bestCost) return;
+
+		//Solutions leaving some stops unassigned are not tours yet
+		if (!best.getUnassignedJobs().isEmpty()) return;
+		bestCost = best.getCost();
+		try
+		{
+			listener.tourImproved(i, TspTour.fromSolution(startPoint, best, null));
+		}
+		catch (NoInstructionsFoundException e) {}
+	}
+
+	/**
+	 * Stop reporting (called as soon as the search ends, so that the listener receives nothing after the final tour)
+	 */
+	public synchronized void close()
+	{
+		closed = true;
+	}
+}
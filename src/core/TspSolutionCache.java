@@ -0,0 +1,164 @@
+package core;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * TSP Solution Cache: bounded LRU cache of TSP tours, keyed by a canonical hash
+ * of start point, end point, sorted intermediate stops, best path choice, vehicle and graph version
+ * @author Francesco Raco
+ */
+public class TspSolutionCache
+{
+	/**
+	 * Default max number of cached tours
+	 */
+	public static final int DEFAULT_CAPACITY = 256;
+	
+	/**
+	 * Max number of cached tours
+	 */
+	private final int capacity;
+	
+	/**
+	 * Cached tours in access order (eldest entry is the least recently used)
+	 */
+	private final Map<String, TspTour> tours;
+	
+	/**
+	 * Cache hits
+	 */
+	private long hits = 0;
+	
+	/**
+	 * Cache misses
+	 */
+	private long misses = 0;
+	
+	/**
+	 * Create cache by max number of cached tours
+	 * @param capacity Max number of cached tours
+	 */
+	public TspSolutionCache(int capacity)
+	{
+		this.capacity = capacity;
+		tours = new LinkedHashMap<String, TspTour>(16, 0.75f, true)
+		{
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, TspTour> eldest)
+			{
+				return size() > TspSolutionCache.this.capacity;
+			}
+		};
+	}
+	
+	/**
+	 * Create cache with default capacity
+	 */
+	public TspSolutionCache()
+	{
+		this(DEFAULT_CAPACITY);
+	}
+	
+	/**
+	 * Create the canonical key of a TSP request: intermediate stops are sorted,
+	 * so that the same line submitted with a different stops order hits the same entry
+	 * @param startPoint Start point
+	 * @param endPoint End point
+	 * @param intermediateLocations Intermediate locations
+	 * @param btp Best path choice
+	 * @param vehicle Vehicle
+	 * @param graphVersion Version of the graph used for the cost matrix
+	 * @return Canonical key (hexadecimal SHA-256 hash)
+	 */
+	public static String createKey(String startPoint, String endPoint, List<String> intermediateLocations, BestPathChoice btp, String vehicle, String graphVersion)
+	{
+		//Sort intermediate stops
+		List<String> sortedStops = new ArrayList<String>(intermediateLocations);
+		Collections.sort(sortedStops);
+		
+		//Canonical representation: fields separated by a character which cannot appear in a stop
+		StringBuilder canonical = new StringBuilder();
+		canonical.append(startPoint).append('\u0000').append(endPoint).append('\u0000');
+		for (String stop : sortedStops) canonical.append(stop).append('\u0001');
+		canonical.append('\u0000').append(btp).append('\u0000').append(vehicle).append('\u0000').append(graphVersion);
+		
+		try
+		{
+			//Hash the canonical representation and return its hexadecimal representation
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(canonical.toString().getBytes(StandardCharsets.UTF_8));
+			StringBuilder key = new StringBuilder();
+			for (byte b : digest) key.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+			return key.toString();
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			//Every JVM provides SHA-256: fall back to the canonical representation anyway
+			return canonical.toString();
+		}
+	}
+	
+	/**
+	 * Get cached tour by key
+	 * @param key Canonical key
+	 * @return Cached tour (null if not cached)
+	 */
+	public synchronized TspTour get(String key)
+	{
+		TspTour tour = tours.get(key);
+		if (tour == null) misses++;
+		else hits++;
+		return tour;
+	}
+	
+	/**
+	 * Cache a tour, evicting the least recently used one if the cache is full
+	 * @param key Canonical key
+	 * @param tour Tour to be cached
+	 */
+	public synchronized void put(String key, TspTour tour)
+	{
+		tours.put(key, tour);
+	}
+	
+	/**
+	 * Remove every cached tour
+	 */
+	public synchronized void clear()
+	{
+		tours.clear();
+	}
+	
+	/**
+	 * Get number of cached tours
+	 * @return Number of cached tours
+	 */
+	public synchronized int size()
+	{
+		return tours.size();
+	}
+	
+	/**
+	 * Get cache hits
+	 * @return Cache hits
+	 */
+	public synchronized long getHits()
+	{
+		return hits;
+	}
+	
+	/**
+	 * Get cache misses
+	 * @return Cache misses
+	 */
+	public synchronized long getMisses()
+	{
+		return misses;
+	}
+}
@@ -0,0 +1,88 @@
+package core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import com.graphhopper.jsprit.core.problem.solution.VehicleRoutingProblemSolution;
+import com.graphhopper.jsprit.core.problem.solution.route.activity.TourActivity;
+
+/**
+ * TSP Tour: ordered stops (from start to end point) of a TSP solution, its distance cost
+ * and, optionally, its String representation
+ * @author Francesco Raco
+ */
+public class TspTour
+{
+	/**
+	 * Ordered stops, from start to end point
+	 */
+	private List<String> orderedStops;
+	
+	/**
+	 * Distance cost of the tour
+	 */
+	private double distance;
+	
+	/**
+	 * String representation of the tour (null if not rendered)
+	 */
+	private String instructions;
+	
+	/**
+	 * Create tour by ordered stops, distance cost and String representation
+	 * @param orderedStops Ordered stops, from start to end point
+	 * @param distance Distance cost of the tour
+	 * @param instructions String representation of the tour (null if not rendered)
+	 */
+	public TspTour(List<String> orderedStops, double distance, String instructions)
+	{
+		this.orderedStops = Collections.unmodifiableList(new ArrayList<String>(orderedStops));
+		this.distance = distance;
+		this.instructions = instructions;
+	}
+	
+	/**
+	 * Create tour by Jsprit solution and start point
+	 * @param startPoint Start point
+	 * @param solution Jsprit solution
+	 * @param instructions String representation of the tour (null if not rendered)
+	 * @return Tour related to the solution
+	 * @throws NoInstructionsFoundException No Instructions Found Exception
+	 */
+	public static TspTour fromSolution(String startPoint, VehicleRoutingProblemSolution solution, String instructions) throws NoInstructionsFoundException
+	{
+		//Start point followed by every tour activity location
+		List<String> orderedStops = new ArrayList<String>();
+		orderedStops.add(startPoint);
+		for (TourActivity ta : new TSPSolutionWrapper(solution, startPoint).getSolutionActivities()) orderedStops.add(ta.getLocation().getId());
+		
+		return new TspTour(orderedStops, solution.getCost(), instructions);
+	}
+	
+	/**
+	 * Get ordered stops, from start to end point
+	 * @return Ordered stops, from start to end point
+	 */
+	public List<String> getOrderedStops()
+	{
+		return orderedStops;
+	}
+	
+	/**
+	 * Get distance cost of the tour
+	 * @return Distance cost of the tour
+	 */
+	public double getDistance()
+	{
+		return distance;
+	}
+	
+	/**
+	 * Get String representation of the tour
+	 * @return String representation of the tour (null if not rendered)
+	 */
+	public String getInstructions()
+	{
+		return instructions;
+	}
+}
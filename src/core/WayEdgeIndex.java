@@ -0,0 +1,229 @@
+package core;
+
+import com.graphhopper.storage.DataAccess;
+import com.graphhopper.storage.Directory;
+
+/**
+ * Way Edge Index: map every OpenStreetMap way to the graph edges created from it, so that
+ * OpenStreetMap changes can be applied to an existing graph. Every couple (way, edge) is a record
+ * of 3 ints (way id in the first 2, so that any way id fits), stored into a GraphHopper DataAccess
+ * of the graph directory (in the same way as the graph: heap segments or memory-mapped file),
+ * kept sorted and searched by binary search
+ * @author Francesco Raco
+ */
+public class WayEdgeIndex
+{
+	/**
+	 * Name of the file storing the index into the graph directory
+	 */
+	public static final String FILE_NAME = "way_edges";
+
+	/**
+	 * Size (bytes) of a record: way id (2 ints) and edge id
+	 */
+	protected static final int RECORD_SIZE = 12;
+
+	/**
+	 * Records (way id, edge id)
+	 */
+	protected DataAccess records;
+
+	/**
+	 * Number of records
+	 */
+	protected int size;
+
+	/**
+	 * True if records are sorted
+	 */
+	protected boolean sorted = true;
+
+	/**
+	 * Create index by records
+	 * @param records Records (way id, edge id)
+	 */
+	protected WayEdgeIndex(DataAccess records)
+	{
+		this.records = records;
+	}
+
+	/**
+	 * Create an empty index into the specified graph directory (filled by the import of the graph)
+	 * @param directory Graph directory
+	 * @return Index
+	 */
+	public static WayEdgeIndex create(Directory directory)
+	{
+		WayEdgeIndex index = new WayEdgeIndex(directory.find(FILE_NAME));
+		index.records.create(1024 * RECORD_SIZE);
+		return index;
+	}
+
+	/**
+	 * Load the index stored into the specified graph directory
+	 * @param directory Graph directory
+	 * @return Index (null if the graph has been imported without index)
+	 */
+	public static WayEdgeIndex load(Directory directory)
+	{
+		DataAccess records = directory.find(FILE_NAME);
+		if (!records.loadExisting()) return null;
+
+		WayEdgeIndex index = new WayEdgeIndex(records);
+		index.size = records.getHeader(0);
+		return index;
+	}
+
+	/**
+	 * Add an edge created from a way (edges are added by the import only: the index is read-only once stored)
+	 * @param edgeId Edge id
+	 * @param wayId OpenStreetMap way id
+	 */
+	public void add(int edgeId, long wayId)
+	{
+		records.ensureCapacity((long) (size + 1) * RECORD_SIZE);
+		long pointer = (long) size * RECORD_SIZE;
+		records.setInt(pointer, (int) (wayId >>> 32));
+		records.setInt(pointer + 4, (int) wayId);
+		records.setInt(pointer + 8, edgeId);
+
+		//Ways are usually read in id order, so sorting is rarely needed
+		if (size > 0 && compare(size - 1, size) > 0) sorted = false;
+		size++;
+	}
+
+	/**
+	 * Get edges created from a way
+	 * @param wayId OpenStreetMap way id
+	 * @return Ids of the edges created from the way (empty if the way is not in the graph)
+	 */
+	public int[] getEdges(long wayId)
+	{
+		//First record of the way
+		int low = 0;
+		int high = size;
+		while (low < high)
+		{
+			int middle = (low + high) >>> 1;
+			if (getWayId(middle) < wayId) low = middle + 1;
+			else high = middle;
+		}
+
+		//Collect all the records of the way
+		int last = low;
+		while (last < size && getWayId(last) == wayId) last++;
+		int[] edges = new int[last - low];
+		for (int i = low; i < last; i++) edges[i - low] = getEdgeId(i);
+		return edges;
+	}
+
+	/**
+	 * Get number of indexed edges
+	 * @return Number of indexed edges
+	 */
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+	 * Sort the records (if needed) and store them into the graph directory
+	 */
+	public void flush()
+	{
+		sort();
+		records.setHeader(0, size);
+		records.flush();
+	}
+
+	/**
+	 * Release the records (heap segments or memory-mapped file)
+	 */
+	public void close()
+	{
+		records.close();
+	}
+
+	/**
+	 * Get way id of a record
+	 * @param record Record index
+	 * @return Way id
+	 */
+	protected long getWayId(int record)
+	{
+		long pointer = (long) record * RECORD_SIZE;
+		return (long) records.getInt(pointer) << 32 | records.getInt(pointer + 4) & 0xFFFFFFFFL;
+	}
+
+	/**
+	 * Get edge id of a record
+	 * @param record Record index
+	 * @return Edge id
+	 */
+	protected int getEdgeId(int record)
+	{
+		return records.getInt((long) record * RECORD_SIZE + 8);
+	}
+
+	/**
+	 * Compare 2 records (by way id, then by edge id)
+	 * @param a First record index
+	 * @param b Second record index
+	 * @return Negative, zero or positive value if the first record is lower, equal or greater than the second one
+	 */
+	protected int compare(int a, int b)
+	{
+		int result = Long.compare(getWayId(a), getWayId(b));
+		return result != 0 ? result : Integer.compare(getEdgeId(a), getEdgeId(b));
+	}
+
+	/**
+	 * Swap 2 records
+	 * @param a First record index
+	 * @param b Second record index
+	 */
+	protected void swap(int a, int b)
+	{
+		for (int offset = 0; offset < RECORD_SIZE; offset += 4)
+		{
+			long pointerA = (long) a * RECORD_SIZE + offset;
+			long pointerB = (long) b * RECORD_SIZE + offset;
+			int value = records.getInt(pointerA);
+			records.setInt(pointerA, records.getInt(pointerB));
+			records.setInt(pointerB, value);
+		}
+	}
+
+	/**
+	 * Sort records in place by heap sort (no copy of the records is needed)
+	 */
+	protected void sort()
+	{
+		if (sorted) return;
+		for (int i = size / 2 - 1; i >= 0; i--) siftDown(i, size);
+		for (int end = size - 1; end > 0; end--)
+		{
+			swap(0, end);
+			siftDown(0, end);
+		}
+		sorted = true;
+	}
+
+	/**
+	 * Move a record down the heap until its children are not greater than it
+	 * @param record Record index
+	 * @param end Number of records in the heap
+	 */
+	protected void siftDown(int record, int end)
+	{
+		while (true)
+		{
+			int child = 2 * record + 1;
+			if (child >= end) return;
+			if (child + 1 < end && compare(child + 1, child) > 0) child++;
+			if (compare(record, child) >= 0) return;
+			swap(record, child);
+			record = child;
+		}
+	}
+}
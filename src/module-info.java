@@ -9,6 +9,7 @@ module vrpServer
 	//Declare the needed libraries
 	requires graphhopper.web;
 	requires java.json;
+	requires java.xml;
 	requires json.simple;
 	requires jsprit.core;
 }
\ No newline at end of file
@@ -0,0 +1,233 @@
+package server;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Admission Controller: every request is classified by its estimated cost (number of paths to be routed and
+ * request type) and admitted into the lane of its class. Every lane runs a limited number of requests and lets
+ * a limited number of requests wait in its queue, so heavy requests cannot starve cheap ones; a request which finds
+ * its queue full, or waits too long, is rejected with the estimated time after which the client should retry
+ * @author Francesco Raco
+ */
+public class AdmissionController
+{
+	/**
+	 * Cost class of a request
+	 */
+	public enum CostClass
+	{
+		/**
+		 * Single best path
+		 */
+		CHEAP,
+
+		/**
+		 * TSP solution of a line with few stops
+		 */
+		STANDARD,
+
+		/**
+		 * Testing requests (a TSP solution and a path for every stop), batches and lines with many stops
+		 */
+		HEAVY;
+	}
+
+	/**
+	 * Number of paths routed by a TSP above which a line is a heavy request (a cost matrix of 25 stops)
+	 */
+	public static final long HEAVY_ROUTES = 25 * 24;
+
+	/**
+	 * Max time (milliseconds) a request waits in the queue of its lane before being rejected
+	 */
+	public static final long MAX_QUEUE_WAIT = 5000;
+
+	/**
+	 * Lane of a cost class: running requests, waiting requests and average service time
+	 */
+	protected static class Lane
+	{
+		/**
+		 * Permits of the running requests (fair, so waiting requests are admitted in arrival order)
+		 */
+		protected final Semaphore permits;
+
+		/**
+		 * Max number of running requests
+		 */
+		protected final int maxRunning;
+
+		/**
+		 * Max number of waiting requests
+		 */
+		protected final int maxWaiting;
+
+		/**
+		 * Number of waiting requests
+		 */
+		protected final AtomicInteger waiting = new AtomicInteger();
+
+		/**
+		 * Average service time (milliseconds) of the requests of the lane
+		 */
+		protected volatile double averageTime;
+
+		/**
+		 * Create lane by limits and initial estimate of the service time
+		 * @param maxRunning Max number of running requests
+		 * @param maxWaiting Max number of waiting requests
+		 * @param averageTime Initial estimate of the service time (milliseconds)
+		 */
+		protected Lane(int maxRunning, int maxWaiting, double averageTime)
+		{
+			this.permits = new Semaphore(maxRunning, true);
+			this.maxRunning = maxRunning;
+			this.maxWaiting = maxWaiting;
+			this.averageTime = averageTime;
+		}
+	}
+
+	/**
+	 * Ticket of an admitted request: it must be closed when the request ends
+	 */
+	public class Ticket implements AutoCloseable
+	{
+		/**
+		 * Lane of the request (null if the request is not subject to admission control)
+		 */
+		private final Lane lane;
+
+		/**
+		 * Time (milliseconds) the request started running
+		 */
+		private final long startTime = System.currentTimeMillis();
+
+		/**
+		 * True once the ticket has been closed
+		 */
+		private boolean closed;
+
+		/**
+		 * Create ticket by lane
+		 * @param lane Lane of the request (null if the request is not subject to admission control)
+		 */
+		protected Ticket(Lane lane)
+		{
+			this.lane = lane;
+		}
+
+		/**
+		 * Release the lane and update its average service time
+		 */
+		@Override
+		public synchronized void close()
+		{
+			if (closed || lane == null) return;
+			closed = true;
+			lane.averageTime = lane.averageTime * 0.8 + (System.currentTimeMillis() - startTime) * 0.2;
+			lane.permits.release();
+		}
+	}
+
+	/**
+	 * Lanes by cost class
+	 */
+	protected Map<CostClass, Lane> lanes = new EnumMap<CostClass, Lane>(CostClass.class);
+
+	/**
+	 * Create admission controller sized on the specified number of processors: cheap requests run 2 per processor,
+	 * standard requests 1 per processor, heavy requests 1 every 4 processors
+	 * @param processors Number of processors
+	 */
+	public AdmissionController(int processors)
+	{
+		lanes.put(CostClass.CHEAP, new Lane(2 * processors, 8 * processors, 200));
+		lanes.put(CostClass.STANDARD, new Lane(processors, 4 * processors, 5000));
+		lanes.put(CostClass.HEAVY, new Lane(Math.max(1, processors / 4), processors, 30000));
+	}
+
+	/**
+	 * Estimate the number of paths routed by the TSP of a line
+	 * @param stops Number of stops of the line, start and end point included
+	 * @return Number of paths (every couple of stops, in both directions)
+	 */
+	public static long estimateRoutes(int stops)
+	{
+		return (long) stops * (stops - 1);
+	}
+
+	/**
+	 * Classify a request by its estimated cost
+	 * @param routes Estimated number of paths to be routed
+	 * @param heavy True if the request type is heavy whatever its size (testing and batch requests)
+	 * @return Cost class
+	 */
+	public static CostClass classify(long routes, boolean heavy)
+	{
+		if (heavy || routes > HEAVY_ROUTES) return CostClass.HEAVY;
+		return routes <= 1 ? CostClass.CHEAP : CostClass.STANDARD;
+	}
+
+	/**
+	 * Admit a request into the lane of its class, waiting in its queue if the lane is full
+	 * @param costClass Cost class (null if the request is not subject to admission control)
+	 * @return Ticket of the request (null if the request is rejected: the client should retry after getRetryAfter seconds)
+	 */
+	public Ticket admit(CostClass costClass)
+	{
+		if (costClass == null) return new Ticket(null);
+		Lane lane = lanes.get(costClass);
+		try
+		{
+			//A free permit is taken at once, unless requests are already waiting for it (the timed form respects fairness)
+			if (lane.permits.tryAcquire(0, TimeUnit.MILLISECONDS)) return new Ticket(lane);
+
+			//Shed load at once when the queue is full, instead of letting latency grow
+			if (lane.waiting.incrementAndGet() > lane.maxWaiting)
+			{
+				lane.waiting.decrementAndGet();
+				return null;
+			}
+			try
+			{
+				return lane.permits.tryAcquire(MAX_QUEUE_WAIT, TimeUnit.MILLISECONDS) ? new Ticket(lane) : null;
+			}
+			finally
+			{
+				lane.waiting.decrementAndGet();
+			}
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			return null;
+		}
+	}
+
+	/**
+	 * Get the estimated time after which a rejected request of the specified class should be retried
+	 * @param costClass Cost class
+	 * @return Time in seconds (at least 1)
+	 */
+	public long getRetryAfter(CostClass costClass)
+	{
+		//Time needed by the running and waiting requests of the lane to be served
+		Lane lane = lanes.get(costClass);
+		double time = lane.averageTime * (lane.waiting.get() + 1) / lane.maxRunning;
+		return Math.max(1, (long) Math.ceil(time / 1000));
+	}
+
+	/**
+	 * Get the message sent to a rejected client
+	 * @param costClass Cost class of the rejected request
+	 * @return Message sent to the client
+	 */
+	public String getBusyMessage(CostClass costClass)
+	{
+		return "Server occupato, riprova tra " + getRetryAfter(costClass) + " secondi!";
+	}
+}
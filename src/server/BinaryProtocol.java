@@ -0,0 +1,304 @@
+package server;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Binary Protocol: length-prefixed frames exchanged after the client opens the connection with the magic
+ * bytes "VRPB" followed by the highest protocol version it supports (the server answers with the magic bytes
+ * and the negotiated version). Every frame is a 4 bytes length (big endian, of the rest of the frame), 1 byte type,
+ * the 4 bytes request id (since version 2) and the payload; strings are a 4 bytes length followed by their UTF-8 bytes,
+ * so addresses may contain spaces and newlines. Since version 2 requests are pipelined: the client sends them
+ * without waiting, the server calculates them concurrently and every response frame carries the id of its request,
+ * so responses to different requests may come back out of order
+ * @author Francesco Raco
+ */
+public class BinaryProtocol
+{
+	/**
+	 * Magic bytes opening a binary connection
+	 */
+	public static final byte[] MAGIC = {'V', 'R', 'P', 'B'};
+
+	/**
+	 * Highest protocol version supported by the server
+	 */
+	public static final byte VERSION = 2;
+
+	/**
+	 * First protocol version with request ids and pipelining
+	 */
+	public static final byte PIPELINING_VERSION = 2;
+
+	/**
+	 * Max length of a frame (larger frames close the connection)
+	 */
+	public static final int MAX_FRAME_LENGTH = 16 * 1024 * 1024;
+
+	/**
+	 * Request: best path between 2 points (byte best path choice, byte response format, string from, string to)
+	 */
+	public static final byte BEST_PATH = 0x01;
+
+	/**
+	 * Request: TSP solution (byte response format, string start, string end, int count, count strings)
+	 */
+	public static final byte TSP = 0x02;
+
+	/**
+	 * Request: TSP solutions of many lines (int lines, for every line int count and count strings, from start to end point)
+	 */
+	public static final byte BATCH = 0x03;
+
+	/**
+	 * Request: loading status of the map (no payload)
+	 */
+	public static final byte STATUS = 0x04;
+
+	/**
+	 * Option for the next requests of the connection: region (string, empty for the default region)
+	 */
+	public static final byte SET_REGION = 0x10;
+
+	/**
+	 * Option for the next requests of the connection: vehicle type (string, empty for the default vehicle)
+	 */
+	public static final byte SET_VEHICLE = 0x11;
+
+	/**
+	 * Option for the next requests of the connection: geometry detail (double tolerance in meters, byte decimals)
+	 */
+	public static final byte SET_DETAIL = 0x12;
+
+	/**
+	 * Option for the next requests of the connection: progress of the TSP searches (byte 1 to receive every improved
+	 * tour before the solution, 0 otherwise)
+	 */
+	public static final byte SET_PROGRESS = 0x13;
+
+	/**
+	 * Option for the next requests of the connection: timeout (int milliseconds, 0 for the default timeout of the server)
+	 */
+	public static final byte SET_TIMEOUT = 0x14;
+
+	/**
+	 * Response: solution (string, text or JSON according to the requested format)
+	 */
+	public static final byte RESULT = (byte) 0x81;
+
+	/**
+	 * Response: solution of a line of a batch (int index, string)
+	 */
+	public static final byte BATCH_RESULT = (byte) 0x82;
+
+	/**
+	 * Response: loading status of the map (string)
+	 */
+	public static final byte STATUS_RESULT = (byte) 0x83;
+
+	/**
+	 * Response: tour improved while the TSP search is still running (int iteration, double distance cost in meters,
+	 * int count, count strings of the ordered stops)
+	 */
+	public static final byte PROGRESS = (byte) 0x84;
+
+	/**
+	 * Response: error (byte error code, int index of the batch line or -1 - seconds after which to retry for ERROR_BUSY -, string message)
+	 */
+	public static final byte ERROR = (byte) 0xE0;
+
+	/**
+	 * Response: end of the responses to a request (no payload)
+	 */
+	public static final byte END = (byte) 0xFF;
+
+	/**
+	 * Error code: request not well formed (also unknown region or vehicle type)
+	 */
+	public static final byte ERROR_UNCORRECT_QUERY = 1;
+
+	/**
+	 * Error code: 1 or more points not found by geocoding
+	 */
+	public static final byte ERROR_NOT_EXISTING_COORDINATES = 2;
+
+	/**
+	 * Error code: no path found
+	 */
+	public static final byte ERROR_PATH_NOT_FOUND = 3;
+
+	/**
+	 * Error code: no instructions found
+	 */
+	public static final byte ERROR_NO_INSTRUCTIONS = 4;
+
+	/**
+	 * Error code: map still loading, retry later
+	 */
+	public static final byte ERROR_NOT_READY = 5;
+
+	/**
+	 * Error code: timeout of the request passed before geocoding and routing ended
+	 */
+	public static final byte ERROR_TIMEOUT = 6;
+
+	/**
+	 * Error code: too many requests of the same cost class, retry after the seconds carried by the error frame
+	 */
+	public static final byte ERROR_BUSY = 7;
+
+	/**
+	 * Error code: any other failure
+	 */
+	public static final byte ERROR_GENERIC = 9;
+
+	/**
+	 * Check if a connection opens with the magic bytes (the stream must support mark: otherwise it is treated as a text connection)
+	 * @param in Input stream of the connection: if the magic bytes are missing, it is reset to its start
+	 * @return True if the client asked for the binary protocol
+	 * @throws IOException I/O Exception
+	 */
+	public static boolean isNegotiated(InputStream in) throws IOException
+	{
+		if (!in.markSupported()) return false;
+
+		//Text requests always end with "END" and a newline, so at least 4 bytes arrive
+		in.mark(MAGIC.length);
+		for (byte b : MAGIC)
+		{
+			if (in.read() != b)
+			{
+				in.reset();
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Read the protocol version following the magic bytes and answer with magic bytes and negotiated version
+	 * @param in Input stream of the connection
+	 * @param out Output stream of the connection
+	 * @return Negotiated version: the lowest between client and server versions (0 if the client version is not supported)
+	 * @throws IOException I/O Exception
+	 */
+	public static int handshake(InputStream in, OutputStream out) throws IOException
+	{
+		int clientVersion = in.read();
+		int version = clientVersion < 1 ? 0 : Math.min(clientVersion, VERSION);
+		out.write(MAGIC);
+		out.write(version);
+		out.flush();
+		return version;
+	}
+
+	/**
+	 * Read the next frame into the buffer (grown if too small)
+	 * @param in Input stream of the connection
+	 * @param buffer Buffer reused by every frame of the connection
+	 * @return Buffer containing type and payload of the frame, ready to be read (null if the client closed the connection)
+	 * @throws IOException I/O Exception (also thrown for a truncated or too large frame)
+	 */
+	public static ByteBuffer readFrame(InputStream in, ByteBuffer buffer) throws IOException
+	{
+		//Length of the frame (end of stream before it: the client closed the connection)
+		byte[] header = new byte[4];
+		if (!readFully(in, header, 0, 4, true)) return null;
+		int length = ByteBuffer.wrap(header).getInt();
+		if (length < 1 || length > MAX_FRAME_LENGTH) throw new IOException("Invalid frame length " + length);
+
+		//Type and payload, read straight into the backing array of the buffer
+		if (buffer.capacity() < length) buffer = ByteBuffer.allocate(Math.max(length, buffer.capacity() * 2));
+		buffer.clear();
+		readFully(in, buffer.array(), 0, length, false);
+		buffer.limit(length);
+		return buffer;
+	}
+
+	/**
+	 * Read exactly the specified number of bytes
+	 * @param in Input stream
+	 * @param b Destination array
+	 * @param off Offset into the destination array
+	 * @param len Number of bytes
+	 * @param endAllowed True if the stream may end before the first byte
+	 * @return False if the stream ended before the first byte
+	 * @throws IOException I/O Exception (also thrown if the stream ends after the first byte)
+	 */
+	protected static boolean readFully(InputStream in, byte[] b, int off, int len, boolean endAllowed) throws IOException
+	{
+		int read = 0;
+		while (read < len)
+		{
+			int n = in.read(b, off + read, len - read);
+			if (n < 0)
+			{
+				if (read == 0 && endAllowed) return false;
+				throw new EOFException();
+			}
+			read += n;
+		}
+		return true;
+	}
+
+	/**
+	 * Get a string from the buffer
+	 * @param buffer Buffer positioned at the string length
+	 * @return String
+	 * @throws BufferUnderflowException Buffer Underflow Exception (string longer than the frame)
+	 */
+	public static String getString(ByteBuffer buffer) throws BufferUnderflowException
+	{
+		int length = buffer.getInt();
+		if (length < 0 || length > buffer.remaining()) throw new BufferUnderflowException();
+
+		//Decode straight from the backing array of the buffer
+		String s = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+		buffer.position(buffer.position() + length);
+		return s;
+	}
+
+	/**
+	 * Create a frame
+	 * @param type Frame type
+	 * @param version Negotiated protocol version (the request id is written since version 2)
+	 * @param requestId Id of the request answered by the frame
+	 * @param payloadLength Length of the payload
+	 * @return Buffer containing length, type and request id, ready for the payload
+	 */
+	public static ByteBuffer createFrame(byte type, int version, int requestId, int payloadLength)
+	{
+		int headerLength = version >= PIPELINING_VERSION ? 5 : 1;
+		ByteBuffer frame = ByteBuffer.allocate(4 + headerLength + payloadLength);
+		frame.putInt(headerLength + payloadLength);
+		frame.put(type);
+		if (version >= PIPELINING_VERSION) frame.putInt(requestId);
+		return frame;
+	}
+
+	/**
+	 * Get the number of bytes written by putString
+	 * @param bytes UTF-8 bytes of the string
+	 * @return Number of bytes of the string field
+	 */
+	public static int getStringLength(byte[] bytes)
+	{
+		return 4 + bytes.length;
+	}
+
+	/**
+	 * Put a string into the frame
+	 * @param frame Frame
+	 * @param bytes UTF-8 bytes of the string
+	 */
+	public static void putString(ByteBuffer frame, byte[] bytes)
+	{
+		frame.putInt(bytes.length);
+		frame.put(bytes);
+	}
+}
@@ -0,0 +1,583 @@
+package server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import org.apache.log4j.Logger;
+import core.AllowedVehicleTypes;
+import core.BatchTspSolver;
+import core.BestPathChoice;
+import core.CancellationToken;
+import core.CostMatrixWrapper;
+import core.GeographicMap;
+import core.GeometryDetail;
+import core.NoInstructionsFoundException;
+import core.NotExistingCoordinatesException;
+import core.PathNotFoundException;
+import core.ResponseFormat;
+import core.TspBatchListener;
+import core.TspTour;
+import core.UncorrectQueryException;
+
+/**
+ * Binary Session: serves the requests of a connection which negotiated the binary protocol, until the client
+ * closes it. Every request frame is answered by its response frames followed by an END frame; since version 2
+ * calculations are pipelined: they run concurrently and their responses carry the request id
+ * @author Francesco Raco
+ */
+public class BinarySession
+{
+	/**
+	 * Logger for configuring which message types are written
+	 */
+	public final static Logger log = Logger.getLogger("BinarySession");
+
+	/**
+	 * Number of requests of a connection calculated at the same time
+	 */
+	public static final int PIPELINE_THREADS = 4;
+
+	/**
+	 * Max number of requests of a connection received and not answered yet (further requests are not read
+	 * until one of them is answered)
+	 */
+	public static final int MAX_PENDING_REQUESTS = 32;
+
+	/**
+	 * Catalog of the Geographic Maps
+	 */
+	protected MapCatalog mapCatalog;
+
+	/**
+	 * Input stream of the connection (positioned after the magic bytes)
+	 */
+	protected InputStream in;
+
+	/**
+	 * Output stream of the connection
+	 */
+	protected OutputStream out;
+
+	/**
+	 * Negotiated protocol version
+	 */
+	protected int version;
+
+	/**
+	 * Region of the next requests (null for the default region of the catalog)
+	 */
+	protected String region;
+
+	/**
+	 * Vehicle type of the next requests (null for the default vehicle of the map)
+	 */
+	protected AllowedVehicleTypes vehicle;
+
+	/**
+	 * Geometry detail of the next requests
+	 */
+	protected GeometryDetail detail = GeometryDetail.FULL;
+
+	/**
+	 * True if the next TSP requests send every improved tour before the solution
+	 */
+	protected boolean progress;
+
+	/**
+	 * Time (milliseconds) every next request may run, since it is received
+	 */
+	protected long timeout = Server.REQUEST_TIMEOUT;
+
+	/**
+	 * Buffer reused by every request frame
+	 */
+	protected ByteBuffer buffer = ByteBuffer.allocate(8192);
+
+	/**
+	 * Executor calculating pipelined requests (null until the first one)
+	 */
+	protected ExecutorService executor;
+
+	/**
+	 * Permits of the requests not answered yet
+	 */
+	protected Semaphore pendingRequests = new Semaphore(MAX_PENDING_REQUESTS);
+
+	/**
+	 * Cancellation tokens of the pipelined requests not answered yet
+	 */
+	protected Set<CancellationToken> pendingCancellations = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * Create session by catalog and streams of the connection
+	 * @param mapCatalog Catalog of the Geographic Maps
+	 * @param in Input stream of the connection (positioned after the magic bytes)
+	 * @param out Output stream of the connection
+	 */
+	public BinarySession(MapCatalog mapCatalog, InputStream in, OutputStream out)
+	{
+		this.mapCatalog = mapCatalog;
+		this.in = in;
+		this.out = out;
+	}
+
+	/**
+	 * Serve the requests until the client closes the connection, then cancel the pipelined requests still running
+	 * @throws IOException I/O Exception (connection failed or malformed frame)
+	 */
+	public void run() throws IOException
+	{
+		version = BinaryProtocol.handshake(in, out);
+		if (version == 0)
+		{
+			writeError(0, BinaryProtocol.ERROR_UNCORRECT_QUERY, -1, "Versione del protocollo non supportata!");
+			writeEnd(0);
+			return;
+		}
+
+		try
+		{
+			ByteBuffer frame;
+			while ((frame = BinaryProtocol.readFrame(in, buffer)) != null)
+			{
+				buffer = frame;
+				dispatch(frame);
+			}
+			log.debug("Binary connection closed by the client");
+		}
+		finally
+		{
+			//The client went away (or the connection failed): nobody reads the responses of the pending requests,
+			//so stop them as the client watcher does for a text request instead of working for nobody
+			if (executor != null)
+			{
+				for (CancellationToken cancellation : pendingCancellations) cancellation.cancel();
+				executor.shutdownNow();
+			}
+		}
+	}
+
+	/**
+	 * Dispatch a request frame: options and status requests are served at once, in the order they are received
+	 * (so they apply to the requests following them), calculations are pipelined since version 2
+	 * @param frame Request frame (type, request id and payload)
+	 * @throws IOException I/O Exception (connection failed or malformed frame)
+	 */
+	protected void dispatch(ByteBuffer frame) throws IOException
+	{
+		byte type;
+		int requestId;
+		try
+		{
+			type = frame.get();
+			requestId = version >= BinaryProtocol.PIPELINING_VERSION ? frame.getInt() : 0;
+		}
+		catch (BufferUnderflowException e)
+		{
+			throw new IOException("Frame without header");
+		}
+
+		//The deadline of the request starts when it is received, so the time it waits in the pipeline counts too
+		CancellationToken cancellation = new CancellationToken(timeout);
+		boolean calculation = type == BinaryProtocol.BEST_PATH || type == BinaryProtocol.TSP || type == BinaryProtocol.BATCH;
+		if (!calculation || version < BinaryProtocol.PIPELINING_VERSION)
+		{
+			serve(type, requestId, frame, region, vehicle, detail, progress, cancellation);
+			return;
+		}
+
+		//The frame buffer is reused by the next frame: copy the payload, together with the options in force
+		ByteBuffer payload = ByteBuffer.allocate(frame.remaining());
+		payload.put(frame).flip();
+		String requestRegion = region;
+		AllowedVehicleTypes requestVehicle = vehicle;
+		GeometryDetail requestDetail = detail;
+		boolean requestProgress = progress;
+
+		//Too many requests waiting for their response: stop reading until one of them is answered
+		try
+		{
+			pendingRequests.acquire();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted");
+		}
+		if (executor == null) executor = Executors.newFixedThreadPool(PIPELINE_THREADS);
+		pendingCancellations.add(cancellation);
+		executor.execute(() ->
+		{
+			try
+			{
+				serve(type, requestId, payload, requestRegion, requestVehicle, requestDetail, requestProgress, cancellation);
+			}
+			catch (IOException e)
+			{
+				log.debug("Response " + requestId + " not sent: " + e.getMessage());
+			}
+
+			//Failure while releasing the request: the pool thread must keep serving the other requests
+			catch (RuntimeException e)
+			{
+				log.error("Request " + requestId + " failed", e);
+			}
+			finally
+			{
+				pendingCancellations.remove(cancellation);
+				pendingRequests.release();
+			}
+		});
+	}
+
+	/**
+	 * Serve a request: write its response frames, then the END frame
+	 * @param type Request type
+	 * @param requestId Request id
+	 * @param payload Payload of the request frame
+	 * @param region Region of the request (null for the default region of the catalog)
+	 * @param vehicle Vehicle type of the request (null for the default vehicle of the map)
+	 * @param detail Geometry detail of the request
+	 * @param progress True if a TSP request sends every improved tour before the solution
+	 * @param cancellation Cancellation token of the request (expired when its timeout passes)
+	 * @throws IOException I/O Exception (connection failed)
+	 */
+	protected void serve(byte type, int requestId, ByteBuffer payload, String region, AllowedVehicleTypes vehicle, GeometryDetail detail, boolean progress, CancellationToken cancellation) throws IOException
+	{
+		MapRegistry.Handle mapHandle = null;
+		AdmissionController.Ticket ticket = null;
+		try
+		{
+			switch(type)
+			{
+				case BinaryProtocol.SET_REGION:
+				{
+					String name = BinaryProtocol.getString(payload);
+					mapCatalog.getRegistry(name.isEmpty() ? null : name);
+					this.region = name.isEmpty() ? null : name;
+					break;
+				}
+				case BinaryProtocol.SET_VEHICLE:
+				{
+					String name = BinaryProtocol.getString(payload);
+					this.vehicle = name.isEmpty() ? null : parseVehicle(name);
+					break;
+				}
+				case BinaryProtocol.SET_DETAIL:
+				{
+					double tolerance = payload.getDouble();
+					int decimals = payload.get();
+					if (!(tolerance >= 0) || Double.isInfinite(tolerance) || decimals < 1 || decimals > 7) throw new UncorrectQueryException();
+					this.detail = new GeometryDetail(tolerance, decimals);
+					break;
+				}
+				case BinaryProtocol.SET_PROGRESS: this.progress = payload.get() != 0; break;
+				case BinaryProtocol.SET_TIMEOUT:
+				{
+					int milliseconds = payload.getInt();
+					if (milliseconds < 0 || milliseconds > Server.MAX_REQUEST_TIMEOUT) throw new UncorrectQueryException();
+					this.timeout = milliseconds == 0 ? Server.REQUEST_TIMEOUT : milliseconds;
+					break;
+				}
+				case BinaryProtocol.STATUS: writeString(BinaryProtocol.STATUS_RESULT, requestId, mapCatalog.getStatusMessage(region)); break;
+				case BinaryProtocol.BEST_PATH:
+				{
+					BestPathChoice btp = BestPathChoice.values()[payload.get()];
+					ResponseFormat format = ResponseFormat.values()[payload.get()];
+					String from = BinaryProtocol.getString(payload);
+					String to = BinaryProtocol.getString(payload);
+					if ((ticket = admit(requestId, AdmissionController.CostClass.CHEAP)) == null || (mapHandle = acquireMap(requestId, region, vehicle)) == null) break;
+					writeString(BinaryProtocol.RESULT, requestId, getMap(mapHandle, vehicle, cancellation).showBestPath(btp, from, to, format, detail));
+					break;
+				}
+				case BinaryProtocol.TSP:
+				{
+					ResponseFormat format = ResponseFormat.values()[payload.get()];
+					String start = BinaryProtocol.getString(payload);
+					String end = BinaryProtocol.getString(payload);
+					List<String> stops = getStrings(payload);
+					AdmissionController.CostClass costClass = AdmissionController.classify(AdmissionController.estimateRoutes(stops.size() + 2), false);
+					if ((ticket = admit(requestId, costClass)) == null || (mapHandle = acquireMap(requestId, region, vehicle)) == null) break;
+					GeographicMap map = getMap(mapHandle, vehicle, cancellation);
+					if (progress) map = map.withProgressListener((iteration, tour) -> writeProgress(requestId, iteration, tour));
+					writeString(BinaryProtocol.RESULT, requestId, map.showTspSolution(new CostMatrixWrapper(), start, end, stops, format, detail));
+					break;
+				}
+				case BinaryProtocol.BATCH:
+				{
+					int count = payload.getInt();
+					if (count < 1 || count > payload.remaining() / 4) throw new UncorrectQueryException();
+					List<List<String>> lines = new ArrayList<List<String>>();
+					for (int i = 0; i < count; i++) lines.add(getStrings(payload));
+					if ((ticket = admit(requestId, AdmissionController.CostClass.HEAVY)) == null || (mapHandle = acquireMap(requestId, region, vehicle)) == null) break;
+					solveBatch(requestId, getMap(mapHandle, vehicle, cancellation), lines);
+					break;
+				}
+				default: throw new UncorrectQueryException();
+			}
+		}
+
+		//Malformed payload
+		catch (BufferUnderflowException | ArrayIndexOutOfBoundsException e)
+		{
+			writeError(requestId, BinaryProtocol.ERROR_UNCORRECT_QUERY, -1, Server.getErrorMessage(new UncorrectQueryException()));
+		}
+		catch (UncorrectQueryException | NotExistingCoordinatesException | PathNotFoundException | NoInstructionsFoundException | CancellationException e)
+		{
+			writeError(requestId, getErrorCode(e), -1, Server.getErrorMessage(e));
+		}
+
+		//Unexpected failure: the client gets an error instead of waiting for a response forever
+		catch (RuntimeException e)
+		{
+			log.error("Request " + requestId + " failed", e);
+			writeError(requestId, BinaryProtocol.ERROR_GENERIC, -1, Server.getErrorMessage(e));
+		}
+		finally
+		{
+			//Release the map (a map replaced meanwhile is closed by its last request) and the lane of the request
+			if (mapHandle != null) mapHandle.close();
+			if (ticket != null) ticket.close();
+
+			//Every request ends with its END frame, whatever happened
+			writeEnd(requestId);
+		}
+	}
+
+	/**
+	 * Admit a request into the lane of its cost class; if the lane is too busy, write the BUSY error
+	 * @param requestId Request id
+	 * @param costClass Cost class of the request
+	 * @return Ticket of the request (null if rejected): it must be closed when the request ends
+	 * @throws IOException I/O Exception (connection failed)
+	 */
+	protected AdmissionController.Ticket admit(int requestId, AdmissionController.CostClass costClass) throws IOException
+	{
+		AdmissionController.Ticket ticket = Server.admission.admit(costClass);
+		if (ticket == null) writeError(requestId, BinaryProtocol.ERROR_BUSY, (int) Server.admission.getRetryAfter(costClass), Server.admission.getBusyMessage(costClass));
+		return ticket;
+	}
+
+	/**
+	 * Acquire the map of a region; if the map is still loading, write the NOT_READY error
+	 * @param requestId Request id
+	 * @param region Region (null for the default region of the catalog)
+	 * @param vehicle Vehicle type (null for the default vehicle of the map)
+	 * @return Handle of the map (null if not ready yet): it must be closed when the request ends
+	 * @throws UncorrectQueryException Uncorrect Query Exception (region not served or vehicle type not stored into the graph)
+	 * @throws IOException I/O Exception (connection failed)
+	 */
+	protected MapRegistry.Handle acquireMap(int requestId, String region, AllowedVehicleTypes vehicle) throws UncorrectQueryException, IOException
+	{
+		MapRegistry.Handle mapHandle = mapCatalog.acquire(region, vehicle, Server.READY_TIMEOUT);
+		if (mapHandle == null) writeError(requestId, BinaryProtocol.ERROR_NOT_READY, -1, "Server non pronto, riprova piu' tardi! (" + mapCatalog.getStatusMessage(region) + ")");
+		return mapHandle;
+	}
+
+	/**
+	 * Get the map of a handle with the vehicle type selected, bound to the cancellation token of the request
+	 * @param mapHandle Handle of the map
+	 * @param vehicle Vehicle type (null for the default vehicle of the map)
+	 * @param cancellation Cancellation token of the request
+	 * @return Geographic Map
+	 * @throws UncorrectQueryException Uncorrect Query Exception (vehicle type not stored into the graph)
+	 */
+	protected static GeographicMap getMap(MapRegistry.Handle mapHandle, AllowedVehicleTypes vehicle, CancellationToken cancellation) throws UncorrectQueryException
+	{
+		GeographicMap map = mapHandle.getMap();
+		return (vehicle == null ? map : map.forVehicle(vehicle)).withCancellation(cancellation);
+	}
+
+	/**
+	 * Solve many lines at once, writing every solution as soon as it is ready
+	 * @param requestId Request id
+	 * @param map Geographic Map
+	 * @param lines Stops of every line, from start to end point
+	 * @throws IOException I/O Exception (connection failed)
+	 */
+	protected void solveBatch(int requestId, GeographicMap map, List<List<String>> lines) throws IOException
+	{
+		//The listener cannot throw I/O exceptions: keep the first one
+		IOException[] failure = new IOException[1];
+		new BatchTspSolver(map).solve(lines, new TspBatchListener()
+		{
+			@Override
+			public void lineSolved(int index, String lineSolution)
+			{
+				if (failure[0] != null) return;
+				try
+				{
+					byte[] bytes = lineSolution.getBytes(StandardCharsets.UTF_8);
+					ByteBuffer frame = BinaryProtocol.createFrame(BinaryProtocol.BATCH_RESULT, version, requestId, 4 + BinaryProtocol.getStringLength(bytes));
+					frame.putInt(index);
+					BinaryProtocol.putString(frame, bytes);
+					writeFrame(frame);
+				}
+				catch (IOException e)
+				{
+					failure[0] = e;
+				}
+			}
+
+			@Override
+			public void lineFailed(int index, Exception e)
+			{
+				if (failure[0] != null) return;
+				try
+				{
+					writeError(requestId, getErrorCode(e), index, Server.getErrorMessage(e));
+				}
+				catch (IOException ioe)
+				{
+					failure[0] = ioe;
+				}
+			}
+		});
+		if (failure[0] != null) throw failure[0];
+	}
+
+	/**
+	 * Get a list of strings from the payload (int count followed by the strings)
+	 * @param payload Payload
+	 * @return List of strings
+	 * @throws UncorrectQueryException Uncorrect Query Exception (count not compatible with the frame length)
+	 */
+	protected static List<String> getStrings(ByteBuffer payload) throws UncorrectQueryException
+	{
+		int count = payload.getInt();
+		if (count < 0 || count > payload.remaining() / 4) throw new UncorrectQueryException();
+		List<String> strings = new ArrayList<String>(count);
+		for (int i = 0; i < count; i++) strings.add(BinaryProtocol.getString(payload));
+		return strings;
+	}
+
+	/**
+	 * Parse vehicle type
+	 * @param name Vehicle type name (e.g. "car")
+	 * @return Vehicle type
+	 * @throws UncorrectQueryException Uncorrect Query Exception (unknown vehicle type)
+	 */
+	protected static AllowedVehicleTypes parseVehicle(String name) throws UncorrectQueryException
+	{
+		try
+		{
+			return AllowedVehicleTypes.valueOf(name.trim().toUpperCase());
+		}
+		catch (IllegalArgumentException e)
+		{
+			throw new UncorrectQueryException();
+		}
+	}
+
+	/**
+	 * Get the error code sent to the client when a request fails with the specified exception
+	 * @param e Exception
+	 * @return Error code
+	 */
+	protected static byte getErrorCode(Exception e)
+	{
+		if (e instanceof UncorrectQueryException) return BinaryProtocol.ERROR_UNCORRECT_QUERY;
+		if (e instanceof NotExistingCoordinatesException) return BinaryProtocol.ERROR_NOT_EXISTING_COORDINATES;
+		if (e instanceof PathNotFoundException) return BinaryProtocol.ERROR_PATH_NOT_FOUND;
+		if (e instanceof NoInstructionsFoundException) return BinaryProtocol.ERROR_NO_INSTRUCTIONS;
+		if (e instanceof CancellationException) return BinaryProtocol.ERROR_TIMEOUT;
+		return BinaryProtocol.ERROR_GENERIC;
+	}
+
+	/**
+	 * Write a frame whose payload is a string
+	 * @param type Frame type
+	 * @param requestId Request id
+	 * @param s String
+	 * @throws IOException I/O Exception (connection failed)
+	 */
+	protected void writeString(byte type, int requestId, String s) throws IOException
+	{
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		ByteBuffer frame = BinaryProtocol.createFrame(type, version, requestId, BinaryProtocol.getStringLength(bytes));
+		BinaryProtocol.putString(frame, bytes);
+		writeFrame(frame);
+	}
+
+	/**
+	 * Write the frame of a tour improved while the TSP search is still running (a failed write is noticed
+	 * by the solution frame)
+	 * @param requestId Request id
+	 * @param iteration Iteration of the search which found the tour
+	 * @param tour Improved tour
+	 */
+	protected void writeProgress(int requestId, int iteration, TspTour tour)
+	{
+		List<byte[]> stops = new ArrayList<byte[]>();
+		int length = 16;
+		for (String stop : tour.getOrderedStops())
+		{
+			byte[] bytes = stop.getBytes(StandardCharsets.UTF_8);
+			stops.add(bytes);
+			length += BinaryProtocol.getStringLength(bytes);
+		}
+		ByteBuffer frame = BinaryProtocol.createFrame(BinaryProtocol.PROGRESS, version, requestId, length);
+		frame.putInt(iteration);
+		frame.putDouble(tour.getDistance());
+		frame.putInt(stops.size());
+		for (byte[] bytes : stops) BinaryProtocol.putString(frame, bytes);
+		try
+		{
+			writeFrame(frame);
+		}
+		catch (IOException e)
+		{
+			log.debug("Progress of " + requestId + " not sent: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Write an error frame
+	 * @param requestId Request id
+	 * @param code Error code
+	 * @param index Index of the failed batch line (-1 if the whole request failed)
+	 * @param message Message
+	 * @throws IOException I/O Exception (connection failed)
+	 */
+	protected void writeError(int requestId, byte code, int index, String message) throws IOException
+	{
+		byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+		ByteBuffer frame = BinaryProtocol.createFrame(BinaryProtocol.ERROR, version, requestId, 5 + BinaryProtocol.getStringLength(bytes));
+		frame.put(code);
+		frame.putInt(index);
+		BinaryProtocol.putString(frame, bytes);
+		writeFrame(frame);
+	}
+
+	/**
+	 * Write the END frame of a request
+	 * @param requestId Request id
+	 * @throws IOException I/O Exception (connection failed)
+	 */
+	protected void writeEnd(int requestId) throws IOException
+	{
+		writeFrame(BinaryProtocol.createFrame(BinaryProtocol.END, version, requestId, 0));
+	}
+
+	/**
+	 * Write a frame and flush it (frames of concurrent requests are never interleaved)
+	 * @param frame Frame (written up to its position)
+	 * @throws IOException I/O Exception (connection failed)
+	 */
+	protected synchronized void writeFrame(ByteBuffer frame) throws IOException
+	{
+		out.write(frame.array(), 0, frame.position());
+		out.flush();
+	}
+}
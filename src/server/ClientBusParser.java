@@ -1,5 +1,7 @@
 package server;
 
+import java.util.ArrayList;
+import java.util.List;
 import test.Bus;
 
 /**
@@ -9,6 +11,11 @@ import test.Bus;
  */
 public class ClientBusParser
 {
+	/**
+	 * Separator between the lines of a batch query
+	 */
+	public static final String LINE_SEPARATOR = "NextLine";
+	
 	/**
 	 * Get Bus object by String query
 	 * @param query String representing bus
@@ -37,4 +44,18 @@ public class ClientBusParser
 		//Return Bus by client query
 		return new Bus(startPoint, endPoint, targetLocations);
 	}
+	
+	/**
+	 * Get list of Bus objects by String query containing several lines,
+	 * separated by LINE_SEPARATOR
+	 * @param query String representing the buses
+	 * @return List of Bus objects by String query
+	 * @throws NoSpecifiedJobsException No Specified Jobs Exception
+	 */
+	public static List<Bus> parseAll(String query) throws NoSpecifiedJobsException
+	{
+		List<Bus> buses = new ArrayList<Bus>();
+		for (String line : query.split(LINE_SEPARATOR + "\n")) buses.add(parse(line));
+		return buses;
+	}
 }
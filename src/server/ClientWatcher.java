@@ -0,0 +1,129 @@
+package server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import core.CancellationToken;
+
+/**
+ * Client Watcher: while a text request is calculated the client only waits for the response, so the end of
+ * its input stream means it went away. The watcher polls the input stream and cancels the request as soon as
+ * this happens, so that routing and solving stop instead of working for nobody
+ * @author Francesco Raco
+ */
+public class ClientWatcher extends Thread
+{
+	/**
+	 * Time (milliseconds) between 2 checks of the input stream
+	 */
+	public static final int POLL_INTERVAL = 200;
+
+	/**
+	 * Max number of bytes sent early by the client that the watcher looks past (a client sending more is alive anyway)
+	 */
+	public static final int MAX_EARLY_BYTES = 64 * 1024;
+
+	/**
+	 * Socket of the connection
+	 */
+	protected Socket socket;
+
+	/**
+	 * Input stream of the connection (it must support mark, so that bytes sent by the client are not lost)
+	 */
+	protected InputStream in;
+
+	/**
+	 * Cancellation token of the request
+	 */
+	protected CancellationToken cancellation;
+
+	/**
+	 * True once the request has been answered
+	 */
+	protected volatile boolean stopped;
+
+	/**
+	 * Create watcher by connection and cancellation token of the request
+	 * @param socket Socket of the connection
+	 * @param in Input stream of the connection (it must support mark)
+	 * @param cancellation Cancellation token of the request
+	 */
+	public ClientWatcher(Socket socket, InputStream in, CancellationToken cancellation)
+	{
+		super("client-watcher");
+		this.socket = socket;
+		this.in = in;
+		this.cancellation = cancellation;
+		setDaemon(true);
+	}
+
+	/**
+	 * Poll the input stream until the request is answered, cancelled or its deadline passes
+	 */
+	public void run()
+	{
+		try
+		{
+			socket.setSoTimeout(POLL_INTERVAL);
+			while (!stopped && !cancellation.isCancelled())
+			{
+				//Bytes sent early by the client are kept for the next request: the end of stream is looked for past them
+				int early = in.available();
+				if (early > MAX_EARLY_BYTES)
+				{
+					Thread.sleep(POLL_INTERVAL);
+					continue;
+				}
+				in.mark(early + 1);
+				try
+				{
+					long skipped = 0;
+					for (long n; skipped < early && (n = in.skip(early - skipped)) > 0;) skipped += n;
+
+					//End of stream: the client closed the connection
+					if (in.read() < 0)
+					{
+						Server.log.debug("Client disconnected: request cancelled");
+						cancellation.cancel();
+						return;
+					}
+
+					//Otherwise the client sent something more: the connection is alive, keep polling
+				}
+				catch (SocketTimeoutException e) {}
+				finally
+				{
+					in.reset();
+				}
+			}
+		}
+		catch (IOException e)
+		{
+			cancellation.cancel();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Stop watching (once the request has been answered) and restore blocking reads of the connection
+	 */
+	public void close()
+	{
+		stopped = true;
+		try
+		{
+			join();
+			socket.setSoTimeout(0);
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		catch (IOException e) {}
+	}
+}
@@ -0,0 +1,336 @@
+package server;
+
+import java.security.SecureRandom;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.apache.log4j.Logger;
+import core.CancellationToken;
+
+/**
+ * Job Manager: runs heavy requests asynchronously. Submitting a job returns its id at once, then the client
+ * polls its status, fetches its result or cancels it (also from another connection). Jobs run on a bounded
+ * executor and finished jobs are kept until their time to live expires
+ * @author Francesco Raco
+ */
+public class JobManager
+{
+	/**
+	 * Logger for configuring which message types are written
+	 */
+	public final static Logger log = Logger.getLogger("JobManager");
+
+	/**
+	 * Status of a job
+	 */
+	public enum Status
+	{
+		QUEUED, RUNNING, DONE, FAILED, CANCELLED;
+	}
+
+	/**
+	 * Task of a job: it calculates the result, stopping as soon as the token is cancelled
+	 */
+	public interface Task
+	{
+		/**
+		 * Calculate the result of the job
+		 * @param cancellation Cancellation token of the job
+		 * @return Result sent to the client
+		 * @throws Exception Exception (its message for the client is chosen by Server.getErrorMessage)
+		 */
+		String run(CancellationToken cancellation) throws Exception;
+	}
+
+	/**
+	 * Job: status, result and cancellation token of a submitted task
+	 */
+	public static class Job
+	{
+		/**
+		 * Job id
+		 */
+		private final String id;
+
+		/**
+		 * Time (milliseconds) the job may run
+		 */
+		private final long timeout;
+
+		/**
+		 * Admission ticket of the job (null if not subject to admission control): its lane is held until the job ends
+		 */
+		private final AdmissionController.Ticket ticket;
+
+		/**
+		 * Cancellation token of the job (null until it starts running, so that waiting in the queue does not use its time)
+		 */
+		private CancellationToken cancellation;
+
+		/**
+		 * Status of the job
+		 */
+		private volatile Status status = Status.QUEUED;
+
+		/**
+		 * Result of the job (null until done)
+		 */
+		private volatile String result;
+
+		/**
+		 * Message of the failure (null unless failed)
+		 */
+		private volatile String errorMessage;
+
+		/**
+		 * Time (milliseconds) the job ended (0 until it ends)
+		 */
+		private volatile long endTime;
+
+		/**
+		 * Future of the job (null until submitted)
+		 */
+		private Future<?> future;
+
+		/**
+		 * Create job by id, time it may run and admission ticket
+		 * @param id Job id
+		 * @param timeout Time (milliseconds) the job may run
+		 * @param ticket Admission ticket of the job (null if not subject to admission control)
+		 */
+		protected Job(String id, long timeout, AdmissionController.Ticket ticket)
+		{
+			this.id = id;
+			this.timeout = timeout;
+			this.ticket = ticket;
+		}
+
+		/**
+		 * Get job id
+		 * @return Job id
+		 */
+		public String getId()
+		{
+			return id;
+		}
+
+		/**
+		 * Get status of the job
+		 * @return Status of the job
+		 */
+		public Status getStatus()
+		{
+			return status;
+		}
+
+		/**
+		 * Get result of the job
+		 * @return Result of the job (null unless done)
+		 */
+		public String getResult()
+		{
+			return result;
+		}
+
+		/**
+		 * Get message of the failure
+		 * @return Message of the failure (null unless failed)
+		 */
+		public String getErrorMessage()
+		{
+			return errorMessage;
+		}
+
+		/**
+		 * Set the final status of the job (a cancelled job keeps its status)
+		 * @param status Final status
+		 * @param result Result (null unless done)
+		 * @param errorMessage Message of the failure (null unless failed)
+		 */
+		protected synchronized void end(Status status, String result, String errorMessage)
+		{
+			if (this.status == Status.CANCELLED) return;
+			this.result = result;
+			this.errorMessage = errorMessage;
+			this.status = status;
+			endTime = System.currentTimeMillis();
+		}
+
+		/**
+		 * Release the lane of the job (once it ends, is cancelled before running or is rejected)
+		 */
+		protected void releaseTicket()
+		{
+			if (ticket != null) ticket.close();
+		}
+
+		/**
+		 * Get a String representation of the status (sent to the client)
+		 * @return String representation of the status
+		 */
+		public String getStatusMessage()
+		{
+			return "JOB " + id + " " + status;
+		}
+	}
+
+	/**
+	 * Jobs by id (finished jobs are removed once their time to live expires)
+	 */
+	protected Map<String, Job> jobs = new ConcurrentHashMap<String, Job>();
+
+	/**
+	 * Executor running the jobs
+	 */
+	protected ThreadPoolExecutor executor;
+
+	/**
+	 * Time (milliseconds) a finished job is kept
+	 */
+	protected long timeToLive;
+
+	/**
+	 * Random generator of the job ids
+	 */
+	protected SecureRandom random = new SecureRandom();
+
+	/**
+	 * Create job manager by number of threads, queue capacity and time to live of the results
+	 * @param threads Number of jobs running at the same time
+	 * @param queueCapacity Max number of jobs waiting for a thread (further jobs are rejected)
+	 * @param timeToLive Time (milliseconds) a finished job is kept
+	 */
+	public JobManager(int threads, int queueCapacity, long timeToLive)
+	{
+		this.timeToLive = timeToLive;
+
+		//Daemon threads do not prevent the server from shutting down
+		executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(queueCapacity), r ->
+		{
+			Thread t = new Thread(r, "job");
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	/**
+	 * Submit a job already admitted into the lane of its cost class
+	 * @param task Task of the job
+	 * @param timeout Time (milliseconds) the job may run once started: then its token expires, as for a request
+	 * @param ticket Admission ticket of the job (null if not subject to admission control): it is closed when the job
+	 * ends, when it is cancelled before running or at once if the queue is full
+	 * @return Job (null if the queue is full)
+	 */
+	public Job submit(Task task, long timeout, AdmissionController.Ticket ticket)
+	{
+		removeExpiredJobs();
+
+		//Ids are 64 random bits, so other clients cannot guess them to fetch or cancel a job
+		Job job = new Job(Long.toUnsignedString(random.nextLong(), 36), timeout, ticket);
+		jobs.put(job.id, job);
+		try
+		{
+			synchronized (job)
+			{
+				job.future = executor.submit(() -> run(job, task));
+			}
+		}
+		catch (RejectedExecutionException e)
+		{
+			jobs.remove(job.id);
+			job.releaseTicket();
+			return null;
+		}
+		return job;
+	}
+
+	/**
+	 * Run a job
+	 * @param job Job
+	 * @param task Task of the job
+	 */
+	protected void run(Job job, Task task)
+	{
+		CancellationToken cancellation;
+		synchronized (job)
+		{
+			if (job.status == Status.CANCELLED)
+			{
+				job.releaseTicket();
+				return;
+			}
+			job.status = Status.RUNNING;
+			cancellation = job.cancellation = new CancellationToken(job.timeout);
+		}
+		try
+		{
+			job.end(Status.DONE, task.run(cancellation), null);
+		}
+		catch (Exception e)
+		{
+			job.end(Status.FAILED, null, Server.getErrorMessage(e));
+		}
+		finally
+		{
+			//A job broken by an error must not look running forever
+			if (job.status == Status.RUNNING) job.end(Status.FAILED, null, "Non sono riuscito a processare la tua richiesta!");
+			job.releaseTicket();
+		}
+		log.debug(job.getStatusMessage());
+	}
+
+	/**
+	 * Get a job
+	 * @param id Job id
+	 * @return Job (null if unknown or expired)
+	 */
+	public Job getJob(String id)
+	{
+		removeExpiredJobs();
+		return jobs.get(id);
+	}
+
+	/**
+	 * Cancel a job: a queued job never runs, a running job stops its search at the end of the current iteration
+	 * @param id Job id
+	 * @return Job (null if unknown or expired)
+	 */
+	public Job cancel(String id)
+	{
+		Job job = getJob(id);
+		if (job == null) return null;
+		synchronized (job)
+		{
+			if (job.status != Status.QUEUED && job.status != Status.RUNNING) return job;
+
+			//A queued job never runs: its lane is released now, a running job releases it when its search stops
+			if (job.status == Status.QUEUED) job.releaseTicket();
+			job.status = Status.CANCELLED;
+			job.endTime = System.currentTimeMillis();
+			if (job.cancellation != null) job.cancellation.cancel();
+			if (job.future != null) job.future.cancel(false);
+		}
+
+		//Free the queue at once
+		executor.purge();
+		return job;
+	}
+
+	/**
+	 * Remove the finished jobs whose time to live expired
+	 */
+	protected void removeExpiredJobs()
+	{
+		long now = System.currentTimeMillis();
+		for (Iterator<Job> it = jobs.values().iterator(); it.hasNext();)
+		{
+			Job job = it.next();
+			if (job.endTime > 0 && now - job.endTime > timeToLive) it.remove();
+		}
+	}
+}
@@ -0,0 +1,201 @@
+package server;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import org.apache.log4j.Logger;
+import core.AllowedVehicleTypes;
+import core.GeographicMap;
+import core.UncorrectQueryException;
+
+/**
+ * Map Catalog: registries of the Geographic Maps served by this process, keyed by region name.
+ * Maps are loaded by the first request of their region, shared by all the connections and unloaded
+ * (least recently used first) when the loaded graphs exceed the memory budget. Every map carries
+ * the vehicle types of its graph, selected per request by forVehicle
+ * @author Francesco Raco
+ */
+public class MapCatalog
+{
+	/**
+	 * Logger for configuring which message types are written
+	 */
+	public final static Logger log = Logger.getLogger("MapCatalog");
+
+	/**
+	 * Registries by region name (lower case)
+	 */
+	protected Map<String, MapRegistry> registries = new LinkedHashMap<String, MapRegistry>();
+
+	/**
+	 * Region served when the request does not choose one
+	 */
+	protected String defaultRegion;
+
+	/**
+	 * Max total size (bytes) of the loaded graphs
+	 */
+	protected long memoryBudget;
+
+	/**
+	 * Create catalog by memory budget
+	 * @param memoryBudget Max total size (bytes) of the loaded graphs (the most recently used map is never unloaded)
+	 */
+	public MapCatalog(long memoryBudget)
+	{
+		this.memoryBudget = memoryBudget;
+	}
+
+	/**
+	 * Create catalog serving only a map which is already loaded (never unloaded)
+	 * @param region Region name
+	 * @param map Geographic Map
+	 * @return Catalog
+	 */
+	public static MapCatalog of(String region, GeographicMap map)
+	{
+		MapCatalog catalog = new MapCatalog(Long.MAX_VALUE);
+		catalog.register(region, new MapRegistry(map));
+		return catalog;
+	}
+
+	/**
+	 * Register a region loaded lazily by the specified factory
+	 * @param region Region name (the first one registered is the default region)
+	 * @param mapFactory Factory of the Geographic Map
+	 * @param warmUpPoints Start and end point of a best path calculated once the graph is loaded (none for no warm-up)
+	 * @return Registry of the region
+	 */
+	public MapRegistry register(String region, Callable<GeographicMap> mapFactory, String... warmUpPoints)
+	{
+		return register(region, new MapRegistry(new MapLoader(mapFactory, warmUpPoints)));
+	}
+
+	/**
+	 * Register a region served by the specified registry
+	 * @param region Region name (the first one registered is the default region)
+	 * @param registry Registry of the region
+	 * @return Registry of the region
+	 */
+	public synchronized MapRegistry register(String region, MapRegistry registry)
+	{
+		registries.put(region.toLowerCase(), registry);
+		if (defaultRegion == null) defaultRegion = region.toLowerCase();
+		return registry;
+	}
+
+	/**
+	 * Set region served when the request does not choose one
+	 * @param region Region name
+	 * @throws UncorrectQueryException Uncorrect Query Exception (region not registered)
+	 */
+	public synchronized void setDefaultRegion(String region) throws UncorrectQueryException
+	{
+		if (!registries.containsKey(region.toLowerCase())) throw new UncorrectQueryException();
+		defaultRegion = region.toLowerCase();
+	}
+
+	/**
+	 * Get registry of a region
+	 * @param region Region name (null for the default region)
+	 * @return Registry of the region
+	 * @throws UncorrectQueryException Uncorrect Query Exception (region not registered)
+	 */
+	public synchronized MapRegistry getRegistry(String region) throws UncorrectQueryException
+	{
+		MapRegistry registry = registries.get(region == null ? defaultRegion : region.toLowerCase());
+		if (registry == null) throw new UncorrectQueryException();
+		return registry;
+	}
+
+	/**
+	 * Acquire the map of a region (loading it, if not loaded yet) and select the vehicle type
+	 * @param region Region name (null for the default region)
+	 * @param vehicle Vehicle type (null for the default vehicle of the map)
+	 * @param timeout Max waiting time in milliseconds while the map is loading
+	 * @return Handle of the map (null if not ready yet): it must be closed when the request ends
+	 * @throws UncorrectQueryException Uncorrect Query Exception (region not registered or vehicle type not in its graph)
+	 */
+	public MapRegistry.Handle acquire(String region, AllowedVehicleTypes vehicle, long timeout) throws UncorrectQueryException
+	{
+		MapRegistry registry = getRegistry(region);
+		MapRegistry.Handle handle = registry.acquire(timeout);
+		if (handle == null) return null;
+
+		//Keep the loaded graphs within the memory budget
+		enforceMemoryBudget(registry);
+
+		//Check the vehicle type before the request starts
+		if (vehicle != null)
+		{
+			try
+			{
+				handle.getMap().forVehicle(vehicle);
+			}
+			catch (UncorrectQueryException e)
+			{
+				handle.close();
+				throw e;
+			}
+		}
+		return handle;
+	}
+
+	/**
+	 * Unload least recently used maps until the loaded graphs fit the memory budget
+	 * @param inUse Registry of the map just acquired (never unloaded)
+	 */
+	protected void enforceMemoryBudget(MapRegistry inUse)
+	{
+		//Loaded registries, least recently used first
+		List<MapRegistry> loaded = new ArrayList<MapRegistry>();
+		synchronized (this)
+		{
+			for (MapRegistry registry : registries.values()) if (registry.isLoaded()) loaded.add(registry);
+		}
+		loaded.sort(Comparator.comparingLong(MapRegistry::getLastUsed));
+
+		//Total size of the loaded graphs
+		long total = 0;
+		for (MapRegistry registry : loaded) total += getGraphSize(registry.getLoadedMap());
+
+		for (MapRegistry registry : loaded)
+		{
+			if (total <= memoryBudget) break;
+			if (registry == inUse) continue;
+			long size = getGraphSize(registry.getLoadedMap());
+			if (registry.unload()) total -= size;
+		}
+	}
+
+	/**
+	 * Estimate memory used by a map: size of its graph files
+	 * @param map Geographic Map (null if unloaded meanwhile)
+	 * @return Size of the graph files (bytes)
+	 */
+	protected static long getGraphSize(GeographicMap map)
+	{
+		if (map == null || map.getGraphLocation() == null) return 0;
+
+		//Only the files of the graph itself (not the directories of other graphs stored inside it)
+		long size = 0;
+		File[] files = new File(map.getGraphLocation()).listFiles();
+		if (files != null) for (File file : files) if (file.isFile()) size += file.length();
+		return size;
+	}
+
+	/**
+	 * Get a String representation of the loading status of a region (sent to the client)
+	 * @param region Region name (null for the default region)
+	 * @return String representation of the loading status
+	 * @throws UncorrectQueryException Uncorrect Query Exception (region not registered)
+	 */
+	public String getStatusMessage(String region) throws UncorrectQueryException
+	{
+		return getRegistry(region).getStatusMessage();
+	}
+}
@@ -0,0 +1,197 @@
+package server;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.apache.log4j.Logger;
+import core.GeographicMap;
+import test.Test;
+
+/**
+ * Map Loader: build the Geographic Map (graph import or load + warm-up) in background,
+ * so the server listens for clients while the map is not ready yet
+ * @author Francesco Raco
+ */
+public class MapLoader extends Thread
+{
+	/**
+	 * Logger for configuring which message types are written
+	 */
+	public final static Logger log = Logger.getLogger("MapLoader");
+
+	/**
+	 * Loading phases
+	 */
+	public enum Phase
+	{
+		WAITING, LOADING_GRAPH, WARMING_UP, READY, FAILED
+	}
+
+	/**
+	 * Factory of the Geographic Map (e.g. Italy::new)
+	 */
+	protected Callable<GeographicMap> mapFactory;
+
+	/**
+	 * Start and end point of a best path calculated once the graph is loaded (null for no warm-up)
+	 */
+	protected String[] warmUpPoints;
+
+	/**
+	 * Current phase
+	 */
+	protected volatile Phase phase = Phase.WAITING;
+
+	/**
+	 * Geographic Map (null until ready)
+	 */
+	protected volatile GeographicMap map;
+
+	/**
+	 * Exception thrown while loading (null if none)
+	 */
+	protected volatile Exception failure;
+
+	/**
+	 * Time when loading started (milliseconds)
+	 */
+	protected volatile long startTime;
+
+	/**
+	 * Time when loading ended (milliseconds, 0 until it ends)
+	 */
+	protected volatile long endTime;
+
+	/**
+	 * Latch opened when loading ends (ready or failed)
+	 */
+	protected CountDownLatch loaded = new CountDownLatch(1);
+
+	/**
+	 * Create loader by map factory and warm-up points
+	 * @param mapFactory Factory of the Geographic Map
+	 * @param warmUpPoints Start and end point of a best path calculated once the graph is loaded (none for no warm-up)
+	 */
+	public MapLoader(Callable<GeographicMap> mapFactory, String... warmUpPoints)
+	{
+		super("MapLoader");
+		setDaemon(true);
+		this.mapFactory = mapFactory;
+		this.warmUpPoints = warmUpPoints.length == 2 ? warmUpPoints : null;
+	}
+
+	/**
+	 * Create loader of a map which is already loaded
+	 * @param map Geographic Map
+	 * @return Ready loader
+	 */
+	public static MapLoader ofLoaded(GeographicMap map)
+	{
+		MapLoader loader = new MapLoader(() -> map);
+		loader.map = map;
+		loader.phase = Phase.READY;
+		loader.loaded.countDown();
+		return loader;
+	}
+
+	/**
+	 * Load the map: import or load the graph, then warm up geocoding and routing
+	 */
+	@Override
+	public void run()
+	{
+		startTime = System.currentTimeMillis();
+		try
+		{
+			//Import or load the graph
+			phase = Phase.LOADING_GRAPH;
+			GeographicMap loadedMap = mapFactory.call();
+
+			//The first requests are slow (cold geocoder, graph pages and JIT): pay it here
+			phase = Phase.WARMING_UP;
+			if (warmUpPoints != null)
+			{
+				try
+				{
+					Test.getGraphHopperAlgorithmSolutionInfo(loadedMap, warmUpPoints[0], warmUpPoints[1]);
+				}
+				catch (Exception e)
+				{
+					log.warn("Warm-up failed: " + e);
+				}
+			}
+
+			map = loadedMap;
+			phase = Phase.READY;
+			log.info("Map ready in " + (System.currentTimeMillis() - startTime) + "ms");
+		}
+		catch (Exception e)
+		{
+			failure = e;
+			phase = Phase.FAILED;
+			log.error("Map loading failed", e);
+		}
+		finally
+		{
+			endTime = System.currentTimeMillis();
+			loaded.countDown();
+		}
+	}
+
+	/**
+	 * Get the map, waiting at most the specified time while it is loading
+	 * @param timeout Max waiting time in milliseconds (0 for no waiting)
+	 * @return Geographic Map (null if not ready yet or failed)
+	 */
+	public GeographicMap awaitMap(long timeout)
+	{
+		try
+		{
+			loaded.await(timeout, TimeUnit.MILLISECONDS);
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		return map;
+	}
+
+	/**
+	 * Check if the map is ready
+	 * @return True if the map is ready
+	 */
+	public boolean isReady()
+	{
+		return phase == Phase.READY;
+	}
+
+	/**
+	 * Get current phase
+	 * @return Current phase
+	 */
+	public Phase getPhase()
+	{
+		return phase;
+	}
+
+	/**
+	 * Get a String representation of the loading status (sent to the client)
+	 * @return String representation of the loading status
+	 */
+	public String getStatusMessage()
+	{
+		//Seconds since loading started
+		long seconds = startTime == 0 ? 0 : (System.currentTimeMillis() - startTime) / 1000;
+
+		switch(phase)
+		{
+			case LOADING_GRAPH: return "STATUS LOADING_GRAPH " + seconds + "s: caricamento del grafo in corso";
+			case WARMING_UP: return "STATUS WARMING_UP " + seconds + "s: preparazione del server in corso";
+			case READY: return "STATUS READY: server pronto";
+			case FAILED: return "STATUS FAILED: caricamento della mappa fallito (" + failure + ")";
+
+			//case WAITING:
+			default: return "STATUS WAITING: caricamento non ancora iniziato";
+		}
+	}
+}
@@ -0,0 +1,406 @@
+package server;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.log4j.Logger;
+import core.GeographicMap;
+import core.StorageMode;
+
+/**
+ * Map Registry: hold the Geographic Map serving new requests and replace it without downtime
+ * (hot reload): the new map is built in background, then atomically swapped in; requests
+ * already running keep the old map, which is closed as soon as the last one releases it
+ * @author Francesco Raco
+ */
+public class MapRegistry
+{
+	/**
+	 * Logger for configuring which message types are written
+	 */
+	public final static Logger log = Logger.getLogger("MapRegistry");
+
+	/**
+	 * Min time (milliseconds) between a failed load of the first map and the next attempt started by a request
+	 */
+	public static final long RETRY_DELAY = 60 * 1000;
+
+	/**
+	 * Handle of a map acquired by a request: close it (release the map) when the request ends
+	 */
+	public static class Handle implements AutoCloseable
+	{
+		/**
+		 * Registry entry of the map
+		 */
+		protected Entry entry;
+
+		/**
+		 * Create handle by registry entry
+		 * @param entry Registry entry of the map
+		 */
+		protected Handle(Entry entry)
+		{
+			this.entry = entry;
+		}
+
+		/**
+		 * Get the map acquired
+		 * @return Geographic Map
+		 */
+		public GeographicMap getMap()
+		{
+			return entry.map;
+		}
+
+		/**
+		 * Release the map
+		 */
+		@Override
+		public void close()
+		{
+			entry.release();
+		}
+	}
+
+	/**
+	 * Registry entry: map with the number of requests using it
+	 */
+	protected static class Entry
+	{
+		/**
+		 * Geographic Map
+		 */
+		protected GeographicMap map;
+
+		/**
+		 * Number of requests using the map
+		 */
+		protected AtomicInteger users = new AtomicInteger();
+
+		/**
+		 * True once the map has been replaced (no new request acquires it)
+		 */
+		protected volatile boolean retired;
+
+		/**
+		 * True if the graph files are deleted when the map is closed
+		 */
+		protected volatile boolean deleteFiles;
+
+		/**
+		 * True once the map has been closed
+		 */
+		protected AtomicBoolean closed = new AtomicBoolean();
+
+		/**
+		 * Create entry by map
+		 * @param map Geographic Map
+		 */
+		protected Entry(GeographicMap map)
+		{
+			this.map = map;
+		}
+
+		/**
+		 * Release the map: the last request releasing a retired map closes it
+		 */
+		protected void release()
+		{
+			if (users.decrementAndGet() == 0 && retired) closeMap();
+		}
+
+		/**
+		 * Retire the map: it is closed now if no request is using it, otherwise by the last release
+		 * @param deleteFiles True to delete the graph files when the map is closed
+		 */
+		protected void retire(boolean deleteFiles)
+		{
+			this.deleteFiles = deleteFiles;
+			retired = true;
+			if (users.get() == 0) closeMap();
+		}
+
+		/**
+		 * Close the map (only once), deleting its graph files if they belong to a replaced extract
+		 */
+		protected void closeMap()
+		{
+			if (!closed.compareAndSet(false, true)) return;
+			map.close();
+			log.info("Map released: " + map.getGraphLocation());
+			if (deleteFiles) deleteDirectory(new File(map.getGraphLocation()));
+		}
+	}
+
+	/**
+	 * Loader of the first map, or of the map loaded again after unload (its status is reported until a map is available)
+	 */
+	protected volatile MapLoader loader;
+
+	/**
+	 * Loader of the map replacing the current one (null if no reload is running)
+	 */
+	protected volatile MapLoader reloader;
+
+	/**
+	 * Entry of the map serving new requests (null until the first map is loaded)
+	 */
+	protected volatile Entry current;
+
+	/**
+	 * Time of the last acquire (milliseconds)
+	 */
+	protected volatile long lastUsed;
+
+	/**
+	 * True once the graph directories left by previous runs have been deleted (by the first map published)
+	 */
+	protected boolean staleDirectoriesDeleted;
+
+	/**
+	 * Create registry by loader of the first map (started by the caller, or by the first acquire)
+	 * @param loader Loader of the first map
+	 */
+	public MapRegistry(MapLoader loader)
+	{
+		this.loader = loader;
+	}
+
+	/**
+	 * Create registry by a map which is already loaded
+	 * @param map Geographic Map
+	 */
+	public MapRegistry(GeographicMap map)
+	{
+		this(MapLoader.ofLoaded(map));
+	}
+
+	/**
+	 * Acquire the map serving new requests, waiting at most the specified time while the first map is loading
+	 * @param timeout Max waiting time in milliseconds
+	 * @return Handle of the map (null if not ready yet): it must be closed when the request ends
+	 */
+	public Handle acquire(long timeout)
+	{
+		lastUsed = System.currentTimeMillis();
+		
+		//Publish the first map once loaded (the loader is started by the first acquire, if not yet started)
+		if (current == null)
+		{
+			MapLoader firstLoader = start();
+			GeographicMap map = firstLoader.awaitMap(timeout);
+			if (map == null) return null;
+			boolean first = false;
+			synchronized (this)
+			{
+				if (current == null && loader == firstLoader)
+				{
+					current = new Entry(map);
+					first = !staleDirectoriesDeleted;
+					staleDirectoriesDeleted = true;
+				}
+				if (current == null) return null;
+			}
+
+			//No other map of this registry exists yet, so older extracts and graphs imported with older changes
+			//(left by a run of the server stopped before they were retired) are not used by anybody
+			if (first && map.getStorageMode() != StorageMode.MMAP_READ_ONLY) deleteStaleDirectories(new File(map.getGraphLocation()));
+		}
+
+		//Retry if the map has been replaced (or unloaded) meanwhile
+		while (true)
+		{
+			Entry entry = current;
+			if (entry == null) return acquire(timeout);
+			entry.users.incrementAndGet();
+			if (!entry.retired) return new Handle(entry);
+			entry.release();
+		}
+	}
+
+	/**
+	 * Start loading the first map (nothing is done if already started); a failed load is retried by a new loader,
+	 * at most once every RETRY_DELAY, so that requests do not import the graph over and over
+	 * @return Loader of the first map
+	 */
+	public synchronized MapLoader start()
+	{
+		if (loader.getPhase() == MapLoader.Phase.FAILED && System.currentTimeMillis() - loader.endTime >= RETRY_DELAY) loader = createLoader();
+		if (loader.getState() == Thread.State.NEW && !loader.isReady()) loader.start();
+		return loader;
+	}
+
+	/**
+	 * Create a new loader of the map (same factory and warm-up points as the current one)
+	 * @return Loader, not started yet
+	 */
+	protected MapLoader createLoader()
+	{
+		return new MapLoader(loader.mapFactory, loader.warmUpPoints == null ? new String[0] : loader.warmUpPoints);
+	}
+
+	/**
+	 * Unload the map: it is closed as soon as the running requests release it, and loaded again by the next acquire
+	 * @return True if the map has been unloaded, false if it is not loaded or a reload is running
+	 */
+	public boolean unload()
+	{
+		Entry old;
+		synchronized (this)
+		{
+			old = current;
+			if (old == null || reloader != null) return false;
+			current = null;
+			loader = createLoader();
+		}
+		log.info("Map unloaded: " + old.map.getGraphLocation());
+		old.retire(false);
+		return true;
+	}
+
+	/**
+	 * Check if the map is loaded
+	 * @return True if the map is loaded
+	 */
+	public boolean isLoaded()
+	{
+		return current != null;
+	}
+
+	/**
+	 * Get the map currently loaded, without acquiring it
+	 * @return Geographic Map (null if not loaded)
+	 */
+	public GeographicMap getLoadedMap()
+	{
+		Entry entry = current;
+		return entry == null ? null : entry.map;
+	}
+
+	/**
+	 * Get time of the last acquire
+	 * @return Time of the last acquire (milliseconds)
+	 */
+	public long getLastUsed()
+	{
+		return lastUsed;
+	}
+
+	/**
+	 * Build a new map in background (same factory as the first one, which imports the OpenStreetMap file
+	 * again if it changed) and swap it in for new requests; if loading the first map failed, it is loaded again at once
+	 * @return True if the reload started, false if the first map is still loading or a reload is already running
+	 */
+	public synchronized boolean reload()
+	{
+		//A failed first map is loaded again by a new loader
+		if (current == null && loader.getPhase() == MapLoader.Phase.FAILED)
+		{
+			loader = createLoader();
+			loader.start();
+			return true;
+		}
+
+		//Only one reload at a time, after the first map is ready
+		if (reloader != null || current == null) return false;
+
+		//The reloader runs in a registry thread, so the swap happens right after it ends
+		MapLoader newLoader = createLoader();
+		reloader = newLoader;
+		Thread reloadThread = new Thread(() ->
+		{
+			newLoader.run();
+			swap(newLoader.awaitMap(0));
+		}, "MapReloader");
+		reloadThread.setDaemon(true);
+		reloadThread.start();
+		return true;
+	}
+
+	/**
+	 * Swap the new map in (nothing is swapped if it failed) and retire the old one
+	 * @param map New Geographic Map (null if reload failed)
+	 */
+	protected void swap(GeographicMap map)
+	{
+		Entry old;
+		synchronized (this)
+		{
+			//Reload ended
+			old = current;
+			if (map != null && old != null && map != old.map) current = new Entry(map);
+			else old = null;
+			reloader = null;
+		}
+
+		if (old == null)
+		{
+			log.warn("Map reload failed: the current map keeps serving requests");
+			return;
+		}
+		log.info("Map reloaded: " + map.getGraphLocation());
+
+		//Graph files of a replaced extract (or of a graph imported again with older OpenStreetMap changes) are not needed
+		//anymore once the old map is closed, unless the new graph is stored inside them
+		File oldLocation = new File(old.map.getGraphLocation());
+		boolean replaced = !(map.getGraphLocation() + File.separator).startsWith(oldLocation.getPath() + File.separator);
+		old.retire(replaced && (oldLocation.getName().startsWith("extract-") || oldLocation.getName().startsWith("changes-")));
+	}
+
+	/**
+	 * Delete the "extract-" and "changes-" directories of a graph which are not on the path of its current location
+	 * @param location Current location of the graph: its base directory, an "extract-" directory of it
+	 * or a "changes-" directory of one of them
+	 */
+	protected static void deleteStaleDirectories(File location)
+	{
+		File graph = location.getName().startsWith("changes-") ? location.getParentFile() : location;
+		File base = graph.getName().startsWith("extract-") ? graph.getParentFile() : graph;
+		deleteStaleDirectories(base, "extract-", graph);
+		deleteStaleDirectories(base, "changes-", location);
+		if (graph != base) deleteStaleDirectories(graph, "changes-", location);
+	}
+
+	/**
+	 * Delete the subdirectories of a directory whose name starts with a prefix, except the current one
+	 * @param directory Parent directory
+	 * @param prefix Prefix of the names of the subdirectories to be deleted
+	 * @param current Current subdirectory (kept)
+	 */
+	protected static void deleteStaleDirectories(File directory, String prefix, File current)
+	{
+		File[] files = directory.listFiles();
+		if (files != null) for (File file : files)
+		{
+			if (!file.isDirectory() || !file.getName().startsWith(prefix) || file.equals(current)) continue;
+			log.info("Stale graph directory deleted: " + file);
+			deleteDirectory(file);
+		}
+	}
+
+	/**
+	 * Delete a directory and all its files
+	 * @param directory Directory to be deleted
+	 */
+	protected static void deleteDirectory(File directory)
+	{
+		File[] files = directory.listFiles();
+		if (files != null) for (File file : files)
+		{
+			if (file.isDirectory()) deleteDirectory(file);
+			else file.delete();
+		}
+		directory.delete();
+	}
+
+	/**
+	 * Get a String representation of the loading status (sent to the client)
+	 * @return String representation of the loading status
+	 */
+	public String getStatusMessage()
+	{
+		MapLoader running = reloader;
+		return loader.getStatusMessage() + (running == null ? "" : " (ricaricamento della mappa: " + running.getStatusMessage() + ")");
+	}
+}
@@ -1,24 +1,40 @@
 package server;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.CancellationException;
 import org.apache.log4j.Logger;
+import core.AllowedVehicleTypes;
+import core.CancellationToken;
 import core.GeographicMap;
+import core.GeometryDetail;
 import core.NoInstructionsFoundException;
 import core.NotExistingCoordinatesException;
 import core.PathNotFoundException;
+import core.ResponseFormat;
+import core.SolverPortfolio;
+import core.StorageMode;
+import core.StructuredResponse;
+import core.TspBatchListener;
+import core.TspProgressListener;
 import core.UncorrectQueryException;
 import test.Bus;
 import test.Italy;
 import test.NoStopsFoundException;
+import test.Rome;
 import test.Test;
+import test.busExamples.Bus716Rome;
 
 /**
  * Server
@@ -43,7 +59,47 @@ public class Server extends Thread
     protected Socket socket;
 	
 	/**
-	 * Geographic Map
+	 * Max time (milliseconds) a compute request waits for the map still loading before being rejected
+	 */
+    public static final long READY_TIMEOUT = 10000;
+
+	/**
+	 * Time limit (milliseconds) of every run of the solver portfolio, when enabled
+	 */
+    public static final long PORTFOLIO_TIME_LIMIT = 10000;
+
+	/**
+	 * Default time (milliseconds) a request may run: then geocoding and routing are aborted, the TSP search returns the best tour so far
+	 */
+    public static final long REQUEST_TIMEOUT = 2 * 60 * 1000;
+
+	/**
+	 * Max time (milliseconds) a client may ask a request to run
+	 */
+    public static final long MAX_REQUEST_TIMEOUT = 10 * 60 * 1000;
+
+	/**
+	 * Catalog shared by the connections created without maps (Italy is its only region)
+	 */
+    protected static MapCatalog defaultCatalog;
+
+	/**
+	 * Catalog of the Geographic Maps (maps are built in background, shared by all the connections and can be hot reloaded)
+	 */
+    protected MapCatalog mapCatalog;
+
+	/**
+	 * Region requested by the client (null for the default region of the catalog)
+	 */
+    protected String region;
+
+	/**
+	 * Handle of the map used by this request (released when the request ends)
+	 */
+    protected MapRegistry.Handle mapHandle;
+
+	/**
+	 * Geographic Map (null until the registry makes it ready)
 	 */
     protected GeographicMap map;
 	
@@ -56,31 +112,246 @@ public class Server extends Thread
 	 * Best path points
 	 */
     protected String[] bestPathPoints;
+	
+	/**
+	 * Vehicle type requested by the client (null for the default vehicle of the map)
+	 */
+    protected AllowedVehicleTypes vehicle;
+
+	/**
+	 * Response format requested by the client (structured formats are not available for batch and testing requests)
+	 */
+    protected ResponseFormat format = ResponseFormat.TEXT;
+
+	/**
+	 * Detail level of the geometries requested by the client (full geometry by default)
+	 */
+    protected GeometryDetail detail = GeometryDetail.FULL;
+
+	/**
+	 * Max time (milliseconds) a job waits for the map still loading before failing
+	 */
+    public static final long JOB_READY_TIMEOUT = 10 * 60 * 1000;
+
+	/**
+	 * Max time (milliseconds) the result of a finished job is kept
+	 */
+    public static final long JOB_TIME_TO_LIVE = 30 * 60 * 1000;
+
+	/**
+	 * Job manager shared by all the connections (2 jobs run at the same time, up to 16 wait for a thread)
+	 */
+    protected static final JobManager jobManager = new JobManager(2, 16, JOB_TIME_TO_LIVE);
+
+	/**
+	 * Admission controller shared by all the connections (text and binary)
+	 */
+    protected static final AdmissionController admission = new AdmissionController(Runtime.getRuntime().availableProcessors());
+
+	/**
+	 * True if the client asked for running the request as an asynchronous job
+	 */
+    protected boolean jobSubmitted;
 
 	/**
-	 * Constructor with socket and Geographic Map
+	 * Job command requested by the client ("JobStatus", "FetchJob" or "CancelJob" followed by the job id, null if not requested)
+	 */
+    protected String[] jobCommand;
+
+	/**
+	 * True if the client asked for every improved tour while the solution is being searched
+	 */
+    protected boolean progressRequested;
+
+	/**
+	 * Time (milliseconds) the request may run
+	 */
+    protected long timeout = REQUEST_TIMEOUT;
+
+	/**
+	 * Cancellation token of the request: cancelled when the client goes away, expired when the timeout passes
+	 */
+    protected CancellationToken cancellation;
+
+	/**
+	 * Constructor with socket and catalog of the Geographic Maps
 	 * @param socket Socket
-	 * @param map Geographic Map
+	 * @param mapCatalog Catalog of the Geographic Maps
 	 */
-    protected Server(Socket socket, GeographicMap map)
+    protected Server(Socket socket, MapCatalog mapCatalog)
 	{
 		//Initialize fields
     	        this.socket = socket;
-		this.map = map;
+		this.mapCatalog = mapCatalog;
 		vrpTypesMap.put("ShowSolution", false);
 		vrpTypesMap.put("ShowTestSolution", false);
+		vrpTypesMap.put("ShowBatchSolution", false);
 		
 		//Begin execution calling run() method
 		start();
 	}
 	
 	/**
-	 * Constructor with socket (Italy is the default Geographic Map)
+	 * Constructor with socket and Geographic Map (already loaded)
+	 * @param socket Socket
+	 * @param map Geographic Map
+	 */
+    protected Server(Socket socket, GeographicMap map)
+	{
+		this(socket, MapCatalog.of("default", map));
+	}
+	
+	/**
+	 * Constructor with socket (Italy is the default Geographic Map, loaded once and shared by all these connections)
 	 * @param socket
 	 */
     protected Server(Socket socket)
 	{
-		this(socket, new Italy());
+		this(socket, getDefaultCatalog());
+	}
+	
+	/**
+	 * Get the catalog shared by the connections created without maps
+	 * @return Catalog whose only region is Italy
+	 */
+    protected static synchronized MapCatalog getDefaultCatalog()
+	{
+		if (defaultCatalog == null)
+		{
+			defaultCatalog = new MapCatalog(Runtime.getRuntime().maxMemory());
+			defaultCatalog.register("Italia", Italy::new);
+		}
+		return defaultCatalog;
+	}
+
+	/**
+	 * Get the message sent to the client when a request fails with the specified exception
+	 * @param e Exception
+	 * @return Message sent to the client
+	 */
+	protected static String getErrorMessage(Exception e)
+	{
+		if (e instanceof NoSpecifiedJobsException) return "Specificare almeno 3 fermate!";
+		if (e instanceof NoStopsFoundException) return "Non ho trovato fermate!";
+		if (e instanceof UncorrectQueryException) return "Richiesta non formulata correttamente!";
+		if (e instanceof NotExistingCoordinatesException) return "Attenzione: 1 o piu' fermate richieste non sono presenti nel database!";
+		if (e instanceof PathNotFoundException) return "Non ho trovato alcun percorso!";
+		if (e instanceof NoInstructionsFoundException) return "Non ho trovato istruzioni!";
+		if (e instanceof CancellationException) return "Tempo scaduto: richiesta interrotta!";
+		return "Non sono riuscito a processare la tua richiesta!";
+	}
+
+	/**
+	 * Get the map of the region requested by the client (waiting for it while loading) with the vehicle type
+	 * requested by the client selected, bound to the cancellation token of the request
+	 * @return Geographic Map (null if not ready yet)
+	 * @throws UncorrectQueryException Uncorrect Query Exception (region not served or vehicle type not stored into the graph)
+	 */
+    protected GeographicMap getMap() throws UncorrectQueryException
+	{
+		//Acquire the current map (a hot reload or an unload does not affect this request until it ends)
+		mapHandle = mapCatalog.acquire(region, vehicle, READY_TIMEOUT);
+		if (mapHandle == null) return null;
+		
+		GeographicMap readyMap = mapHandle.getMap();
+		return (vehicle == null ? readyMap : readyMap.forVehicle(vehicle)).withCancellation(cancellation);
+	}
+
+	/**
+	 * Get the cost class of the request, estimated by its type and number of stops
+	 * @param query Client query (the stops of the line)
+	 * @return Cost class (null if the request calculates nothing)
+	 */
+    protected AdmissionController.CostClass getCostClass(String query)
+	{
+		if (bestPathPoints != null) return AdmissionController.CostClass.CHEAP;
+		
+		//Testing requests route a path for every stop besides the TSP, batches solve many lines
+		if (vrpTypesMap.get("ShowBatchSolution") || vrpTypesMap.get("ShowTestSolution")) return AdmissionController.CostClass.HEAVY;
+		if (vrpTypesMap.get("ShowSolution")) return AdmissionController.classify(AdmissionController.estimateRoutes((int) query.lines().filter(line -> !line.isBlank()).count()), false);
+		return null;
+	}
+
+	/**
+	 * Create the listener sending every improved tour to the client, one per line: a JSON object for structured
+	 * formats, otherwise a text line starting with "Iterazione"
+	 * @param out Output stream of the connection
+	 * @return Progress listener
+	 */
+    protected TspProgressListener createProgressListener(PrintWriter out)
+	{
+		final ResponseFormat progressFormat = format;
+		return (iteration, tour) ->
+		{
+			if (progressFormat != ResponseFormat.TEXT) out.println(StructuredResponse.progress(iteration, tour));
+			else out.println("Iterazione " + iteration + ": distanza " + Math.round(tour.getDistance() / 100) / 10.0 + "km - " + String.join(" -> ", tour.getOrderedStops()));
+		};
+	}
+
+	/**
+	 * Submit the "ShowSolution" or "ShowTestSolution" request of the client as an asynchronous job
+	 * @param query Client query (the stops of the line)
+	 * @param costClass Cost class of the request (the job runs in its lane)
+	 * @return Message sent to the client (job id and status, or busy server)
+	 * @throws UncorrectQueryException Uncorrect Query Exception (no output type requested or query not well formed)
+	 * @throws NoSpecifiedJobsException No Specified Jobs Exception
+	 */
+    protected String submitJob(String query, AdmissionController.CostClass costClass) throws UncorrectQueryException, NoSpecifiedJobsException
+	{
+		boolean testing = vrpTypesMap.get("ShowTestSolution");
+		if (!testing && !vrpTypesMap.get("ShowSolution")) throw new UncorrectQueryException();
+
+		//Parse the query now, so that a malformed request is rejected at once
+		Bus bus = ClientBusParser.parse(query);
+
+		//Jobs are admitted into the lane of their cost class before they are queued: a busy lane rejects them at once
+		//with the time to retry, and the lane is held until the job ends
+		AdmissionController.Ticket ticket = admission.admit(costClass);
+		if (ticket == null) return admission.getBusyMessage(costClass);
+
+		//The job outlives the connection: it keeps its own copy of the client choices
+		final MapCatalog jobCatalog = mapCatalog;
+		final String jobRegion = region;
+		final AllowedVehicleTypes jobVehicle = vehicle;
+		final ResponseFormat jobFormat = format;
+		final GeometryDetail jobDetail = detail;
+		JobManager.Job job = jobManager.submit(cancellation ->
+		{
+			MapRegistry.Handle handle = jobCatalog.acquire(jobRegion, jobVehicle, JOB_READY_TIMEOUT);
+			if (handle == null) return "Server non pronto, riprova piu' tardi! (" + jobCatalog.getStatusMessage(jobRegion) + ")";
+			try
+			{
+				//Searches of this view stop as soon as the job is cancelled or its timeout (the one of the request) passes
+				GeographicMap jobMap = handle.getMap();
+				if (jobVehicle != null) jobMap = jobMap.forVehicle(jobVehicle);
+				jobMap = jobMap.withCancellation(cancellation);
+				return testing ? Test.getJspritAlgorithmTestingInfo(jobMap, bus) : Test.getJspritAlgorithmSolutionInfo(jobMap, bus, jobFormat, jobDetail);
+			}
+			finally
+			{
+				handle.close();
+			}
+		}, timeout, ticket);
+		if (job == null) return "Server occupato, riprova piu' tardi!";
+		return job.getStatusMessage();
+	}
+
+	/**
+	 * Run a job command: status, result or cancellation of a job
+	 * @param command Command ("JobStatus", "FetchJob" or "CancelJob") followed by the job id
+	 * @return Message sent to the client (the result for a fetched job which is done, its status otherwise)
+	 * @throws UncorrectQueryException Uncorrect Query Exception (job id missing)
+	 */
+    protected String getJobReply(String[] command) throws UncorrectQueryException
+	{
+		if (command.length != 2) throw new UncorrectQueryException();
+		JobManager.Job job = command[0].equals("CancelJob") ? jobManager.cancel(command[1]) : jobManager.getJob(command[1]);
+		if (job == null) return "Job non trovato o scaduto!";
+
+		//A fetched job which is done sends its result, any other job its status (with the reason of a failure)
+		if (command[0].equals("FetchJob") && job.getStatus() == JobManager.Status.DONE) return job.getResult();
+		if (job.getStatus() == JobManager.Status.FAILED) return job.getStatusMessage() + "\n" + job.getErrorMessage();
+		return job.getStatusMessage();
 	}
 
 	/**
@@ -88,15 +359,34 @@ public class Server extends Thread
 	 */
     public void run()
 	{
+		//Connections opened by the magic bytes of the binary protocol are served by a binary session
+		InputStream connectionIn;
+		try
+		{
+			connectionIn = new BufferedInputStream(socket.getInputStream());
+			if (BinaryProtocol.isNegotiated(connectionIn))
+			{
+				runBinary(connectionIn);
+				return;
+			}
+		}
+		catch (IOException e)
+		{
+			closeSocket();
+			return;
+		}
+		
 		//Initialize input and output streams + buffered reader (for input streams reading)
     	        InputStream in = null;
 		PrintWriter out = null;
 		BufferedReader br = null;
+		ClientWatcher watcher = null;
+		AdmissionController.Ticket ticket = null;
 		
 		try
 		{
 			//Get input and output stream (PrintWriter is needed for writing into output stream)
-			in = socket.getInputStream();
+			in = connectionIn;
 			out = new PrintWriter(socket.getOutputStream(), true);
 			
 			//Read input stream
@@ -108,10 +398,129 @@ public class Server extends Thread
 			//Initialize query String Builder
 	                StringBuilder query = new StringBuilder();
 			
+			//True if the client asks for the loading status of the map or for reloading it
+			boolean statusRequested = false;
+			boolean reloadRequested = false;
+			
+			//OpenStreetMap change file to be applied to the graph (null if not requested)
+			String changesFile = null;
+			
+			//Speed overlay file to be swapped in ("none" to remove the overlay, null if not requested)
+			String overlayFile = null;
+			
 			//Read client data until receiving "END" string
 	                String stop;
 			while ((stop = br.readLine()) != null && !stop.equals("END"))
 			{
+				//Status request: it does not need the map
+				if (stop.equals("STATUS"))
+				{
+					statusRequested = true;
+					continue;
+				}
+				
+				//Reload request: only accepted from the server host itself
+				if (stop.equals("RELOAD"))
+				{
+					reloadRequested = socket.getInetAddress().isLoopbackAddress();
+					statusRequested = true;
+					continue;
+				}
+				
+				//OpenStreetMap changes request (e.g. "ApplyChanges rome.osc"): only accepted from the server host itself,
+				//for change files stored into the maps directory
+				if (stop.startsWith("ApplyChanges "))
+				{
+					if (socket.getInetAddress().isLoopbackAddress()) changesFile = new File(GeographicMap.MAPSPATH, new File(stop.substring(13).trim()).getName()).getPath();
+					continue;
+				}
+				
+				//Speed overlay request (e.g. "SpeedOverlay ostiense.txt", "SpeedOverlay none" to remove it): only accepted
+				//from the server host itself, for overlay files stored into the maps directory
+				if (stop.startsWith("SpeedOverlay "))
+				{
+					if (socket.getInetAddress().isLoopbackAddress()) overlayFile = stop.substring(13).trim();
+					continue;
+				}
+				
+				//Asynchronous job request: a "ShowSolution" or "ShowTestSolution" request is answered at once with its job id
+				if (stop.equals("SubmitJob"))
+				{
+					jobSubmitted = true;
+					continue;
+				}
+
+				//Progress request: "ShowSolution" sends every improved tour found while searching, before the solution
+				if (stop.equals("ShowProgress"))
+				{
+					progressRequested = true;
+					continue;
+				}
+
+				//Job command (e.g. "JobStatus 1a2b", "FetchJob 1a2b", "CancelJob 1a2b"): it does not need the map
+				if (stop.startsWith("JobStatus ") || stop.startsWith("FetchJob ") || stop.startsWith("CancelJob "))
+				{
+					jobCommand = stop.trim().split(" +");
+					continue;
+				}
+
+				//Region request (e.g. "Region Roma"): the request is served by the map of this region
+				if (stop.startsWith("Region "))
+				{
+					region = stop.substring(7).trim();
+					continue;
+				}
+				
+				//Vehicle type request (e.g. "Vehicle car"): routing uses this vehicle instead of the default one
+				if (stop.startsWith("Vehicle "))
+				{
+					try
+					{
+						vehicle = AllowedVehicleTypes.valueOf(stop.substring(8).trim().toUpperCase());
+					}
+					catch (IllegalArgumentException e)
+					{
+						throw new UncorrectQueryException();
+					}
+					continue;
+				}
+				
+				//Response format request (e.g. "Format json", "Format geojson"): text is the default format
+				if (stop.startsWith("Format "))
+				{
+					try
+					{
+						format = ResponseFormat.valueOf(stop.substring(7).trim().toUpperCase());
+					}
+					catch (IllegalArgumentException e)
+					{
+						throw new UncorrectQueryException();
+					}
+					continue;
+				}
+				
+				//Timeout request (e.g. "Timeout 30" for 30 seconds): the request stops when it passes
+				if (stop.startsWith("Timeout "))
+				{
+					try
+					{
+						timeout = Long.parseLong(stop.substring(8).trim()) * 1000;
+					}
+					catch (NumberFormatException e)
+					{
+						throw new UncorrectQueryException();
+					}
+					if (timeout <= 0 || timeout > MAX_REQUEST_TIMEOUT) throw new UncorrectQueryException();
+					continue;
+				}
+				
+				//Geometry detail request (e.g. "Detail low", "Detail 10 5" for 10 meters tolerance and 5 decimals)
+				if (stop.startsWith("Detail "))
+				{
+					detail = GeometryDetail.parse(stop.substring(7));
+					continue;
+				}
+				
 				//If client asks for a specific output value regarding bus vrp, update
 				//the boolean value in corresponding vrpTypesMap key
 				boolean isType = false;
@@ -138,9 +547,77 @@ public class Server extends Thread
 			//Initialize solution to null
 			String solution = null;
 			
-			//If client asked for Single Source Best Path, then get GraphHopper algorithm solution
+			//The deadline of the request starts now; a client closing the connection meanwhile cancels the request
+			cancellation = new CancellationToken(timeout);
+			watcher = new ClientWatcher(socket, connectionIn, cancellation);
+			watcher.start();
+			
+			//Cost class of the request (administration requests are not subject to admission control)
+			AdmissionController.CostClass costClass = changesFile == null && overlayFile == null ? getCostClass(query.toString()) : null;
+			
+			//If client asked for the loading status, then send it
+			if (statusRequested)
+			{
+				if (reloadRequested) out.println(mapCatalog.getRegistry(region).reload() ? "Ricaricamento della mappa avviato" : "Impossibile avviare il ricaricamento della mappa adesso");
+				out.println(mapCatalog.getStatusMessage(region));
+			}
+
+			//Else if client asked for the status, the result or the cancellation of a job, then send it
+			else if (jobCommand != null) out.println(getJobReply(jobCommand));
+
+			//Else if client submitted a job, then send its id at once (the job acquires the map by itself)
+			else if (jobSubmitted) out.println(submitJob(query.toString(), costClass));
+
+			//Else if too many requests of the same cost class are running or waiting, then tell the client when to retry
+			else if ((ticket = admission.admit(costClass)) == null) out.println(admission.getBusyMessage(costClass));
+
+			//Else if the map is still loading after a short wait, then tell the client to retry
+			else if ((map = getMap()) == null) out.println("Server non pronto, riprova piu' tardi! (" + mapCatalog.getStatusMessage(region) + ")");
+			
+			//Else if client asked for applying OpenStreetMap changes, then apply them to the current graph
+			else if (changesFile != null)
+			{
+				out.println("Modifiche applicate: " + map.applyOsmChanges(changesFile) + " archi aggiornati");
+				
+				//Contraction hierarchies and landmarks are prepared again by importing the graph with the changes in background
+				if (mapCatalog.getRegistry(region).reload()) out.println("Reimportazione del grafo con le modifiche avviata");
+				else out.println("Ricaricamento in corso: inviare RELOAD al suo termine per reimportare il grafo con le modifiche");
+			}
+			
+			//Else if client asked for a speed overlay, then swap it in (or remove it)
+			else if (overlayFile != null)
+			{
+				if (overlayFile.equals("none")) map.setSpeedOverlay(null);
+				else map.loadSpeedOverlay(new File(GeographicMap.MAPSPATH, new File(overlayFile).getName()).getPath());
+				out.println("Correzioni di velocita' aggiornate");
+			}
+			
+			//Else if client asked for Single Source Best Path, then get GraphHopper algorithm solution
 			//represented by a string text
-			if (bestPathPoints != null) solution = Test.getGraphHopperAlgorithmSolutionInfo(map, bestPathPoints[1], bestPathPoints[2]);
+			else if (bestPathPoints != null) solution = Test.getGraphHopperAlgorithmSolutionInfo(map, bestPathPoints[1], bestPathPoints[2], format, detail);
+			
+			//Else if client asked for many lines at once, then send every solution as soon as it is ready
+			else if (vrpTypesMap.get("ShowBatchSolution"))
+			{
+				//Get Bus objects by client query (lines are separated by "NextLine")
+				List<Bus> buses = ClientBusParser.parseAll(query.toString());
+				final PrintWriter batchOut = out;
+				
+				Test.getJspritAlgorithmBatchSolutionInfo(map, buses, new TspBatchListener()
+				{
+					@Override
+					public void lineSolved(int index, String lineSolution)
+					{
+						batchOut.println("Linea " + (index + 1) + ":\n\n" + lineSolution);
+					}
+					
+					@Override
+					public void lineFailed(int index, Exception e)
+					{
+						batchOut.println("Linea " + (index + 1) + ": " + getErrorMessage(e));
+					}
+				});
+			}
 			
 			//Else if client asked for a specific output type provided by the server,
 			//then get appropriate solution ("ShowSolution" or "ShowTestSolution")
@@ -148,9 +625,17 @@ public class Server extends Thread
 			{
 				//Get Bus object by client query
 				Bus bus = ClientBusParser.parse(query.toString());
+				
+				//Improved tours are sent as soon as they are found, one per line
+				if (progressRequested) map = map.withProgressListener(createProgressListener(out));
 			
-				//get appropriate solution ("ShowSolution" or "ShowTestSolution")
-				if (vrpTypesMap.get("ShowSolution")) solution = Test.getJspritAlgorithmSolutionInfo(map, bus);
+				//get appropriate solution ("ShowSolution" or "ShowTestSolution"): a text solution is sent leg by leg
+				if (vrpTypesMap.get("ShowSolution") && format == ResponseFormat.TEXT)
+				{
+					Test.writeJspritAlgorithmSolutionInfo(map, bus, out);
+					out.println();
+				}
+				else if (vrpTypesMap.get("ShowSolution")) solution = Test.getJspritAlgorithmSolutionInfo(map, bus, format, detail);
 				else if (vrpTypesMap.get("ShowTestSolution")) solution = Test.getJspritAlgorithmTestingInfo(map, bus);
 	                }
 			
@@ -166,37 +651,22 @@ public class Server extends Thread
 		}
 		
 		//Handle Exception and close I/O stream and socket
-		catch (IOException ex)
+		catch (IOException | NoSpecifiedJobsException | NoStopsFoundException | UncorrectQueryException | NotExistingCoordinatesException | PathNotFoundException | NoInstructionsFoundException | CancellationException e)
 		{
-			out.println("Non sono riuscito a processare la tua richiesta!");
-		}
-		catch (NoSpecifiedJobsException e)
-		{
-			out.println("Specificare almeno 3 fermate!");
-		}
-		catch (NoStopsFoundException e)
-		{
-			out.println("Non ho trovato fermate!");
-		}
-		catch (UncorrectQueryException e)
-		{
-			out.println("Richiesta non formulata correttamente!");
-		}
-		catch(NotExistingCoordinatesException e)
-		{
-			out.println("Attenzione: 1 o piu' fermate richieste non sono presenti nel database!");
-		}
-		catch (PathNotFoundException e)
-		{
-			out.println("Non ho trovato alcun percorso!");
-		}
-		catch (NoInstructionsFoundException e)
-		{
-			out.println("Non ho trovato istruzioni!");
+			out.println(getErrorMessage(e));
 		}
 		
 		finally
 		{
+			//Release the map (a map replaced meanwhile is closed by its last request)
+			if (mapHandle != null) mapHandle.close();
+			
+			//Release the lane of the request
+			if (ticket != null) ticket.close();
+			
+			//Stop watching the client before reading its confirmation
+			if (watcher != null) watcher.close();
+			
 			//Tell the client to stop listening by sending "END"
 			out.println("END");
 			
@@ -221,27 +691,92 @@ public class Server extends Thread
 		}
 	}
 
+	/**
+	 * Serve a connection which negotiated the binary protocol, until the client closes it
+	 * @param in Input stream of the connection (positioned after the magic bytes)
+	 */
+    protected void runBinary(InputStream in)
+	{
+		log.debug("Binary connection established");
+		try
+		{
+			new BinarySession(mapCatalog, in, new BufferedOutputStream(socket.getOutputStream())).run();
+		}
+		catch (IOException e)
+		{
+			log.debug("Binary connection failed: " + e.getMessage());
+		}
+		finally
+		{
+			closeSocket();
+		}
+	}
+
+	/**
+	 * Close the socket, ignoring failures
+	 */
+    protected void closeSocket()
+	{
+		try
+		{
+			socket.close();
+		}
+		catch (IOException ex) {}
+	}
+
+	/**
+	 * Set the solver portfolio of a map just loaded
+	 * @param map Geographic Map
+	 * @param portfolio Solver portfolio (null for the single default algorithm)
+	 * @return The same map
+	 */
+    protected static GeographicMap withPortfolio(GeographicMap map, SolverPortfolio portfolio)
+	{
+		map.setSolverPortfolio(portfolio);
+		return map;
+	}
+
 	/**
 	 * Access point of the server
-	 * @param args Args
+	 * @param args Args (optional first arg: storage mode of the graphs, RAM, MMAP or MMAP_READ_ONLY;
+	 * optional second arg: default region, "Italia" or "Roma"; optional third arg: memory budget of the loaded graphs in MB;
+	 * optional fourth arg: number of configurations of the solver portfolio racing on every TSP, 0 or missing for the single default algorithm)
 	 */
     public static void main(String[] args)
     {
 		//Initialize server
     	ServerSocket server = null;
     	
-    	//Initialize Geographic map
-    	GeographicMap map = new Italy();
+    	//Storage mode of the graph (memory-mapped storage keeps the graph out of the heap)
+    	StorageMode storageMode = args.length > 0 ? StorageMode.valueOf(args[0].toUpperCase()) : StorageMode.RAM;
+    	
+    	//Memory budget of the loaded graphs (least recently used maps are unloaded beyond it)
+    	long memoryBudget = args.length > 2 ? Long.parseLong(args[2]) * 1024 * 1024 : Runtime.getRuntime().maxMemory();
+    	
+    	//Solver portfolio shared by the maps (null: every TSP is solved by the single default algorithm)
+    	int portfolioSize = args.length > 3 ? Integer.parseInt(args[3]) : 0;
+    	SolverPortfolio portfolio = portfolioSize > 0 ? SolverPortfolio.createDefault(portfolioSize, PORTFOLIO_TIME_LIMIT) : null;
+    	
+    	//Geographic maps served, loaded by their first request (the regional graph of Rome starts much faster than the whole Italy)
+    	Bus warmUpBus = new Bus716Rome();
+    	MapCatalog mapCatalog = new MapCatalog(memoryBudget);
+    	mapCatalog.register("Italia", () -> withPortfolio(new Italy(storageMode), portfolio), warmUpBus.getStartPoint(), warmUpBus.getEndPoint());
+    	mapCatalog.register("Roma", () -> withPortfolio(new Rome(storageMode), portfolio), warmUpBus.getStartPoint(), warmUpBus.getEndPoint());
 		
     	//Endlessly listen for a Client connection on the port number chosen
+    	//(the map is loaded in background: until it is ready only STATUS requests are served)
     	try
         {
 		server = new ServerSocket(PORT_NUMBER);
+		
+		//Load the default region in background
+		mapCatalog.setDefaultRegion(args.length > 1 ? args[1] : "Italia");
+		mapCatalog.getRegistry(null).start();
 		while (true)
 		{
 			Socket socket = server.accept();
 				
-			if (socket != null) new Server(socket, map);
+			if (socket != null) new Server(socket, mapCatalog);
 		}
 	}
 		
@@ -250,6 +785,10 @@ public class Server extends Thread
 	{
 		System.out.println("Impossibile eseguire il server!");
 	}
+    	catch (UncorrectQueryException ex)
+	{
+		System.out.println("Regione non disponibile: " + args[1]);
+	}
 	finally
 	{
 		try
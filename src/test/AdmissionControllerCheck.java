@@ -0,0 +1,86 @@
+package test;
+
+import java.util.concurrent.atomic.AtomicReference;
+import server.AdmissionController;
+import server.AdmissionController.CostClass;
+import server.AdmissionController.Ticket;
+
+/**
+ * Admission Controller Check: classification of requests, independent lanes, rejection of requests beyond the
+ * queue of a lane and estimate of the retry time
+ * @author Francesco Raco
+ */
+public class AdmissionControllerCheck
+{
+	/**
+	 * Start a thread asking for admission into a lane
+	 * @param admission Admission controller
+	 * @param costClass Cost class
+	 * @param ticket Reference set to the ticket obtained by the thread
+	 * @return Started thread
+	 * @throws InterruptedException Interrupted Exception
+	 */
+	private static Thread startWaiter(AdmissionController admission, CostClass costClass, AtomicReference<Ticket> ticket) throws InterruptedException
+	{
+		Thread waiter = new Thread(() -> ticket.set(admission.admit(costClass)));
+		waiter.start();
+
+		//Give the thread the time to enter the queue of the lane
+		Thread.sleep(300);
+		return waiter;
+	}
+
+	/**
+	 * Main method
+	 * @param args Default args
+	 * @throws InterruptedException Interrupted Exception
+	 */
+	public static void main(String[] args) throws InterruptedException
+	{
+		Check check = new Check("AdmissionController");
+
+		//Classification
+		check.verify("percorso singolo economico", AdmissionController.classify(1, false) == CostClass.CHEAP);
+		check.verify("linea media standard", AdmissionController.classify(AdmissionController.estimateRoutes(25), false) == CostClass.STANDARD);
+		check.verify("linea lunga pesante", AdmissionController.classify(AdmissionController.estimateRoutes(26), false) == CostClass.HEAVY);
+		check.verify("richiesta pesante per tipo", AdmissionController.classify(0, true) == CostClass.HEAVY);
+
+		//One processor: the heavy lane runs 1 request and queues 1, the cheap lane runs 2
+		AdmissionController admission = new AdmissionController(1);
+		Ticket free = admission.admit(null);
+		check.verify("richiesta senza classe sempre ammessa", free != null);
+		free.close();
+		check.verify("attesa minima di 1 secondo", admission.getRetryAfter(CostClass.CHEAP) == 1);
+		Ticket heavy = admission.admit(CostClass.HEAVY);
+		check.verify("richiesta pesante ammessa", heavy != null);
+		long start = System.currentTimeMillis();
+		Ticket cheap = admission.admit(CostClass.CHEAP);
+		check.verify("corsia economica libera con la corsia pesante piena", cheap != null && System.currentTimeMillis() - start < 1000);
+		cheap.close();
+
+		//The second heavy request waits, the third is rejected at once
+		AtomicReference<Ticket> queued = new AtomicReference<Ticket>();
+		Thread waiter = startWaiter(admission, CostClass.HEAVY, queued);
+		check.verify("seconda richiesta pesante in coda", waiter.isAlive());
+		start = System.currentTimeMillis();
+		check.verify("terza richiesta pesante rifiutata a coda piena", admission.admit(CostClass.HEAVY) == null && System.currentTimeMillis() - start < 1000);
+		check.verify("attesa stimata per la richiesta in esecuzione e per quella in coda", admission.getRetryAfter(CostClass.HEAVY) == 60);
+		check.verify("messaggio di server occupato", admission.getBusyMessage(CostClass.HEAVY).equals("Server occupato, riprova tra 60 secondi!"));
+
+		//Closing the running ticket admits the waiting request, closing it again releases nothing
+		heavy.close();
+		waiter.join(1000);
+		check.verify("richiesta in coda ammessa alla chiusura", !waiter.isAlive() && queued.get() != null);
+		check.verify("tempo medio aggiornato alla chiusura", admission.getRetryAfter(CostClass.HEAVY) < 30);
+		heavy.close();
+		AtomicReference<Ticket> extra = new AtomicReference<Ticket>();
+		waiter = startWaiter(admission, CostClass.HEAVY, extra);
+		check.verify("doppia chiusura senza permessi aggiuntivi", waiter.isAlive());
+		waiter.interrupt();
+		waiter.join(1000);
+		check.verify("richiesta interrotta non ammessa", !waiter.isAlive() && extra.get() == null);
+		queued.get().close();
+
+		check.end();
+	}
+}
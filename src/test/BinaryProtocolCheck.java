@@ -0,0 +1,141 @@
+package test;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import server.BinaryProtocol;
+
+/**
+ * Binary Protocol Check: negotiation, frames written by createFrame and putString are read back by readFrame
+ * and getString (also when the connection delivers one byte at a time), malformed frames are rejected
+ * @author Francesco Raco
+ */
+public class BinaryProtocolCheck
+{
+	/**
+	 * Input stream delivering at most one byte for every read, as a slow connection may do
+	 */
+	private static class SlowInputStream extends FilterInputStream
+	{
+		/**
+		 * Create slow input stream by the stream to be read
+		 * @param in Stream to be read
+		 */
+		private SlowInputStream(InputStream in)
+		{
+			super(in);
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException
+		{
+			return super.read(b, off, Math.min(len, 1));
+		}
+	}
+
+	/**
+	 * Create a frame with a string payload
+	 * @param type Frame type
+	 * @param version Protocol version
+	 * @param requestId Request id
+	 * @param s String
+	 * @return Bytes of the frame
+	 */
+	private static byte[] createStringFrame(byte type, int version, int requestId, String s)
+	{
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		ByteBuffer frame = BinaryProtocol.createFrame(type, version, requestId, BinaryProtocol.getStringLength(bytes));
+		BinaryProtocol.putString(frame, bytes);
+		return Arrays.copyOf(frame.array(), frame.position());
+	}
+
+	/**
+	 * Check if reading a frame fails with an I/O exception
+	 * @param bytes Bytes of the connection
+	 * @param eof True if the failure must be an end of stream inside the frame
+	 * @return True if reading fails as expected
+	 */
+	private static boolean isRejected(byte[] bytes, boolean eof)
+	{
+		try
+		{
+			BinaryProtocol.readFrame(new ByteArrayInputStream(bytes), ByteBuffer.allocate(16));
+			return false;
+		}
+		catch (IOException e)
+		{
+			return !eof || e instanceof EOFException;
+		}
+	}
+
+	/**
+	 * Main method
+	 * @param args Default args
+	 * @throws IOException I/O Exception (never thrown by in-memory streams)
+	 */
+	public static void main(String[] args) throws IOException
+	{
+		Check check = new Check("BinaryProtocol");
+
+		//Negotiation: the magic bytes select the binary protocol, anything else is left to the text protocol
+		InputStream binary = new BufferedInputStream(new ByteArrayInputStream(new byte[] {'V', 'R', 'P', 'B', 5}));
+		check.verify("connessione binaria riconosciuta", BinaryProtocol.isNegotiated(binary));
+		ByteArrayOutputStream answer = new ByteArrayOutputStream();
+		check.verify("versione concordata: la minore tra client e server", BinaryProtocol.handshake(binary, answer) == BinaryProtocol.VERSION && Arrays.equals(answer.toByteArray(), new byte[] {'V', 'R', 'P', 'B', BinaryProtocol.VERSION}));
+		check.verify("versione 0 non supportata", BinaryProtocol.handshake(new ByteArrayInputStream(new byte[] {0}), new ByteArrayOutputStream()) == 0);
+		InputStream text = new BufferedInputStream(new ByteArrayInputStream("VRP\nEND\n".getBytes(StandardCharsets.UTF_8)));
+		check.verify("connessione testuale non riconosciuta come binaria", !BinaryProtocol.isNegotiated(text));
+		check.verify("richiesta testuale lasciata intatta", text.read() == 'V' && text.read() == 'R' && text.read() == 'P' && text.read() == '\n');
+
+		//Frames of both versions are read back, also one byte at a time, and the buffer grows for a long frame
+		String address = "Piazza del Popolo, Roma \u00e8 \u20ac";
+		StringBuilder longAddress = new StringBuilder();
+		while (longAddress.length() < 1000) longAddress.append(address);
+		ByteArrayOutputStream connection = new ByteArrayOutputStream();
+		connection.write(createStringFrame(BinaryProtocol.RESULT, 2, 17, address));
+		connection.write(createStringFrame(BinaryProtocol.RESULT, 1, 0, address));
+		connection.write(createStringFrame(BinaryProtocol.STATUS_RESULT, 2, -3, longAddress.toString()));
+		InputStream in = new SlowInputStream(new ByteArrayInputStream(connection.toByteArray()));
+		ByteBuffer buffer = ByteBuffer.allocate(8);
+		ByteBuffer frame = BinaryProtocol.readFrame(in, buffer);
+		check.verify("frame della versione 2: tipo, id e stringa", frame.get() == BinaryProtocol.RESULT && frame.getInt() == 17 && BinaryProtocol.getString(frame).equals(address) && !frame.hasRemaining());
+		buffer = frame;
+		frame = BinaryProtocol.readFrame(in, buffer);
+		check.verify("frame della versione 1: tipo e stringa, senza id", frame == buffer && frame.get() == BinaryProtocol.RESULT && BinaryProtocol.getString(frame).equals(address) && !frame.hasRemaining());
+		frame = BinaryProtocol.readFrame(in, frame);
+		check.verify("buffer ingrandito per un frame lungo", frame.capacity() >= frame.limit() && frame.get() == BinaryProtocol.STATUS_RESULT && frame.getInt() == -3 && BinaryProtocol.getString(frame).equals(longAddress.toString()));
+		check.verify("fine della connessione tra un frame e l'altro", BinaryProtocol.readFrame(in, frame) == null);
+
+		//Malformed frames
+		byte[] valid = createStringFrame(BinaryProtocol.RESULT, 2, 1, address);
+		check.verify("connessione chiusa a meta' della lunghezza", isRejected(Arrays.copyOf(valid, 2), true));
+		check.verify("connessione chiusa a meta' del frame", isRejected(Arrays.copyOf(valid, valid.length - 1), true));
+		check.verify("lunghezza nulla rifiutata", isRejected(new byte[] {0, 0, 0, 0}, false));
+		check.verify("lunghezza negativa rifiutata", isRejected(new byte[] {(byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff}, false));
+		check.verify("lunghezza oltre il massimo rifiutata", isRejected(ByteBuffer.allocate(4).putInt(BinaryProtocol.MAX_FRAME_LENGTH + 1).array(), false));
+
+		//Strings longer than their frame
+		ByteBuffer payload = ByteBuffer.allocate(8).putInt(100).putInt(0);
+		payload.flip();
+		boolean underflow = false;
+		try
+		{
+			BinaryProtocol.getString(payload);
+		}
+		catch (BufferUnderflowException e)
+		{
+			underflow = true;
+		}
+		check.verify("stringa piu' lunga del frame rifiutata", underflow);
+
+		check.end();
+	}
+}
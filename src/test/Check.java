@@ -0,0 +1,54 @@
+package test;
+
+/**
+ * Check: runs the checks of a main method, prints the result of each one and ends the process
+ * with a failure exit status if any of them failed
+ * @author Francesco Raco
+ */
+public class Check
+{
+	/**
+	 * Name of the checked component
+	 */
+	private final String name;
+
+	/**
+	 * Number of checks run
+	 */
+	private int checks = 0;
+
+	/**
+	 * Number of failed checks
+	 */
+	private int failures = 0;
+
+	/**
+	 * Create check by name of the checked component
+	 * @param name Name of the checked component
+	 */
+	public Check(String name)
+	{
+		this.name = name;
+	}
+
+	/**
+	 * Verify a condition and print its result
+	 * @param description Description of the checked behaviour
+	 * @param passed True if the behaviour is correct
+	 */
+	public void verify(String description, boolean passed)
+	{
+		checks++;
+		if (!passed) failures++;
+		System.out.println((passed ? "OK       " : "FALLITO  ") + description);
+	}
+
+	/**
+	 * Print the summary and end the process (exit status 1 if any check failed)
+	 */
+	public void end()
+	{
+		System.out.println(name + ": " + (checks - failures) + "/" + checks + " controlli superati");
+		System.exit(failures == 0 ? 0 : 1);
+	}
+}
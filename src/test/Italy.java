@@ -2,6 +2,7 @@ package test;
 
 import java.util.Locale;
 import core.GeographicMap;
+import core.StorageMode;
 
 /**
  * Italy (geographic map)
@@ -13,5 +14,10 @@ public class Italy extends GeographicMap
 	{
 		super("italy.osm.pbf", Locale.ITALY);
 	}
+	
+	public Italy(StorageMode storageMode)
+	{
+		super("italy.osm.pbf", Locale.ITALY, storageMode);
+	}
 }
 
@@ -0,0 +1,103 @@
+package test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import core.PolylineEncoder;
+
+/**
+ * Polyline Encoder Check: values are encoded as in the reference examples of the encoded polyline
+ * algorithm, and random paths are decoded back within the precision of the multiplier
+ * @author Francesco Raco
+ */
+public class PolylineEncoderCheck
+{
+	/**
+	 * Decode an encoded polyline
+	 * @param encoded Encoded polyline
+	 * @param multiplier Multiplier of the coordinates
+	 * @return Coordinates (latitude and longitude of every point)
+	 */
+	private static List<double[]> decode(String encoded, double multiplier)
+	{
+		List<double[]> points = new ArrayList<double[]>();
+		long[] values = new long[2];
+		int index = 0;
+		while (index < encoded.length())
+		{
+			for (int c = 0; c < 2; c++)
+			{
+				//Chunks of 5 bits, lowest first, then zig-zag decoding of the delta
+				long result = 0;
+				int shift = 0;
+				int b;
+				do
+				{
+					b = encoded.charAt(index++) - 63;
+					result |= (long) (b & 0x1f) << shift;
+					shift += 5;
+				}
+				while (b >= 0x20);
+				values[c] += (result & 1) != 0 ? ~(result >> 1) : result >> 1;
+			}
+			points.add(new double[] {values[0] / multiplier, values[1] / multiplier});
+		}
+		return points;
+	}
+
+	/**
+	 * Get indexes 0..size-1
+	 * @param size Number of indexes
+	 * @return Indexes
+	 */
+	private static int[] getIndexes(int size)
+	{
+		int[] indexes = new int[size];
+		for (int i = 0; i < size; i++) indexes[i] = i;
+		return indexes;
+	}
+
+	/**
+	 * Main method
+	 * @param args Default args
+	 */
+	public static void main(String[] args)
+	{
+		Check check = new Check("PolylineEncoder");
+
+		//Reference examples of the encoded polyline algorithm
+		check.verify("percorso di esempio", PolylineEncoder.encode(new double[] {38.5, 40.7, 43.252}, new double[] {-120.2, -120.95, -126.453}, getIndexes(3), 1e5).equals("_p~iF~ps|U_ulLnnqC_mqNvxq`@"));
+		check.verify("valore negativo di esempio", PolylineEncoder.encode(new double[] {-179.9832104}, new double[] {0}, getIndexes(1), 1e5).equals("`~oia@?"));
+		check.verify("punto ripetuto codificato come differenza nulla", PolylineEncoder.encode(new double[] {41.9, 41.9}, new double[] {12.5, 12.5}, getIndexes(2), 1e5).endsWith("??"));
+		check.verify("nessun punto", PolylineEncoder.encode(new double[0], new double[0], new int[0], 1e5).isEmpty());
+
+		//Only the points of the indexes are encoded, each one as the delta from the previous encoded point
+		double[] lats = {41.89021, 41.89500, 41.90100, 41.90277};
+		double[] lons = {12.49223, 12.48000, 12.47000, 12.45360};
+		check.verify("solo i punti indicati vengono codificati", PolylineEncoder.encode(lats, lons, new int[] {0, 3}, 1e5).equals(PolylineEncoder.encode(new double[] {lats[0], lats[3]}, new double[] {lons[0], lons[3]}, getIndexes(2), 1e5)));
+
+		//Random paths are decoded back within half of the last decimal
+		Random random = new Random(7);
+		for (double multiplier : new double[] {1e4, 1e5, 1e6})
+		{
+			boolean decoded = true;
+			for (int p = 0; p < 100; p++)
+			{
+				int size = 1 + random.nextInt(50);
+				double[] pathLats = new double[size];
+				double[] pathLons = new double[size];
+				for (int i = 0; i < size; i++)
+				{
+					pathLats[i] = random.nextDouble() * 180 - 90;
+					pathLons[i] = random.nextDouble() * 360 - 180;
+				}
+				List<double[]> points = decode(PolylineEncoder.encode(pathLats, pathLons, getIndexes(size), multiplier), multiplier);
+				decoded &= points.size() == size;
+				for (int i = 0; decoded && i < size; i++) decoded = Math.abs(points.get(i)[0] - pathLats[i]) <= 0.5 / multiplier + 1e-9 && Math.abs(points.get(i)[1] - pathLons[i]) <= 0.5 / multiplier + 1e-9;
+			}
+			check.verify("percorsi casuali decodificati con moltiplicatore " + (long) multiplier, decoded);
+		}
+
+		check.end();
+	}
+}
@@ -0,0 +1,30 @@
+package test;
+
+import java.util.Locale;
+import core.AllowedVehicleTypes;
+import core.GeographicMap;
+import core.GeographicRegion;
+import core.RoutingPreparation;
+import core.StorageMode;
+
+/**
+ * Rome (regional graph imported from the geographic map of Italy, shared by bus, car and foot routing)
+ * @author Francesco Raco
+ */
+public class Rome extends GeographicMap
+{
+	/**
+	 * Bounding box of Rome (Grande Raccordo Anulare, Fiumicino and Ostia included)
+	 */
+	public static final GeographicRegion ROME = GeographicRegion.boundingBox("Roma", 41.65, 12.20, 42.10, 12.85);
+	
+	public Rome()
+	{
+		this(StorageMode.RAM);
+	}
+	
+	public Rome(StorageMode storageMode)
+	{
+		super("italy.osm.pbf", Locale.ITALY, storageMode, ROME, RoutingPreparation.CH, AllowedVehicleTypes.BUS, AllowedVehicleTypes.CAR, AllowedVehicleTypes.FOOT);
+	}
+}
@@ -0,0 +1,83 @@
+package test;
+
+import com.graphhopper.jsprit.core.algorithm.VehicleRoutingAlgorithm;
+import com.graphhopper.jsprit.core.algorithm.box.Jsprit;
+import com.graphhopper.jsprit.core.problem.VehicleRoutingProblem;
+import com.graphhopper.jsprit.core.problem.solution.VehicleRoutingProblemSolution;
+import com.graphhopper.jsprit.core.util.Solutions;
+import core.CostMatrixWrapper;
+import core.GeographicMap;
+import core.NotExistingCoordinatesException;
+import core.PathNotFoundException;
+import core.TspAlgorithmFactory;
+import core.UncorrectQueryException;
+import test.busExamples.Bus30Rome;
+import test.busExamples.Bus716Rome;
+
+/**
+ * Solver Benchmark: compare default Jsprit strategies with the TSP tuned ones
+ * (solution cost and elapsed time, reported separately) on the same problem
+ * @author Francesco Raco
+ */
+public class SolverBenchmark
+{
+	/**
+	 * Run an algorithm and get a String representation of its result
+	 * @param name Name of the algorithm
+	 * @param vra Vehicle Routing Algorithm
+	 * @return String representation of solution cost and elapsed time
+	 */
+	private static String run(String name, VehicleRoutingAlgorithm vra)
+	{
+		//Start time
+		long start = System.currentTimeMillis();
+
+		//Best solution found
+		VehicleRoutingProblemSolution solution = Solutions.bestOf(vra.searchSolutions());
+
+		//Elapsed time
+		long elapsed = Math.max(1, System.currentTimeMillis() - start);
+
+		return name + ": costo " + Math.round(solution.getCost()) + ", tempo " + elapsed + "ms, non assegnati " + solution.getUnassignedJobs().size() + "\n";
+	}
+
+	/**
+	 * Compare default and tuned algorithms on the TSP of the given bus
+	 * @param map Geographic map
+	 * @param bus Bus
+	 * @return String representation of the comparison
+	 * @throws PathNotFoundException Path Not Found Exception
+	 * @throws NotExistingCoordinatesException Not Existing Coordinates Exception
+	 * @throws UncorrectQueryException Uncorrect Query Exception
+	 */
+	public static String compare(GeographicMap map, Bus bus) throws UncorrectQueryException, NotExistingCoordinatesException, PathNotFoundException
+	{
+		//Shared costs, so that routing is done once and only the search is measured
+		CostMatrixWrapper cmw = new CostMatrixWrapper();
+
+		//Problem (single vehicle, fixed start and end point)
+		VehicleRoutingProblem vrp = map.createTspProblem(cmw, bus.getStartPoint(), bus.getEndPoint(), bus.getIntermediateStopsToBeProcessed());
+
+		//Default Jsprit algorithm
+		VehicleRoutingAlgorithm defaultAlgorithm = Jsprit.createAlgorithm(vrp);
+		defaultAlgorithm.setMaxIterations(TspAlgorithmFactory.ITERATIONS);
+
+		return run("Default", defaultAlgorithm) + run("TSP", TspAlgorithmFactory.createAlgorithm(vrp));
+	}
+
+	/**
+	 * Main method
+	 * @param args Default args
+	 * @throws PathNotFoundException Path Not Found Exception
+	 * @throws NotExistingCoordinatesException Not Existing Coordinates Exception
+	 * @throws UncorrectQueryException Uncorrect Query Exception
+	 */
+	public static void main(String[] args) throws UncorrectQueryException, NotExistingCoordinatesException, PathNotFoundException
+	{
+		//Italy (geographic map)
+		GeographicMap map = new Italy();
+
+		System.out.print("Bus 716 Roma\n" + compare(map, new Bus716Rome()));
+		System.out.print("\nBus 30 Roma\n" + compare(map, new Bus30Rome()));
+	}
+}
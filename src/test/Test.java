@@ -1,12 +1,19 @@
 package test;
 
+import java.io.PrintWriter;
+import java.util.ArrayList;
 import java.util.List;
 import com.graphhopper.jsprit.core.problem.solution.VehicleRoutingProblemSolution;
+import core.BatchTspSolver;
 import core.BestPathChoice;
+import core.CostMatrixWrapper;
 import core.GeographicMap;
+import core.GeometryDetail;
 import core.NoInstructionsFoundException;
 import core.NotExistingCoordinatesException;
 import core.PathNotFoundException;
+import core.ResponseFormat;
+import core.TspBatchListener;
 import core.UncorrectQueryException;
 import test.busExamples.Bus716Rome;
 import test.busExamples.Bus30Rome;
@@ -95,6 +102,61 @@ public class Test
     	return map.showTspSolution(bus.getStartPoint(), bus.getEndPoint(), bus.getIntermediateStopsToBeProcessed());
     }
     
+    /**
+     * Get Jsprit algorithm solution info in the specified response format
+     * @param map Geographic map
+     * @param bus Bus
+     * @param format Response format
+     * @param detail Detail level of the geometry (ignored by text format)
+     * @return Jsprit algorithm solution info
+     * @throws NoInstructionsFoundException No Instructions Found Exception
+     * @throws PathNotFoundException Path Not Found Exception
+     * @throws NotExistingCoordinatesException Not Existing Coordinates Exception
+     * @throws UncorrectQueryException Uncorrect Query Exception
+     */
+    public static String getJspritAlgorithmSolutionInfo(GeographicMap map, Bus bus, ResponseFormat format, GeometryDetail detail) throws UncorrectQueryException, NotExistingCoordinatesException, PathNotFoundException, NoInstructionsFoundException
+    {
+    	return map.showTspSolution(new CostMatrixWrapper(), bus.getStartPoint(), bus.getEndPoint(), bus.getIntermediateStopsToBeProcessed(), format, detail);
+    }
+    
+    /**
+     * Write Jsprit algorithm solution info leg by leg, as soon as every leg is ready
+     * @param map Geographic map
+     * @param bus Bus
+     * @param out Writer of the solution info
+     * @throws NoInstructionsFoundException No Instructions Found Exception
+     * @throws PathNotFoundException Path Not Found Exception
+     * @throws NotExistingCoordinatesException Not Existing Coordinates Exception
+     * @throws UncorrectQueryException Uncorrect Query Exception
+     */
+    public static void writeJspritAlgorithmSolutionInfo(GeographicMap map, Bus bus, PrintWriter out) throws UncorrectQueryException, NotExistingCoordinatesException, PathNotFoundException, NoInstructionsFoundException
+    {
+    	map.writeTspSolution(new CostMatrixWrapper(), bus.getStartPoint(), bus.getEndPoint(), bus.getIntermediateStopsToBeProcessed(), out);
+    }
+    
+    /**
+     * Get Jsprit algorithm solution info of many buses at once: shared stops are geocoded once,
+     * every couple of stops is calculated once and every solution is passed to the listener as soon as it is ready
+     * @param map Geographic map
+     * @param buses Buses
+     * @param listener Listener receiving every solution info
+     */
+    public static void getJspritAlgorithmBatchSolutionInfo(GeographicMap map, List<Bus> buses, TspBatchListener listener)
+    {
+    	//Every line lists its stops from start to end point
+    	List<List<String>> lines = new ArrayList<List<String>>();
+    	for (Bus bus : buses)
+    	{
+    		List<String> line = new ArrayList<String>();
+    		line.add(bus.getStartPoint());
+    		line.addAll(bus.getIntermediateStopsToBeProcessed());
+    		line.add(bus.getEndPoint());
+    		lines.add(line);
+    	}
+    	
+    	new BatchTspSolver(map).solve(lines, listener);
+    }
+    
     /**
      * Get GraphHopper best path between 2 specified locations
      * @param map Geographic map
@@ -110,6 +172,22 @@ public class Test
     	return map.showBestPath(btp, from, to);
     }
     
+    /**
+     * Get GraphHopper fastest path between 2 specified locations in the specified response format
+     * @param map Geographic map
+     * @param from Start point
+     * @param to End point
+     * @param format Response format
+     * @param detail Detail level of the geometry (ignored by text format)
+     * @return Representation of the best path between the 2 specified locations
+     * @throws PathNotFoundException Path Not Found Exception
+     * @throws NotExistingCoordinatesException Not Existing Coordinates Exception 
+     */
+    public static String getGraphHopperAlgorithmSolutionInfo(GeographicMap map, String from, String to, ResponseFormat format, GeometryDetail detail) throws NotExistingCoordinatesException, PathNotFoundException
+    {
+    	return map.showBestPath(BestPathChoice.FASTEST, from, to, format, detail);
+    }
+    
     /**
      * Get GraphHopper fastest path between 2 specified locations
      * @param map Geographic map
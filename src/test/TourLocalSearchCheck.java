@@ -0,0 +1,139 @@
+package test;
+
+import java.util.Arrays;
+import java.util.Random;
+import core.TourLocalSearch;
+
+/**
+ * Tour Local Search Check: the improved tour keeps its start and end point and every stop,
+ * is never worse than the initial one and is optimal on small symmetric and asymmetric problems
+ * @author Francesco Raco
+ */
+public class TourLocalSearchCheck
+{
+	/**
+	 * Create the cost matrix of random points (Euclidean distances, optionally made asymmetric)
+	 * @param random Random generator
+	 * @param size Number of points
+	 * @param asymmetric True to add a different random cost to every direction
+	 * @return Cost matrix
+	 */
+	private static double[][] createCosts(Random random, int size, boolean asymmetric)
+	{
+		double[] x = new double[size];
+		double[] y = new double[size];
+		for (int i = 0; i < size; i++)
+		{
+			x[i] = random.nextDouble() * 1000;
+			y[i] = random.nextDouble() * 1000;
+		}
+		double[][] costs = new double[size][size];
+		for (int i = 0; i < size; i++)
+			for (int j = 0; j < size; j++)
+				if (i != j) costs[i][j] = Math.hypot(x[i] - x[j], y[i] - y[j]) + (asymmetric ? random.nextDouble() * 300 : 0);
+		return costs;
+	}
+
+	/**
+	 * Get the cost of the best open tour from the first to the last point (every order of the other points is tried)
+	 * @param tour Tour whose intermediate stops are permuted (restored on return)
+	 * @param from First permuted position
+	 * @param costs Cost matrix
+	 * @return Cost of the best tour
+	 */
+	private static double getOptimalCost(int[] tour, int from, double[][] costs)
+	{
+		if (from == tour.length - 2) return TourLocalSearch.cost(tour, costs);
+		double best = Double.MAX_VALUE;
+		for (int i = from; i < tour.length - 1; i++)
+		{
+			swap(tour, from, i);
+			best = Math.min(best, getOptimalCost(tour, from + 1, costs));
+			swap(tour, from, i);
+		}
+		return best;
+	}
+
+	/**
+	 * Swap 2 stops of a tour
+	 * @param tour Tour
+	 * @param i Position of the first stop
+	 * @param j Position of the second stop
+	 */
+	private static void swap(int[] tour, int i, int j)
+	{
+		int stop = tour[i];
+		tour[i] = tour[j];
+		tour[j] = stop;
+	}
+
+	/**
+	 * Check that a tour is a permutation of 0..n-1 starting with 0 and ending with n-1
+	 * @param tour Tour
+	 * @return True if the tour keeps start point, end point and every stop
+	 */
+	private static boolean isValid(int[] tour)
+	{
+		int[] sorted = tour.clone();
+		Arrays.sort(sorted);
+		for (int i = 0; i < sorted.length; i++) if (sorted[i] != i) return false;
+		return tour[0] == 0 && tour[tour.length - 1] == tour.length - 1;
+	}
+
+	/**
+	 * Main method
+	 * @param args Default args
+	 */
+	public static void main(String[] args)
+	{
+		Check check = new Check("TourLocalSearch");
+		Random random = new Random(42);
+
+		//Points on a line visited out of order: 2-opt and or-opt straighten the tour
+		double[][] line = new double[6][6];
+		for (int i = 0; i < 6; i++) for (int j = 0; j < 6; j++) line[i][j] = Math.abs(i - j);
+		int[] lineTour = {0, 3, 1, 4, 2, 5};
+		double lineCost = TourLocalSearch.improve(lineTour, line, 100);
+		check.verify("punti allineati visitati in ordine", Arrays.equals(lineTour, new int[] {0, 1, 2, 3, 4, 5}) && lineCost == 5);
+
+		//No rounds: the tour is left as it is
+		int[] unchanged = {0, 3, 1, 4, 2, 5};
+		TourLocalSearch.improve(unchanged, line, 0);
+		check.verify("nessuna modifica con 0 iterazioni", Arrays.equals(unchanged, new int[] {0, 3, 1, 4, 2, 5}));
+
+		//Tours too short to be changed
+		int[] shortTour = {0, 1, 2};
+		check.verify("percorso con una sola fermata intermedia", TourLocalSearch.improve(shortTour, line, 100) == 2 && Arrays.equals(shortTour, new int[] {0, 1, 2}));
+
+		//Random problems: the result is valid, never worse and consistent with its cost
+		boolean valid = true;
+		boolean notWorse = true;
+		boolean consistent = true;
+		int optimal = 0;
+		final int PROBLEMS = 200;
+		for (int p = 0; p < PROBLEMS; p++)
+		{
+			boolean asymmetric = p % 2 == 1;
+			int size = 4 + random.nextInt(5);
+			double[][] costs = createCosts(random, size, asymmetric);
+			int[] tour = new int[size];
+			for (int i = 0; i < size; i++) tour[i] = i;
+			for (int i = size - 2; i > 1; i--) swap(tour, i, 1 + random.nextInt(i));
+			double initial = TourLocalSearch.cost(tour, costs);
+			double improved = TourLocalSearch.improve(tour, costs, 1000);
+			valid &= isValid(tour);
+			notWorse &= improved <= initial + 1e-9;
+			consistent &= Math.abs(improved - TourLocalSearch.cost(tour, costs)) < 1e-9;
+			if (improved <= getOptimalCost(tour.clone(), 1, costs) + 1e-6) optimal++;
+		}
+		check.verify("partenza, arrivo e fermate conservati", valid);
+		check.verify("costo mai peggiore di quello iniziale", notWorse);
+		check.verify("costo restituito uguale al costo del percorso", consistent);
+
+		//Local search does not guarantee the optimum, but small problems are almost always solved
+		System.out.println("         percorsi ottimi: " + optimal + "/" + PROBLEMS);
+		check.verify("almeno il 90% dei percorsi piccoli e' ottimo", optimal >= PROBLEMS * 0.9);
+
+		check.end();
+	}
+}
@@ -0,0 +1,56 @@
+package test;
+
+import java.util.Arrays;
+import java.util.List;
+import core.BestPathChoice;
+import core.TspSolutionCache;
+import core.TspTour;
+
+/**
+ * TSP Solution Cache Check: the canonical key ignores the order of the intermediate stops only,
+ * and the cache evicts the least recently used tour
+ * @author Francesco Raco
+ */
+public class TspSolutionCacheCheck
+{
+	/**
+	 * Main method
+	 * @param args Default args
+	 */
+	public static void main(String[] args)
+	{
+		Check check = new Check("TspSolutionCache");
+		List<String> stops = Arrays.asList("Piazza Venezia", "Via Nazionale", "Termini");
+		String key = TspSolutionCache.createKey("Colosseo", "San Pietro", stops, BestPathChoice.FASTEST, "bus", "v1");
+
+		//Only the order of the intermediate stops is canonicalized
+		check.verify("stesse fermate in ordine diverso, stessa chiave", key.equals(TspSolutionCache.createKey("Colosseo", "San Pietro", Arrays.asList("Termini", "Piazza Venezia", "Via Nazionale"), BestPathChoice.FASTEST, "bus", "v1")));
+		check.verify("la chiave non modifica la lista delle fermate", stops.equals(Arrays.asList("Piazza Venezia", "Via Nazionale", "Termini")));
+		check.verify("partenza e arrivo invertiti, chiave diversa", !key.equals(TspSolutionCache.createKey("San Pietro", "Colosseo", stops, BestPathChoice.FASTEST, "bus", "v1")));
+		check.verify("fermata intermedia al posto dell'arrivo, chiave diversa", !key.equals(TspSolutionCache.createKey("Colosseo", "Termini", Arrays.asList("Piazza Venezia", "Via Nazionale", "San Pietro"), BestPathChoice.FASTEST, "bus", "v1")));
+		check.verify("fermata ripetuta, chiave diversa", !key.equals(TspSolutionCache.createKey("Colosseo", "San Pietro", Arrays.asList("Piazza Venezia", "Via Nazionale", "Termini", "Termini"), BestPathChoice.FASTEST, "bus", "v1")));
+		check.verify("criterio diverso, chiave diversa", !key.equals(TspSolutionCache.createKey("Colosseo", "San Pietro", stops, BestPathChoice.SHORTEST, "bus", "v1")));
+		check.verify("veicolo diverso, chiave diversa", !key.equals(TspSolutionCache.createKey("Colosseo", "San Pietro", stops, BestPathChoice.FASTEST, "car", "v1")));
+		check.verify("versione del grafo diversa, chiave diversa", !key.equals(TspSolutionCache.createKey("Colosseo", "San Pietro", stops, BestPathChoice.FASTEST, "bus", "v2")));
+
+		//Fields are separated, so moving characters from a stop to the next one changes the key
+		check.verify("fermate concatenate in modo diverso, chiave diversa", !TspSolutionCache.createKey("A", "B", Arrays.asList("ab", "c"), BestPathChoice.FASTEST, "bus", "v1").equals(TspSolutionCache.createKey("A", "B", Arrays.asList("a", "bc"), BestPathChoice.FASTEST, "bus", "v1")));
+		check.verify("chiave esadecimale SHA-256", key.matches("[0-9a-f]{64}"));
+
+		//Least recently used tours are evicted first
+		TspSolutionCache cache = new TspSolutionCache(2);
+		TspTour tour = new TspTour(Arrays.asList("Colosseo", "Termini", "San Pietro"), 1000, null);
+		cache.put("a", tour);
+		cache.put("b", tour);
+		cache.get("a");
+		cache.put("c", tour);
+		check.verify("capacita' rispettata", cache.size() == 2);
+		check.verify("il percorso usato di recente resta in cache", cache.get("a") == tour);
+		check.verify("il percorso usato meno di recente viene eliminato", cache.get("b") == null);
+		check.verify("conteggio di hit e miss", cache.getHits() == 2 && cache.getMisses() == 1);
+		cache.clear();
+		check.verify("svuotamento della cache", cache.size() == 0 && cache.get("a") == null);
+
+		check.end();
+	}
+}